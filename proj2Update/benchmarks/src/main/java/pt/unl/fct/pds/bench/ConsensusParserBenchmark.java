@@ -0,0 +1,81 @@
+package pt.unl.fct.pds.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import pt.unl.fct.pds.utils.ConsensusByteParser;
+import pt.unl.fct.pds.utils.ConsensusParser;
+import pt.unl.fct.pds.utils.ConsensusStreamParser;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the bundled fixture consensus (1500 relays) with the streaming
+ * Reader parser, the byte parser, and end to end from a local file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConsensusParserBenchmark {
+
+    private byte[] fixture;
+    private Path file;
+    private ConsensusParser parser;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = Fixtures.consensusBytes();
+        file = Files.createTempFile("consensus-bench", ".txt");
+        Files.write(file, fixture);
+        parser = new ConsensusParser(ConsensusParser.VERBOSITY_QUIET);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public int streamParser(Blackhole bh) throws IOException {
+        int count = 0;
+        try (ConsensusStreamParser stream = new ConsensusStreamParser(
+                new BufferedReader(new InputStreamReader(new ByteArrayInputStream(fixture), StandardCharsets.UTF_8)),
+                ConsensusParser.VERBOSITY_QUIET)) {
+            while (stream.hasNext()) {
+                bh.consume(stream.next());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int byteParser(Blackhole bh) {
+        return new ConsensusByteParser(ConsensusParser.VERBOSITY_QUIET).parse(ByteBuffer.wrap(fixture), bh::consume);
+    }
+
+    @Benchmark
+    public int parseConsensusFile() throws IOException {
+        return parser.parseConsensusFile(file).length;
+    }
+}
@@ -0,0 +1,82 @@
+package pt.unl.fct.pds.bench;
+
+import pt.unl.fct.pds.model.Node;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.SplittableRandom;
+
+/**
+ * Inputs shared by the benchmarks: the bundled fixture consensus and
+ * deterministic synthetic relay sets of any size.
+ */
+final class Fixtures {
+
+    static final String CONSENSUS_RESOURCE = "/consensus-fixture.txt";
+
+    // Roughly the country mix of the real network, most popular first
+    private static final String[] COUNTRIES = {
+            "DE", "US", "FR", "NL", "FI", "GB", "CH", "SE", "CA", "PL", "AT", "RO", "LU", "NO", "RU", "UA"
+    };
+
+    // A few crowded /16s, so the subnet constraint actually rejects draws
+    private static final int[] HOT_PREFIXES = {
+            (185 << 8) | 220, (51 << 8) | 15, (94 << 8) | 16, (104 << 8) | 244, (95 << 8) | 216, (5 << 8) | 9
+    };
+
+    private Fixtures() {
+    }
+
+    static byte[] consensusBytes() throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream(CONSENSUS_RESOURCE)) {
+            if (in == null) {
+                throw new IOException("Missing benchmark fixture " + CONSENSUS_RESOURCE);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Relay set with a realistic flag mix (about 45% Guard, 25% Exit, all
+     * Fast), log-normal bandwidths and countries tied to the /16 prefix.
+     */
+    static Node[] syntheticNodes(int count, long seed) {
+        SplittableRandom rnd = new SplittableRandom(seed);
+        Node[] nodes = new Node[count];
+        for (int i = 0; i < count; i++) {
+            int prefix = rnd.nextDouble() < 0.4
+                    ? HOT_PREFIXES[rnd.nextInt(HOT_PREFIXES.length)]
+                    : rnd.nextInt(1 << 16);
+            String ip = (prefix >>> 8) + "." + (prefix & 0xff) + "." + rnd.nextInt(256) + "." + (1 + rnd.nextInt(254));
+
+            boolean exit = rnd.nextDouble() < 0.25;
+            boolean guard = rnd.nextDouble() < 0.45;
+            String[] flags = exit && guard
+                    ? new String[] { "Exit", "Fast", "Guard", "Running", "Valid" }
+                    : exit ? new String[] { "Exit", "Fast", "Running", "Valid" }
+                    : guard ? new String[] { "Fast", "Guard", "Running", "Valid" }
+                    : new String[] { "Fast", "Running", "Valid" };
+
+            int bandwidth = (int) Math.max(1, Math.exp(8.5 + 1.5 * gaussian(rnd)));
+            String country = COUNTRIES[Math.floorMod(prefix * 31, COUNTRIES.length)];
+
+            nodes[i] = new Node("relay" + i, String.format("FP%025d", i), null, ip, 9001, 0, flags,
+                    "Tor 0.4.8.12", bandwidth, country, exit ? "accept 80,443" : "reject 1-65535");
+        }
+        return nodes;
+    }
+
+    private static double gaussian(SplittableRandom rnd) {
+        // Box-Muller; SplittableRandom has no nextGaussian on Java 8
+        double u = 1.0 - rnd.nextDouble();
+        double v = rnd.nextDouble();
+        return Math.sqrt(-2.0 * Math.log(u)) * Math.cos(2 * Math.PI * v);
+    }
+}
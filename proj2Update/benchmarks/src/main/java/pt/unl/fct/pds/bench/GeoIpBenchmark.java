@@ -0,0 +1,98 @@
+package pt.unl.fct.pds.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.unl.fct.pds.utils.BoundedCountryCache;
+import pt.unl.fct.pds.utils.ConsensusParser;
+import pt.unl.fct.pds.utils.GeoIpDatabase;
+import pt.unl.fct.pds.utils.IpAddresses;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Country lookups without network: ConsensusParser.lookupCountry backed by
+ * a local GeoIpDatabase stand-in with as many ranges as Tor's geoip file,
+ * the raw packed-int lookup, and a warm country cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeoIpBenchmark {
+
+    private static final int RANGES = 200_000;
+    private static final int QUERIES = 4096;
+
+    private ConsensusParser parser;
+    private GeoIpDatabase db;
+    private BoundedCountryCache cache;
+    private String[] ips;
+    private int[] packed;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        SplittableRandom rnd = new SplittableRandom(1);
+        Path file = Files.createTempFile("geoip-bench", ".txt");
+        try {
+            // Contiguous ranges covering the whole IPv4 space
+            long start = 0;
+            long step = (1L << 32) / RANGES;
+            try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+                for (int i = 0; i < RANGES; i++) {
+                    long end = i == RANGES - 1 ? 0xffffffffL : start + step - 1;
+                    char a = (char) ('A' + rnd.nextInt(26));
+                    char b = (char) ('A' + rnd.nextInt(26));
+                    w.write(start + "," + end + "," + a + b + "\n");
+                    start = end + 1;
+                }
+            }
+            db = GeoIpDatabase.load(file, null);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        parser = new ConsensusParser(ConsensusParser.VERBOSITY_QUIET);
+        parser.setGeoIpDatabase(db);
+
+        cache = new BoundedCountryCache(QUERIES * 2, 0);
+        ips = new String[QUERIES];
+        packed = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            packed[i] = rnd.nextInt();
+            ips[i] = IpAddresses.formatIpv4(packed[i]);
+            cache.put(packed[i], "DE");
+        }
+    }
+
+    @Benchmark
+    public String lookupCountry() {
+        return parser.lookupCountry(ips[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public short lookupIpv4Packed() {
+        return db.lookupIpv4(packed[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public String countryCacheHit() {
+        return cache.get(packed[next++ & (QUERIES - 1)]);
+    }
+}
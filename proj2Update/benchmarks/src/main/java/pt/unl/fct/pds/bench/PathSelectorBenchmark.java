@@ -0,0 +1,71 @@
+package pt.unl.fct.pds.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.unl.fct.pds.CircuitBatch;
+import pt.unl.fct.pds.PathSelector;
+import pt.unl.fct.pds.model.Circuit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit selection throughput at several relay-set sizes. Run with
+ * "-prof gc" to see the allocation rate per circuit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathSelectorBenchmark {
+
+    @Param({ "1000", "4000", "8000" })
+    public int relays;
+
+    private static final int BATCH = 1024;
+
+    private PathSelector selector;
+    private CircuitBatch batch;
+    private int circuitId;
+
+    @Setup
+    public void setUp() {
+        selector = new PathSelector(Fixtures.syntheticNodes(relays, 42L), 42L);
+        batch = new CircuitBatch(BATCH);
+    }
+
+    @Benchmark
+    public Circuit selectPathBaseline() {
+        return selector.selectPathBaseline(circuitId++);
+    }
+
+    @Benchmark
+    public Circuit selectPathGeoAware() {
+        return selector.selectPathGeoAware(circuitId++, 0.5, 0.2);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public CircuitBatch selectPathsBaselineBatch() {
+        selector.selectPathsBaseline(BATCH, batch);
+        return batch;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public CircuitBatch selectPathsGeoAwareBatch() {
+        selector.selectPathsGeoAware(BATCH, 0.5, 0.2, batch);
+        return batch;
+    }
+}
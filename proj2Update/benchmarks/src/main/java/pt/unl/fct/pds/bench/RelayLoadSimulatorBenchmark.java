@@ -0,0 +1,53 @@
+package pt.unl.fct.pds.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.unl.fct.pds.BaselineStrategy;
+import pt.unl.fct.pds.PathSelector;
+import pt.unl.fct.pds.RelayLoadSimulator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relay load simulation throughput, in events (arrivals plus completions)
+ * per second, at light and heavy load. On these 1500 relays an arrival
+ * rate of 2000/s keeps the busiest relay near 40% utilisation and 5000/s
+ * near 85%.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class RelayLoadSimulatorBenchmark {
+
+    private static final int FLOWS = 100_000;
+
+    @Param({ "2000", "5000" })
+    public double arrivalsPerSecond;
+
+    private RelayLoadSimulator simulator;
+    private long seed;
+
+    @Setup
+    public void setUp() {
+        simulator = new RelayLoadSimulator(new PathSelector(Fixtures.syntheticNodes(1500, 42L), 42L));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2 * FLOWS)
+    public RelayLoadSimulator.Report simulate() {
+        return simulator.run(BaselineStrategy.INSTANCE, FLOWS, arrivalsPerSecond, 500.0, seed++);
+    }
+}
@@ -0,0 +1,161 @@
+package pt.unl.fct.pds;
+
+import pt.unl.fct.pds.utils.CountryCodes;
+import pt.unl.fct.pds.utils.IpAddresses;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of relays assumed to be observed by one party: every relay in one
+ * of its countries, in one of its /16 prefixes, or listed by fingerprint.
+ *
+ * Adversaries are written one per line as a name followed by any of
+ * "country=US,DE", "subnet=10.1.0.0/16,192.168.0.0" and
+ * "relay=$HEX,base64", separated by spaces; see {@link #parse(String)}.
+ * {@link CompromiseAnalyzer} compiles them against a relay table.
+ */
+public final class Adversary {
+
+    private final String name;
+    private final short[] countries;
+    private final int[] subnets;
+    private final String[] relays;
+
+    /**
+     * @param countries country codes ({@link CountryCodes})
+     * @param subnets   /16 prefixes, as the upper 16 bits of the address
+     * @param relays    consensus (base64) fingerprints
+     */
+    public Adversary(String name, short[] countries, int[] subnets, String[] relays) {
+        this.name = name;
+        this.countries = countries.clone();
+        this.subnets = subnets.clone();
+        this.relays = relays.clone();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public short[] getCountries() {
+        return countries.clone();
+    }
+
+    public int[] getSubnets() {
+        return subnets.clone();
+    }
+
+    public String[] getRelays() {
+        return relays.clone();
+    }
+
+    /**
+     * Parses "name key=v,v key=v ...". Keys are country (two-letter codes),
+     * subnet (an address whose upper 16 bits give the prefix, with an
+     * optional "/16") and relay (base64 fingerprints, or "$" followed by the
+     * hex fingerprint as in family lines).
+     */
+    public static Adversary parse(String line) {
+        String[] parts = line.trim().split("\\s+");
+        if (parts.length < 2 || parts[0].indexOf('=') >= 0) {
+            throw new IllegalArgumentException("Expected a name and at least one set: " + line);
+        }
+
+        List<Short> countries = new ArrayList<>();
+        List<Integer> subnets = new ArrayList<>();
+        List<String> relays = new ArrayList<>();
+        for (int i = 1; i < parts.length; i++) {
+            int eq = parts[i].indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Invalid adversary set: " + parts[i]);
+            }
+            String key = parts[i].substring(0, eq);
+            for (String value : parts[i].substring(eq + 1).split(",")) {
+                if (value.isEmpty())
+                    continue;
+                if (key.equals("country")) {
+                    short code = CountryCodes.code(value);
+                    if (code == CountryCodes.NONE)
+                        throw new IllegalArgumentException("Invalid country: " + value);
+                    countries.add(code);
+                } else if (key.equals("subnet")) {
+                    subnets.add(parseSubnet(value));
+                } else if (key.equals("relay")) {
+                    String fp = value.charAt(0) == '$' ? RelayTable.fingerprintOf(value) : value;
+                    if (fp == null)
+                        throw new IllegalArgumentException("Invalid fingerprint: " + value);
+                    relays.add(fp);
+                } else {
+                    throw new IllegalArgumentException("Unknown adversary set: " + key);
+                }
+            }
+        }
+
+        short[] c = new short[countries.size()];
+        for (int i = 0; i < c.length; i++) {
+            c[i] = countries.get(i);
+        }
+        int[] s = new int[subnets.size()];
+        for (int i = 0; i < s.length; i++) {
+            s[i] = subnets.get(i);
+        }
+        return new Adversary(parts[0], c, s, relays.toArray(new String[0]));
+    }
+
+    private static int parseSubnet(String value) {
+        int slash = value.indexOf('/');
+        if (slash >= 0 && !value.substring(slash + 1).equals("16")) {
+            throw new IllegalArgumentException("Only /16 prefixes are supported: " + value);
+        }
+        long ip = IpAddresses.parseIpv4(slash >= 0 ? value.substring(0, slash) : value);
+        if (ip < 0) {
+            throw new IllegalArgumentException("Invalid subnet: " + value);
+        }
+        return (int) (ip >>> 16);
+    }
+
+    /**
+     * One adversary per non-empty line; lines starting with '#' are
+     * comments.
+     */
+    public static List<Adversary> read(Reader in) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        List<Adversary> adversaries = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty() && line.charAt(0) != '#')
+                adversaries.add(parse(line));
+        }
+        return adversaries;
+    }
+
+    /**
+     * One adversary per country that has a live relay in the table, named
+     * after the country, in code order.
+     */
+    public static List<Adversary> perCountry(RelayTable relays) {
+        boolean[] present = new boolean[CountryCodes.MAX_CODE + 1];
+        for (int id = 0; id < relays.size(); id++) {
+            if (relays.isLive(id))
+                present[relays.country(id)] = true;
+        }
+
+        List<Adversary> adversaries = new ArrayList<>();
+        for (short c = 1; c <= CountryCodes.MAX_CODE; c++) {
+            if (present[c])
+                adversaries.add(new Adversary(CountryCodes.name(c), new short[] { c }, new int[0], new String[0]));
+        }
+        return adversaries;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + countries.length + " countries, " + subnets.length + " subnets, "
+                + relays.length + " relays)";
+    }
+}
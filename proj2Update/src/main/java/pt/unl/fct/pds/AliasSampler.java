@@ -0,0 +1,114 @@
+package pt.unl.fct.pds;
+
+/**
+ * Immutable Walker/Vose alias table over a fixed array of weights.
+ *
+ * Once built, {@link #sample(double)} returns index i with probability
+ * weights[i] / sum(weights) in O(1) time and without allocating.
+ * Negative weights are treated as zero. If every weight is zero the draw is
+ * uniform, which is the same fallback the linear walks in PathSelector use.
+ */
+public final class AliasSampler {
+
+    private final double[] prob;
+    private final int[] alias;
+    private final double total;
+
+    public AliasSampler(double[] weights) {
+        int n = weights.length;
+        if (n == 0) {
+            throw new IllegalArgumentException("Cannot build an alias table with no weights.");
+        }
+
+        this.prob = new double[n];
+        this.alias = new int[n];
+
+        double sum = 0.0;
+        for (double w : weights) {
+            if (w > 0) {
+                sum += w;
+            }
+        }
+        this.total = sum;
+
+        if (sum <= 0.0) {
+            for (int i = 0; i < n; i++) {
+                prob[i] = 1.0;
+                alias[i] = i;
+            }
+            return;
+        }
+
+        // Vose's method: scale every weight so the average is 1, then pair each
+        // "small" column with a "large" one that tops it up.
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+
+        for (int i = 0; i < n; i++) {
+            double w = weights[i] > 0 ? weights[i] : 0.0;
+            scaled[i] = w * n / sum;
+            if (scaled[i] < 1.0) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+
+        while (smallCount > 0 && largeCount > 0) {
+            int s = small[--smallCount];
+            int l = large[--largeCount];
+
+            prob[s] = scaled[s];
+            alias[s] = l;
+
+            scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+            if (scaled[l] < 1.0) {
+                small[smallCount++] = l;
+            } else {
+                large[largeCount++] = l;
+            }
+        }
+
+        // Whatever is left is 1.0 up to rounding error.
+        while (largeCount > 0) {
+            int l = large[--largeCount];
+            prob[l] = 1.0;
+            alias[l] = l;
+        }
+        while (smallCount > 0) {
+            int s = small[--smallCount];
+            prob[s] = 1.0;
+            alias[s] = s;
+        }
+    }
+
+    /**
+     * Draws an index using a single uniform value u in [0, 1).
+     * The integer part of u * n picks the column and the fractional part
+     * decides between the column and its alias.
+     */
+    public int sample(double u) {
+        int n = prob.length;
+        double x = u * n;
+        int i = (int) x;
+        if (i >= n) {
+            i = n - 1;
+        }
+        return (x - i) < prob[i] ? i : alias[i];
+    }
+
+    public int size() {
+        return prob.length;
+    }
+
+    /**
+     * Sum of the positive weights this table was built from.
+     * Zero means draws are uniform.
+     */
+    public double total() {
+        return total;
+    }
+}
@@ -0,0 +1,52 @@
+package pt.unl.fct.pds;
+
+/**
+ * Bandwidth weighting with every relay's weight capped at cap, so a few very
+ * fast relays cannot take most of the selections in any position.
+ */
+public final class BandwidthCappedStrategy implements PathSelectionStrategy {
+
+    private final int cap;
+
+    public BandwidthCappedStrategy(int cap) {
+        if (cap <= 0) {
+            throw new IllegalArgumentException("cap must be positive.");
+        }
+        this.cap = cap;
+    }
+
+    public int getCap() {
+        return cap;
+    }
+
+    @Override
+    public String getName() {
+        return "bwcap";
+    }
+
+    // min(bw, cap) / bw, so that bw * factor = min(bw, cap)
+    private double capped(RelayTable relays, int id) {
+        int bw = relays.bandwidth(id);
+        return bw <= cap ? 1.0 : cap / (double) bw;
+    }
+
+    @Override
+    public double exitFactor(RelayTable relays, int candidate) {
+        return capped(relays, candidate);
+    }
+
+    @Override
+    public double guardFactor(RelayTable relays, int candidate, int exit) {
+        return capped(relays, candidate);
+    }
+
+    @Override
+    public double middleFactor(RelayTable relays, int candidate, int guard, int exit) {
+        return capped(relays, candidate);
+    }
+
+    @Override
+    public String toString() {
+        return getName() + ":cap=" + cap;
+    }
+}
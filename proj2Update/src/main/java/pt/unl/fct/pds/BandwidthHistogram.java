@@ -0,0 +1,199 @@
+package pt.unl.fct.pds;
+
+import java.util.Arrays;
+
+/**
+ * Log-linear histogram of non-negative values (circuit bandwidths), in the
+ * style of HdrHistogram.
+ *
+ * Values below 128 get a bucket each; above that every power of two is
+ * split into 128 equal buckets, so a percentile is off by less than 1/128
+ * (0.8%) of its value. Memory depends only on the largest value recorded
+ * (at most a few thousand buckets for int values), not on how many were
+ * recorded. Count, sum, min and max are exact, and histograms built on
+ * different threads are combined with {@link #merge(BandwidthHistogram)}.
+ */
+public final class BandwidthHistogram {
+
+    private static final int SUB_BITS = 7;
+    private static final int SUB = 1 << SUB_BITS;
+
+    private long[] counts = new long[2 * SUB];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    /**
+     * Adds one value; negative values count as 0.
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        int i = indexOf(value);
+        if (i >= counts.length)
+            counts = Arrays.copyOf(counts, Math.max(i + 1, counts.length * 2));
+        counts[i]++;
+        count++;
+        sum += value;
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+    }
+
+    public void merge(BandwidthHistogram other) {
+        if (other.counts.length > counts.length)
+            counts = Arrays.copyOf(counts, other.counts.length);
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long min() {
+        return count > 0 ? min : 0;
+    }
+
+    public long max() {
+        return count > 0 ? max : 0;
+    }
+
+    public double mean() {
+        return count > 0 ? (double) sum / count : 0.0;
+    }
+
+    /**
+     * Value at quantile q (0 = min, 1 = max) by nearest rank: the middle of
+     * the bucket holding that rank, kept within [min, max].
+     */
+    public long percentile(double q) {
+        if (count == 0)
+            return 0;
+        if (q <= 0)
+            return min;
+        if (q >= 1)
+            return max;
+
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long low = lowerBound(i);
+                long mid = low + (width(i) - 1) / 2;
+                return Math.max(min, Math.min(max, mid));
+            }
+        }
+        return max;
+    }
+
+    public Summary summary() {
+        return new Summary(count, min(), max(), mean(), percentile(0.10), percentile(0.50), percentile(0.90),
+                percentile(0.99));
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((value >>> shift) - SUB);
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB)
+            return index;
+        int shift = index / SUB - 1;
+        return (long) (SUB + index % SUB) << shift;
+    }
+
+    private static long width(int index) {
+        return index < SUB ? 1 : 1L << (index / SUB - 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof BandwidthHistogram))
+            return false;
+        BandwidthHistogram h = (BandwidthHistogram) o;
+        if (count != h.count || sum != h.sum || min != h.min || max != h.max)
+            return false;
+        int n = Math.max(counts.length, h.counts.length);
+        for (int i = 0; i < n; i++) {
+            long a = i < counts.length ? counts[i] : 0;
+            long b = i < h.counts.length ? h.counts[i] : 0;
+            if (a != b)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(count) * 31 + Long.hashCode(sum);
+    }
+
+    /**
+     * Point-in-time statistics of a histogram.
+     */
+    public static final class Summary {
+        private final long count;
+        private final long min;
+        private final long max;
+        private final double mean;
+        private final long p10;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+
+        Summary(long count, long min, long max, double mean, long p10, long p50, long p90, long p99) {
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+            this.p10 = p10;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public long getP10() {
+            return p10;
+        }
+
+        public long getMedian() {
+            return p50;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package pt.unl.fct.pds;
+
+/**
+ * Tor's default: every position weighted by bandwidth alone.
+ */
+public final class BaselineStrategy implements PathSelectionStrategy {
+
+    public static final BaselineStrategy INSTANCE = new BaselineStrategy();
+
+    private BaselineStrategy() {
+    }
+
+    @Override
+    public String getName() {
+        return "baseline";
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
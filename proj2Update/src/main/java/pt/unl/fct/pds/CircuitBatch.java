@@ -0,0 +1,102 @@
+package pt.unl.fct.pds;
+
+import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.model.Node;
+
+import java.util.Arrays;
+
+/**
+ * Columnar output of the PathSelector.selectPaths* methods: one primitive
+ * array per field, with circuit i made of guards[i], middles[i] and
+ * exits[i] (relay ids in the selector's {@link RelayTable}).
+ *
+ * A batch is meant to be reused: each selectPaths call overwrites it from
+ * index 0 and only grows the arrays when asked for more circuits than they
+ * hold, so steady-state generation allocates nothing.
+ */
+public final class CircuitBatch {
+
+    int[] guards;
+    int[] middles;
+    int[] exits;
+    int[] minBandwidths;
+    int size;
+
+    public CircuitBatch(int capacity) {
+        guards = new int[capacity];
+        middles = new int[capacity];
+        exits = new int[capacity];
+        minBandwidths = new int[capacity];
+    }
+
+    void reset(int count) {
+        if (count > guards.length) {
+            guards = Arrays.copyOf(guards, count);
+            middles = Arrays.copyOf(middles, count);
+            exits = Arrays.copyOf(exits, count);
+            minBandwidths = Arrays.copyOf(minBandwidths, count);
+        }
+        size = 0;
+    }
+
+    void add(int guard, int middle, int exit, int minBandwidth) {
+        guards[size] = guard;
+        middles[size] = middle;
+        exits[size] = exit;
+        minBandwidths[size] = minBandwidth;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return guards.length;
+    }
+
+    public int guard(int i) {
+        return guards[i];
+    }
+
+    public int middle(int i) {
+        return middles[i];
+    }
+
+    public int exit(int i) {
+        return exits[i];
+    }
+
+    public int minBandwidth(int i) {
+        return minBandwidths[i];
+    }
+
+    /**
+     * Backing arrays, valid for indices below {@link #size()}. They are
+     * replaced if the batch grows, so do not keep them across calls.
+     */
+    public int[] getGuards() {
+        return guards;
+    }
+
+    public int[] getMiddles() {
+        return middles;
+    }
+
+    public int[] getExits() {
+        return exits;
+    }
+
+    public int[] getMinBandwidths() {
+        return minBandwidths;
+    }
+
+    /**
+     * Circuit i as a Circuit object, for printing or for code that still
+     * works with Nodes.
+     */
+    public Circuit toCircuit(int i, int circuitId, RelayTable relays) {
+        Node[] nodes = { relays.node(guards[i]), relays.node(middles[i]), relays.node(exits[i]) };
+        return new Circuit(circuitId, nodes, minBandwidths[i]);
+    }
+}
@@ -0,0 +1,221 @@
+package pt.unl.fct.pds;
+
+import pt.unl.fct.pds.model.RelayFlags;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Long-lived Tor clients and their guards, simulated across consecutive
+ * consensuses.
+ *
+ * Every client holds a fixed number of guard slots. A slot keeps its relay
+ * until the guard's lifetime (drawn uniformly between the minimum and
+ * maximum, in consensus periods) runs out, or until the relay leaves the
+ * consensus or loses the Guard flag; then a new guard is drawn by bandwidth
+ * from the current consensus. Drawing a relay the client already holds is
+ * avoided by redrawing, on a best-effort basis: after a bounded number of
+ * redraws the duplicate is kept, which only happens when there are hardly
+ * more guards than slots.
+ *
+ * State is one primitive array per field with a slot per (client, guard),
+ * so hundreds of thousands of clients fit in a few megabytes. Relays are
+ * kept as ids of the selector's {@link RelayTable}, which are stable across
+ * {@link PathSelector#update(pt.unl.fct.pds.model.Node[])}; the fingerprint
+ * hash stored with each slot catches ids that were freed and reused.
+ */
+public final class ClientPopulation {
+
+    // Draws before accepting a guard the client already holds; only
+    // matters when there are hardly more guards than slots
+    private static final int MAX_DUPLICATE_DRAWS = 32;
+
+    private final int clients;
+    private final int guardsPerClient;
+    private final int minLifetime;
+    private final int maxLifetime;
+    private final SplittableRandom random;
+
+    private final int[] guard;
+    private final long[] guardHash;
+    private final int[] expiresAt;
+    // Guards assigned to each client since the start (a relay drawn again
+    // later counts again)
+    private final int[] guardsUsed;
+
+    private int period;
+
+    /**
+     * @param minLifetime shortest guard lifetime, in consensus periods
+     * @param maxLifetime longest guard lifetime, in consensus periods
+     */
+    public ClientPopulation(int clients, int guardsPerClient, int minLifetime, int maxLifetime, long seed) {
+        if (clients <= 0 || guardsPerClient <= 0) {
+            throw new IllegalArgumentException("clients and guardsPerClient must be positive.");
+        }
+        if (minLifetime <= 0 || maxLifetime < minLifetime) {
+            throw new IllegalArgumentException("Invalid guard lifetime range.");
+        }
+        this.clients = clients;
+        this.guardsPerClient = guardsPerClient;
+        this.minLifetime = minLifetime;
+        this.maxLifetime = maxLifetime;
+        this.random = new SplittableRandom(seed);
+
+        int slots = Math.multiplyExact(clients, guardsPerClient);
+        this.guard = new int[slots];
+        this.guardHash = new long[slots];
+        this.expiresAt = new int[slots];
+        this.guardsUsed = new int[clients];
+        Arrays.fill(guard, -1);
+    }
+
+    /**
+     * Statistics of one consensus period.
+     */
+    public static final class StepStats {
+        private final int period;
+        private final int rotated;
+        private final int replaced;
+        private final int distinctGuards;
+        private final double guardEntropy;
+        private final double meanGuardsUsed;
+
+        StepStats(int period, int rotated, int replaced, int distinctGuards, double guardEntropy,
+                double meanGuardsUsed) {
+            this.period = period;
+            this.rotated = rotated;
+            this.replaced = replaced;
+            this.distinctGuards = distinctGuards;
+            this.guardEntropy = guardEntropy;
+            this.meanGuardsUsed = meanGuardsUsed;
+        }
+
+        public int getPeriod() {
+            return period;
+        }
+
+        /**
+         * Slots whose guard reached the end of its lifetime.
+         */
+        public int getRotated() {
+            return rotated;
+        }
+
+        /**
+         * Slots whose guard left the consensus or lost the Guard flag, plus
+         * the slots filled for the first time.
+         */
+        public int getReplaced() {
+            return replaced;
+        }
+
+        public int getDistinctGuards() {
+            return distinctGuards;
+        }
+
+        /**
+         * Shannon entropy (bits) of which relay holds each guard slot.
+         */
+        public double getGuardEntropy() {
+            return guardEntropy;
+        }
+
+        /**
+         * Average number of guards assigned per client so far.
+         */
+        public double getMeanGuardsUsed() {
+            return meanGuardsUsed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("period %d: %d rotated, %d replaced, %d guards in use, H %.4f, "
+                    + "%.3f guards/client so far",
+                    period, rotated, replaced, distinctGuards, guardEntropy, meanGuardsUsed);
+        }
+    }
+
+    /**
+     * Advances one consensus period. selector must already be on the
+     * consensus for this period. O(clients * guardsPerClient).
+     */
+    public StepStats step(PathSelector selector) {
+        RelayTable relays = selector.getRelayTable();
+        PathSelector drawer = selector.withRandom(random.split());
+        SelectionCounter holders = new SelectionCounter(relays.size());
+
+        int rotated = 0;
+        int replaced = 0;
+        long totalUsed = 0;
+
+        for (int c = 0; c < clients; c++) {
+            int base = c * guardsPerClient;
+            for (int s = base; s < base + guardsPerClient; s++) {
+                int g = guard[s];
+                boolean valid = g >= 0 && g < relays.size() && relays.isLive(g)
+                        && relays.fingerprintHash(g) == guardHash[s]
+                        && relays.hasFlags(g, RelayFlags.GUARD);
+
+                if (!valid) {
+                    replaced++;
+                    assign(drawer, relays, c, s);
+                } else if (period >= expiresAt[s]) {
+                    rotated++;
+                    assign(drawer, relays, c, s);
+                }
+                holders.add(guard[s]);
+            }
+            totalUsed += guardsUsed[c];
+        }
+
+        StepStats stats = new StepStats(period, rotated, replaced, holders.distinct(), holders.entropy(),
+                totalUsed / (double) clients);
+        period++;
+        return stats;
+    }
+
+    private void assign(PathSelector drawer, RelayTable relays, int client, int slot) {
+        int base = client * guardsPerClient;
+        int g = drawer.selectGuardId();
+        for (int attempt = 0; attempt < MAX_DUPLICATE_DRAWS && holds(base, slot, g); attempt++) {
+            g = drawer.selectGuardId();
+        }
+
+        guard[slot] = g;
+        guardHash[slot] = relays.fingerprintHash(g);
+        expiresAt[slot] = period + minLifetime + random.nextInt(maxLifetime - minLifetime + 1);
+        guardsUsed[client]++;
+    }
+
+    // True if another slot of the client (base..base+guardsPerClient) holds g
+    private boolean holds(int base, int slot, int g) {
+        for (int s = base; s < base + guardsPerClient; s++) {
+            if (s != slot && guard[s] == g)
+                return true;
+        }
+        return false;
+    }
+
+    public int getClients() {
+        return clients;
+    }
+
+    public int getGuardsPerClient() {
+        return guardsPerClient;
+    }
+
+    /**
+     * Number of periods simulated so far.
+     */
+    public int getPeriod() {
+        return period;
+    }
+
+    /**
+     * Relay id in the given slot of a client, or -1 before the first step.
+     */
+    public int guard(int client, int slot) {
+        return guard[client * guardsPerClient + slot];
+    }
+}
@@ -0,0 +1,229 @@
+package pt.unl.fct.pds;
+
+import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.model.Node;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * How often each of a list of {@link Adversary adversaries} observes the
+ * guard, the exit, or both ends of generated circuits.
+ *
+ * The adversaries are compiled once against a relay table into one bit row
+ * per relay id: bit a of row r is set if adversary a observes relay r. A
+ * circuit is then scored against every adversary at once by AND-ing the
+ * guard and exit rows 64 adversaries per word, so thousands of adversaries
+ * cost a few dozen word operations per circuit plus one increment per hit.
+ *
+ * Rows reflect the table when the analyzer was built; build a new one after
+ * {@link PathSelector#update(Node[])} or a country refresh.
+ */
+public final class CompromiseAnalyzer {
+
+    private final RelayTable relays;
+    private final List<Adversary> adversaries;
+    private final int words;
+    // [relay id * words + word]
+    private final long[] rows;
+
+    public CompromiseAnalyzer(RelayTable relays, List<Adversary> adversaries) {
+        this.relays = relays;
+        this.adversaries = new ArrayList<>(adversaries);
+        this.words = Math.max(1, (adversaries.size() + 63) >>> 6);
+        this.rows = new long[relays.size() * words];
+        compile();
+    }
+
+    private void compile() {
+        // Adversaries observing each country and each /16, as rows of the
+        // same shape as the relay rows
+        Map<Short, long[]> byCountry = new HashMap<>();
+        Map<Integer, long[]> bySubnet = new HashMap<>();
+        for (int a = 0; a < adversaries.size(); a++) {
+            Adversary adv = adversaries.get(a);
+            for (short c : adv.getCountries()) {
+                setBit(byCountry.computeIfAbsent(c, k -> new long[words]), 0, a);
+            }
+            for (int s : adv.getSubnets()) {
+                setBit(bySubnet.computeIfAbsent(s, k -> new long[words]), 0, a);
+            }
+            for (String fp : adv.getRelays()) {
+                int id = relays.idOf(fp);
+                if (id >= 0)
+                    setBit(rows, id * words, a);
+            }
+        }
+
+        for (int id = 0; id < relays.size(); id++) {
+            if (!relays.isLive(id))
+                continue;
+            or(id, byCountry.get(relays.country(id)));
+            if (relays.subnet16(id) >= 0)
+                or(id, bySubnet.get(relays.subnet16(id)));
+        }
+    }
+
+    private static void setBit(long[] row, int offset, int bit) {
+        row[offset + (bit >>> 6)] |= 1L << bit;
+    }
+
+    private void or(int id, long[] row) {
+        if (row == null)
+            return;
+        int base = id * words;
+        for (int w = 0; w < words; w++) {
+            rows[base + w] |= row[w];
+        }
+    }
+
+    public List<Adversary> getAdversaries() {
+        return adversaries;
+    }
+
+    public boolean observes(int adversary, int relayId) {
+        return (rows[relayId * words + (adversary >>> 6)] & (1L << adversary)) != 0;
+    }
+
+    /**
+     * Number of live relays the adversary observes.
+     */
+    public int relayCount(int adversary) {
+        int count = 0;
+        for (int id = 0; id < relays.size(); id++) {
+            if (observes(adversary, id))
+                count++;
+        }
+        return count;
+    }
+
+    public Tally newTally() {
+        return new Tally();
+    }
+
+    /**
+     * Per-adversary counts of observed circuits. Tallies filled on
+     * different threads are combined with {@link #merge(Tally)}.
+     */
+    public final class Tally {
+        private long circuits;
+        private final long[] guard = new long[adversaries.size()];
+        private final long[] exit = new long[adversaries.size()];
+        private final long[] endToEnd = new long[adversaries.size()];
+        private final long[] anyHop = new long[adversaries.size()];
+
+        Tally() {
+        }
+
+        public void record(CircuitBatch batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                record(batch.guards[i], batch.middles[i], batch.exits[i]);
+            }
+        }
+
+        /**
+         * Records a circuit from selectPathBaseline/selectPathGeoAware.
+         * Relays missing from the table count as observed by nobody.
+         */
+        public void record(Circuit c) {
+            Node[] nodes = c.getNodes();
+            record(relays.idOf(nodes[0].getFingerprint()), relays.idOf(nodes[1].getFingerprint()),
+                    relays.idOf(nodes[2].getFingerprint()));
+        }
+
+        void record(int guardId, int middleId, int exitId) {
+            circuits++;
+            int g = guardId * words;
+            int m = middleId * words;
+            int e = exitId * words;
+            for (int w = 0; w < words; w++) {
+                long gBits = guardId >= 0 ? rows[g + w] : 0;
+                long mBits = middleId >= 0 ? rows[m + w] : 0;
+                long eBits = exitId >= 0 ? rows[e + w] : 0;
+                int base = w << 6;
+                count(guard, base, gBits);
+                count(exit, base, eBits);
+                count(endToEnd, base, gBits & eBits);
+                count(anyHop, base, gBits | mBits | eBits);
+            }
+        }
+
+        private void count(long[] counts, int base, long bits) {
+            while (bits != 0) {
+                counts[base + Long.numberOfTrailingZeros(bits)]++;
+                bits &= bits - 1;
+            }
+        }
+
+        public void merge(Tally other) {
+            circuits += other.circuits;
+            for (int a = 0; a < guard.length; a++) {
+                guard[a] += other.guard[a];
+                exit[a] += other.exit[a];
+                endToEnd[a] += other.endToEnd[a];
+                anyHop[a] += other.anyHop[a];
+            }
+        }
+
+        public long getCircuits() {
+            return circuits;
+        }
+
+        public long getGuard(int adversary) {
+            return guard[adversary];
+        }
+
+        public long getExit(int adversary) {
+            return exit[adversary];
+        }
+
+        /**
+         * Circuits where the adversary observes both the guard and the exit,
+         * and can therefore correlate the two ends.
+         */
+        public long getEndToEnd(int adversary) {
+            return endToEnd[adversary];
+        }
+
+        public long getAnyHop(int adversary) {
+            return anyHop[adversary];
+        }
+
+        public double getEndToEndRate(int adversary) {
+            return circuits > 0 ? (double) endToEnd[adversary] / circuits : 0.0;
+        }
+    }
+
+    /**
+     * Tallies numCircuits circuits of the strategy. Circuits are generated
+     * in the same chunks and from the same seeds as
+     * {@link ExperimentRunner#run(int, PathSelectionStrategy, long, int, java.util.function.Consumer)},
+     * so both see the same circuits for a given seed, for any thread count.
+     * Chunk tallies are merged as they finish, within the same bounded
+     * window, so memory does not grow with numCircuits.
+     */
+    public Tally run(PathSelector selector, PathSelectionStrategy strategy, int numCircuits, long seed,
+            int threads) throws InterruptedException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive.");
+        }
+        SplittableRandom root = new SplittableRandom(seed);
+        int chunks = (numCircuits + ExperimentRunner.CHUNK_SIZE - 1) / ExperimentRunner.CHUNK_SIZE;
+        Tally total = new Tally();
+        OrderedChunks.run(chunks, i -> {
+            final int count = Math.min(ExperimentRunner.CHUNK_SIZE, numCircuits - i * ExperimentRunner.CHUNK_SIZE);
+            final PathSelector worker = selector.withRandom(root.split());
+            return () -> {
+                CircuitBatch batch = new CircuitBatch(count);
+                worker.selectPaths(count, strategy, batch);
+                Tally tally = new Tally();
+                tally.record(batch);
+                return tally;
+            };
+        }, threads, total::merge);
+        return total;
+    }
+}
@@ -0,0 +1,209 @@
+package pt.unl.fct.pds;
+
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.ConsensusFiles;
+import pt.unl.fct.pds.utils.ConsensusParser;
+import pt.unl.fct.pds.utils.ConsensusPrefetcher;
+import pt.unl.fct.pds.utils.CountryAnnotator;
+import pt.unl.fct.pds.utils.CountryCodes;
+import pt.unl.fct.pds.utils.HyperLogLog;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+/**
+ * Replays an archive of consecutive consensuses (e.g. months of hourly
+ * CollecTor files) and runs the same experiment on each one.
+ *
+ * Files are taken in timestamp order and parsed ahead on background
+ * threads by a {@link ConsensusPrefetcher} while the current hour's
+ * circuits are generated. One PathSelector follows the whole archive
+ * through {@link PathSelector#update(Node[])}, so only relays with new
+ * addresses need a GeoIP lookup.
+ *
+ * Each hour's results go to a listener and are then folded into the
+ * running totals, which only hold country counters, a HyperLogLog of relay
+ * fingerprints and a bandwidth histogram. Memory therefore depends on the
+ * prefetch depth and the consensus size, not on the length of the archive.
+ */
+public final class ConsensusReplay {
+
+    private static final int SKETCH_PRECISION = 12;
+
+    private final ConsensusParser parser;
+    private final CountryAnnotator annotator;
+    private final int prefetch;
+    private final int threads;
+
+    /**
+     * @param annotator country annotation for each hour, or null to keep
+     *                  the countries the parser gave the relays
+     * @param prefetch  consensuses parsed ahead of the current one
+     * @param threads   threads for the experiment of each hour
+     */
+    public ConsensusReplay(ConsensusParser parser, CountryAnnotator annotator, int prefetch, int threads) {
+        if (prefetch <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("prefetch and threads must be positive.");
+        }
+        this.parser = parser;
+        this.annotator = annotator;
+        this.prefetch = prefetch;
+        this.threads = threads;
+    }
+
+    /**
+     * One replayed consensus.
+     */
+    public static final class Hour {
+        private final int index;
+        private final Path file;
+        private final int relays;
+        private final RelayTable.Update update;
+        private final MetricsSnapshot metrics;
+
+        Hour(int index, Path file, int relays, RelayTable.Update update, MetricsSnapshot metrics) {
+            this.index = index;
+            this.file = file;
+            this.relays = relays;
+            this.update = update;
+            this.metrics = metrics;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public int getRelays() {
+            return relays;
+        }
+
+        /**
+         * Changes from the previous consensus, or null for the first one.
+         */
+        public RelayTable.Update getUpdate() {
+            return update;
+        }
+
+        public MetricsSnapshot getMetrics() {
+            return metrics;
+        }
+
+        @Override
+        public String toString() {
+            String changes = update == null ? "" : String.format(" (+%d -%d ~%d)",
+                    update.getAdded(), update.getRemoved(), update.getModified());
+            return file.getFileName() + ": " + relays + " relays" + changes + ", " + metrics;
+        }
+    }
+
+    /**
+     * Totals over every replayed hour.
+     */
+    public static final class Summary {
+        private int hours;
+        private long circuits;
+        private final HyperLogLog relaySketch = new HyperLogLog(SKETCH_PRECISION);
+        private final SelectionCounter[] countries = new SelectionCounter[MetricsSnapshot.POSITIONS];
+        private final BandwidthHistogram bandwidth = new BandwidthHistogram();
+
+        Summary() {
+            for (int p = 0; p < countries.length; p++) {
+                countries[p] = new SelectionCounter(CountryCodes.MAX_CODE + 1);
+            }
+        }
+
+        void add(ExperimentResults r) {
+            hours++;
+            circuits += r.numCircuits;
+            relaySketch.merge(r.relaySketch);
+            countries[MetricsSnapshot.GUARD].merge(r.guardCountries);
+            countries[MetricsSnapshot.MIDDLE].merge(r.middleCountries);
+            countries[MetricsSnapshot.EXIT].merge(r.exitCountries);
+            countries[MetricsSnapshot.ALL].merge(r.allCountries);
+            bandwidth.merge(r.circuitBandwidths);
+        }
+
+        public int getHours() {
+            return hours;
+        }
+
+        public long getCircuits() {
+            return circuits;
+        }
+
+        /**
+         * Distinct relays used across the whole archive (by fingerprint).
+         */
+        public long getDistinctRelaysEstimate() {
+            return relaySketch.estimate();
+        }
+
+        public SelectionCounter.Summary getCountries(int position) {
+            return countries[position].summary();
+        }
+
+        public BandwidthHistogram.Summary getBandwidth() {
+            return bandwidth.summary();
+        }
+    }
+
+    /**
+     * Replays every consensus under dir, running circuitsPerHour circuits
+     * of the strategy on each. The experiment of hour i is seeded with the
+     * i-th value drawn from seed, so a replay is reproducible.
+     *
+     * @param listener gets each hour's results, or null
+     */
+    public Summary run(Path dir, PathSelectionStrategy strategy, int circuitsPerHour, long seed,
+            Consumer<Hour> listener) throws IOException, InterruptedException {
+        List<Path> files = ConsensusFiles.listConsensusFiles(dir);
+        SplittableRandom seeds = new SplittableRandom(seed);
+        Summary summary = new Summary();
+        PathSelector selector = null;
+
+        try (ConsensusPrefetcher prefetcher = new ConsensusPrefetcher(parser, files, prefetch, prefetch)) {
+            int index = 0;
+            while (prefetcher.hasNext()) {
+                ConsensusPrefetcher.Entry entry = prefetcher.next();
+                Node[] nodes = entry.getNodes();
+                if (nodes.length == 0) {
+                    continue;
+                }
+
+                RelayTable.Update update = null;
+                if (selector == null) {
+                    annotate(nodes);
+                    selector = new PathSelector(nodes, seed);
+                } else {
+                    // Relays that kept their address keep their country
+                    update = selector.update(nodes);
+                    annotate(nodes);
+                    selector.refreshCountries();
+                }
+
+                ExperimentResults results = new ExperimentRunner(selector, threads)
+                        .run(circuitsPerHour, strategy, seeds.nextLong(), 0, null);
+                summary.add(results);
+                if (listener != null) {
+                    listener.accept(new Hour(index, entry.getFile(), selector.getRelayTable().liveCount(), update,
+                            results.snapshot()));
+                }
+                index++;
+            }
+        }
+        return summary;
+    }
+
+    private void annotate(Node[] nodes) throws InterruptedException {
+        if (annotator != null) {
+            annotator.annotate(nodes);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package pt.unl.fct.pds;
+
+/**
+ * A strategy whose guard and middle factors depend only on the countries
+ * involved, not on the relays themselves.
+ *
+ * For these PathSelector replaces per-candidate rejection with a two-stage
+ * draw: first a country, from an alias table over the per-country
+ * bandwidth totals times the country factor (cached per exit country, or
+ * per guard/exit pair for middles), then a relay of that country by
+ * bandwidth. Only the /16 and family rules are still applied by rejection.
+ *
+ * Implementations must also implement equals/hashCode over their
+ * parameters, since the cached tables are keyed by strategy.
+ */
+public interface CountryFactorStrategy extends PathSelectionStrategy {
+
+    /**
+     * Same as guardFactor, given the candidate's and the exit's
+     * {@link pt.unl.fct.pds.utils.CountryCodes} (NONE if unknown).
+     */
+    double guardCountryFactor(short candidateCountry, short exitCountry);
+
+    double middleCountryFactor(short candidateCountry, short guardCountry, short exitCountry);
+
+    @Override
+    default double guardFactor(RelayTable relays, int candidate, int exit) {
+        return guardCountryFactor(relays.country(candidate), relays.country(exit));
+    }
+
+    @Override
+    default double middleFactor(RelayTable relays, int candidate, int guard, int exit) {
+        return middleCountryFactor(relays.country(candidate), relays.country(guard), relays.country(exit));
+    }
+}
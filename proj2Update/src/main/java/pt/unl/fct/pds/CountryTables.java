@@ -0,0 +1,227 @@
+package pt.unl.fct.pds;
+
+import pt.unl.fct.pds.utils.CountryCodes;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-country bandwidth tables for {@link CountryFactorStrategy} guards and
+ * middles, shared by a PathSelector and its withRandom() views.
+ *
+ * The candidates of a position are grouped by country, with an alias table
+ * per country over their bandwidths. Since the strategy's factor only
+ * depends on countries, the weight of a whole country is its bandwidth
+ * total times one factor, so a draw is two O(1) alias lookups: a country
+ * from a table for the exit country (guards) or the guard/exit pair
+ * (middles), then a relay of that country.
+ *
+ * The country tables are built on first use and cached per strategy. Both
+ * caches are bounded and simply cleared when full, which only costs a
+ * rebuild of O(countries) per table. The groups are built lazily and
+ * dropped by {@link #invalidate()}, which must not run concurrently with
+ * selection.
+ */
+final class CountryTables {
+
+    // Bounds on the cached country tables
+    private static final int MAX_STRATEGIES = 64;
+    private static final int MAX_TABLES = 8192;
+
+    private static final int CODES = CountryCodes.MAX_CODE + 1;
+
+    /**
+     * Candidates of one position grouped by country.
+     */
+    static final class Groups {
+        final short[] countries;
+        final int[][] members;
+        final AliasSampler[] samplers;
+        // Bandwidth total per group
+        final double[] mass;
+
+        Groups(short[] countries, int[][] members, AliasSampler[] samplers, double[] mass) {
+            this.countries = countries;
+            this.members = members;
+            this.samplers = samplers;
+            this.mass = mass;
+        }
+
+        int size() {
+            return countries.length;
+        }
+
+        /**
+         * Relay drawn with two uniforms from a country table built over
+         * these groups.
+         */
+        int sample(AliasSampler countryTable, double u1, double u2) {
+            int g = countryTable.sample(u1);
+            return members[g][samplers[g].sample(u2)];
+        }
+    }
+
+    private final RelayTable relays;
+    private final int guardMask;
+    private final int middleMask;
+
+    private volatile Groups guards;
+    private volatile Groups middles;
+
+    private final Map<CountryFactorStrategy, Tables> byStrategy = new ConcurrentHashMap<>();
+
+    // Country tables of one strategy, keyed by exit country (guards) or
+    // guard country * CODES + exit country (middles)
+    private static final class Tables {
+        final Map<Integer, AliasSampler> guards = new ConcurrentHashMap<>();
+        final Map<Integer, AliasSampler> middles = new ConcurrentHashMap<>();
+    }
+
+    CountryTables(RelayTable relays, int guardMask, int middleMask) {
+        this.relays = relays;
+        this.guardMask = guardMask;
+        this.middleMask = middleMask;
+    }
+
+    Groups guards() {
+        Groups g = guards;
+        if (g == null)
+            g = buildGuards();
+        return g;
+    }
+
+    Groups middles() {
+        Groups g = middles;
+        if (g == null)
+            g = buildMiddles();
+        return g;
+    }
+
+    /**
+     * Country table for a guard given the exit's country. Null if no guard
+     * has positive weight.
+     */
+    AliasSampler guardTable(CountryFactorStrategy strategy, short exitCountry) {
+        Map<Integer, AliasSampler> cache = tables(strategy).guards;
+        Integer key = (int) exitCountry;
+        AliasSampler t = cache.get(key);
+        if (t == null) {
+            Groups groups = guards();
+            double[] weights = new double[groups.size()];
+            for (int g = 0; g < weights.length; g++) {
+                weights[g] = groups.mass[g] * strategy.guardCountryFactor(groups.countries[g], exitCountry);
+            }
+            t = put(cache, key, weights);
+        }
+        return t.total() > 0 ? t : null;
+    }
+
+    /**
+     * Country table for a middle given the guard's and exit's countries.
+     */
+    AliasSampler middleTable(CountryFactorStrategy strategy, short guardCountry, short exitCountry) {
+        Map<Integer, AliasSampler> cache = tables(strategy).middles;
+        Integer key = guardCountry * CODES + exitCountry;
+        AliasSampler t = cache.get(key);
+        if (t == null) {
+            Groups groups = middles();
+            double[] weights = new double[groups.size()];
+            for (int g = 0; g < weights.length; g++) {
+                weights[g] = groups.mass[g]
+                        * strategy.middleCountryFactor(groups.countries[g], guardCountry, exitCountry);
+            }
+            t = put(cache, key, weights);
+        }
+        return t.total() > 0 ? t : null;
+    }
+
+    /**
+     * Drops every table after relays, bandwidths or countries changed.
+     */
+    synchronized void invalidate() {
+        guards = null;
+        middles = null;
+        byStrategy.clear();
+    }
+
+    private Tables tables(CountryFactorStrategy strategy) {
+        Tables t = byStrategy.get(strategy);
+        if (t == null) {
+            if (byStrategy.size() >= MAX_STRATEGIES)
+                byStrategy.clear();
+            t = byStrategy.computeIfAbsent(strategy, s -> new Tables());
+        }
+        return t;
+    }
+
+    private static AliasSampler put(Map<Integer, AliasSampler> cache, Integer key, double[] weights) {
+        // An empty position still gets a (zero-total) table so that callers
+        // can tell it apart from a cache miss
+        AliasSampler t = new AliasSampler(weights.length > 0 ? weights : new double[1]);
+        if (cache.size() >= MAX_TABLES)
+            cache.clear();
+        cache.put(key, t);
+        return t;
+    }
+
+    private synchronized Groups buildGuards() {
+        if (guards == null)
+            guards = build(guardMask);
+        return guards;
+    }
+
+    private synchronized Groups buildMiddles() {
+        if (middles == null)
+            middles = build(middleMask);
+        return middles;
+    }
+
+    // Counting sort of the candidates with positive bandwidth by country
+    private Groups build(int mask) {
+        int n = relays.size();
+        int[] count = new int[CODES];
+        for (int id = 0; id < n; id++) {
+            if (isCandidate(id, mask))
+                count[relays.country(id)]++;
+        }
+
+        int[] groupOf = new int[CODES];
+        int groups = 0;
+        for (int c = 0; c < CODES; c++) {
+            groupOf[c] = count[c] > 0 ? groups++ : -1;
+        }
+
+        short[] countries = new short[groups];
+        int[][] members = new int[groups][];
+        for (int c = 0; c < CODES; c++) {
+            if (groupOf[c] >= 0) {
+                countries[groupOf[c]] = (short) c;
+                members[groupOf[c]] = new int[count[c]];
+            }
+        }
+
+        int[] fill = new int[groups];
+        for (int id = 0; id < n; id++) {
+            if (isCandidate(id, mask)) {
+                int g = groupOf[relays.country(id)];
+                members[g][fill[g]++] = id;
+            }
+        }
+
+        AliasSampler[] samplers = new AliasSampler[groups];
+        double[] mass = new double[groups];
+        for (int g = 0; g < groups; g++) {
+            double[] bw = new double[members[g].length];
+            for (int i = 0; i < bw.length; i++) {
+                bw[i] = relays.bandwidth(members[g][i]);
+            }
+            samplers[g] = new AliasSampler(bw);
+            mass[g] = samplers[g].total();
+        }
+        return new Groups(countries, members, samplers, mass);
+    }
+
+    private boolean isCandidate(int id, int mask) {
+        return relays.isLive(id) && relays.hasFlags(id, mask) && relays.bandwidth(id) > 0;
+    }
+}
@@ -0,0 +1,294 @@
+package pt.unl.fct.pds;
+
+import pt.unl.fct.pds.model.ExitPolicy;
+import pt.unl.fct.pds.utils.CountryCodes;
+import pt.unl.fct.pds.utils.GeoIpDatabase;
+import pt.unl.fct.pds.utils.IpAddresses;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds one circuit per destination of a list of "ip:port" lines (such as
+ * IPAddresses.txt), with an exit that allows the destination's port, and
+ * measures how often the guard or the exit is in the destination's
+ * country.
+ *
+ * The file is read line by line and each destination is kept only as its
+ * country code (from the local {@link GeoIpDatabase}), in a bucket per
+ * port. Each port's circuits are then drawn as one batch through
+ * {@link PathSelector#selectPaths(int, PathSelectionStrategy, int, CircuitBatch)},
+ * so the port's exit sampler is looked up once per port. Ports are spread
+ * over threads, each with a random stream split from the seed in port
+ * order, so a run is repeatable for any thread count.
+ */
+public final class DestinationWorkload {
+
+    private final PathSelector selector;
+    private final GeoIpDatabase geoIp;
+    private final int threads;
+
+    // Destination countries per port, filled by read()
+    private final short[][] byPort = new short[ExitPolicy.MAX_PORT + 1][];
+    private final int[] counts = new int[ExitPolicy.MAX_PORT + 1];
+    private int destinations;
+    private int malformed;
+    private int unresolved;
+
+    public DestinationWorkload(PathSelector selector, GeoIpDatabase geoIp, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive.");
+        }
+        this.selector = selector;
+        this.geoIp = geoIp;
+        this.threads = threads;
+    }
+
+    /**
+     * Adds the destinations of every "ip:port" line (IPv6 addresses in
+     * brackets). Malformed lines are counted and skipped.
+     */
+    public void read(BufferedReader in) throws IOException {
+        long[] v6 = new long[2];
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == '#')
+                continue;
+
+            int colon = line.lastIndexOf(':');
+            int port = colon > 0 ? parsePort(line, colon + 1) : -1;
+            if (port <= 0) {
+                malformed++;
+                continue;
+            }
+
+            short country;
+            long v4 = IpAddresses.parseIpv4(line, 0, colon);
+            if (v4 >= 0) {
+                country = geoIp.lookupIpv4((int) v4);
+            } else if (line.charAt(0) == '[' && line.charAt(colon - 1) == ']'
+                    && IpAddresses.parseIpv6(line.substring(1, colon - 1), v6)) {
+                country = geoIp.lookupIpv6(v6[0], v6[1]);
+            } else {
+                malformed++;
+                continue;
+            }
+            if (country == CountryCodes.NONE)
+                unresolved++;
+
+            add(port, country);
+        }
+    }
+
+    private static int parsePort(String line, int start) {
+        int port = 0;
+        if (start >= line.length() || line.length() - start > 5)
+            return -1;
+        for (int i = start; i < line.length(); i++) {
+            int d = line.charAt(i) - '0';
+            if (d < 0 || d > 9)
+                return -1;
+            port = port * 10 + d;
+        }
+        return port <= ExitPolicy.MAX_PORT ? port : -1;
+    }
+
+    private void add(int port, short country) {
+        short[] bucket = byPort[port];
+        if (bucket == null) {
+            bucket = byPort[port] = new short[4];
+        } else if (counts[port] == bucket.length) {
+            bucket = byPort[port] = Arrays.copyOf(bucket, bucket.length * 2);
+        }
+        bucket[counts[port]++] = country;
+        destinations++;
+    }
+
+    public int getDestinations() {
+        return destinations;
+    }
+
+    public int getMalformed() {
+        return malformed;
+    }
+
+    /**
+     * Destinations outside every range of the GeoIP database. They still
+     * get a circuit but never count as an overlap.
+     */
+    public int getUnresolved() {
+        return unresolved;
+    }
+
+    /**
+     * Totals of one port, or of the whole workload.
+     */
+    public static final class PortStats {
+        private final int port;
+        private long circuits;
+        private long unserved;
+        private long guardOverlap;
+        private long exitOverlap;
+        private long bothOverlap;
+
+        PortStats(int port) {
+            this.port = port;
+        }
+
+        void add(PortStats other) {
+            circuits += other.circuits;
+            unserved += other.unserved;
+            guardOverlap += other.guardOverlap;
+            exitOverlap += other.exitOverlap;
+            bothOverlap += other.bothOverlap;
+        }
+
+        /**
+         * The port, or -1 for workload totals.
+         */
+        public int getPort() {
+            return port;
+        }
+
+        public long getCircuits() {
+            return circuits;
+        }
+
+        /**
+         * Destinations with no exit allowing their port.
+         */
+        public long getUnserved() {
+            return unserved;
+        }
+
+        /**
+         * Circuits whose guard is in the destination's country.
+         */
+        public long getGuardOverlap() {
+            return guardOverlap;
+        }
+
+        public long getExitOverlap() {
+            return exitOverlap;
+        }
+
+        /**
+         * Circuits whose guard and exit are both in the destination's
+         * country, so that one country sees both ends of the connection.
+         */
+        public long getBothOverlap() {
+            return bothOverlap;
+        }
+
+        public double rate(long overlaps) {
+            return circuits > 0 ? (double) overlaps / circuits : 0.0;
+        }
+    }
+
+    /**
+     * Result of one run: totals, per-port stats in descending order of
+     * destinations, and the wall time spent building circuits.
+     */
+    public static final class Report {
+        private final PortStats total;
+        private final List<PortStats> ports;
+        private final long elapsedNanos;
+
+        Report(PortStats total, List<PortStats> ports, long elapsedNanos) {
+            this.total = total;
+            this.ports = ports;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public PortStats getTotal() {
+            return total;
+        }
+
+        public List<PortStats> getPorts() {
+            return ports;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getCircuitsPerSecond() {
+            return elapsedNanos > 0 ? total.getCircuits() * 1e9 / elapsedNanos : 0.0;
+        }
+    }
+
+    /**
+     * Builds one circuit of the strategy per destination read so far.
+     */
+    public Report run(PathSelectionStrategy strategy, long seed) throws InterruptedException {
+        final RelayTable relays = selector.getRelayTable();
+        SplittableRandom root = new SplittableRandom(seed);
+
+        List<Callable<PortStats>> tasks = new ArrayList<>();
+        for (int p = 0; p <= ExitPolicy.MAX_PORT; p++) {
+            if (counts[p] == 0)
+                continue;
+            final int port = p;
+            final short[] countries = byPort[p];
+            final int count = counts[p];
+            final PathSelector worker = selector.withRandom(root.split());
+            tasks.add(() -> {
+                PortStats stats = new PortStats(port);
+                if (!worker.hasExitFor(port)) {
+                    stats.unserved = count;
+                    return stats;
+                }
+                CircuitBatch batch = new CircuitBatch(count);
+                worker.selectPaths(count, strategy, port, batch);
+                for (int i = 0; i < count; i++) {
+                    short dest = countries[i];
+                    boolean guard = dest != CountryCodes.NONE && relays.country(batch.guard(i)) == dest;
+                    boolean exit = dest != CountryCodes.NONE && relays.country(batch.exit(i)) == dest;
+                    stats.circuits++;
+                    if (guard)
+                        stats.guardOverlap++;
+                    if (exit)
+                        stats.exitOverlap++;
+                    if (guard && exit)
+                        stats.bothOverlap++;
+                }
+                return stats;
+            });
+        }
+
+        PortStats total = new PortStats(-1);
+        List<PortStats> ports = new ArrayList<>(tasks.size());
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())));
+        try {
+            for (Future<PortStats> f : pool.invokeAll(tasks)) {
+                PortStats stats = f.get();
+                total.add(stats);
+                ports.add(stats);
+            }
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof RuntimeException)
+                throw (RuntimeException) t;
+            if (t instanceof Error)
+                throw (Error) t;
+            throw new IllegalStateException(t);
+        } finally {
+            pool.shutdownNow();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        ports.sort((a, b) -> Long.compare(b.circuits + b.unserved, a.circuits + a.unserved));
+        return new Report(total, ports, elapsed);
+    }
+}
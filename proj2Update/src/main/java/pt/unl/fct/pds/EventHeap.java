@@ -0,0 +1,104 @@
+package pt.unl.fct.pds;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * Binary min-heap of (time, payload) events in two primitive arrays, for
+ * the discrete-event simulation in {@link RelayLoadSimulator}.
+ *
+ * Events are never removed from the middle: a rescheduled event is pushed
+ * again and the old one is recognised as stale by its payload when popped
+ * (lazy deletion). {@link #retain(LongPredicate)} drops stale events in
+ * bulk when they start to dominate the heap.
+ */
+final class EventHeap {
+
+    private double[] times;
+    private long[] payloads;
+    private int size;
+
+    EventHeap(int capacity) {
+        times = new double[Math.max(16, capacity)];
+        payloads = new long[times.length];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void push(double time, long payload) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            payloads = Arrays.copyOf(payloads, size * 2);
+        }
+        int i = size++;
+        // Sift up, moving parents down instead of swapping
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (times[parent] <= time)
+                break;
+            times[i] = times[parent];
+            payloads[i] = payloads[parent];
+            i = parent;
+        }
+        times[i] = time;
+        payloads[i] = payload;
+    }
+
+    /**
+     * Time of the earliest event; the heap must not be empty.
+     */
+    double peekTime() {
+        return times[0];
+    }
+
+    /**
+     * Removes the earliest event and returns its payload.
+     */
+    long pop() {
+        long top = payloads[0];
+        size--;
+        if (size > 0)
+            siftDown(0, times[size], payloads[size]);
+        return top;
+    }
+
+    private void siftDown(int i, double time, long payload) {
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && times[child + 1] < times[child])
+                child++;
+            if (time <= times[child])
+                break;
+            times[i] = times[child];
+            payloads[i] = payloads[child];
+            i = child;
+        }
+        times[i] = time;
+        payloads[i] = payload;
+    }
+
+    /**
+     * Keeps only the events whose payload passes live, in O(size).
+     */
+    void retain(LongPredicate live) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (live.test(payloads[i])) {
+                times[kept] = times[i];
+                payloads[kept] = payloads[i];
+                kept++;
+            }
+        }
+        size = kept;
+        for (int i = (size >>> 1) - 1; i >= 0; i--) {
+            siftDown(i, times[i], payloads[i]);
+        }
+    }
+}
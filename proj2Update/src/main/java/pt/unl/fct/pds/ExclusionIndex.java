@@ -0,0 +1,197 @@
+package pt.unl.fct.pds;
+
+import java.util.Arrays;
+
+/**
+ * Relays grouped by /16 prefix and by family, so that the relays a path
+ * must avoid given its other hops can be listed directly instead of
+ * testing every candidate. Shared by a PathSelector and its withRandom()
+ * views.
+ *
+ * Both groupings are stored as sorted relay ids with offsets per group,
+ * plus the group of every relay id so lookups are O(1). Each
+ * group also keeps its total weight in every sampler given at construction,
+ * so the mass a hop excludes can be bounded without listing its group.
+ * Built on first use; {@link #invalidate()} must not run concurrently with
+ * selection.
+ */
+final class ExclusionIndex {
+
+    /**
+     * Sorted relay ids per group, groups in key order.
+     */
+    private static final class Groups {
+        final int[] offsets;
+        final int[] ids;
+        // Group of each relay id, -1 if it has no key
+        final int[] groupOf;
+        // weights[sampler][group]
+        final long[][] weights;
+
+        Groups(int[] offsets, int[] ids, int relayCount, FenwickSampler[] samplers) {
+            int groups = offsets.length - 1;
+            this.offsets = offsets;
+            this.ids = ids;
+            this.groupOf = new int[relayCount];
+            Arrays.fill(groupOf, -1);
+            for (int g = 0; g < groups; g++) {
+                for (int i = offsets[g]; i < offsets[g + 1]; i++) {
+                    groupOf[ids[i]] = g;
+                }
+            }
+            this.weights = new long[samplers.length][groups];
+            for (int s = 0; s < samplers.length; s++) {
+                for (int g = 0; g < groups; g++) {
+                    long sum = 0;
+                    for (int i = offsets[g]; i < offsets[g + 1]; i++) {
+                        sum += samplers[s].weight(ids[i]);
+                    }
+                    weights[s][g] = sum;
+                }
+            }
+        }
+
+        long weight(int sampler, int relay) {
+            int g = groupOf[relay];
+            return g >= 0 ? weights[sampler][g] : 0;
+        }
+    }
+
+    /**
+     * Relay ids to exclude for one draw. Owned by a single PathSelector
+     * view, so it is reused without allocating.
+     */
+    static final class Excluded {
+        int[] ids = new int[32];
+        int count;
+
+        void clear() {
+            count = 0;
+        }
+
+        /**
+         * Sorts the ids and drops duplicates (a relay can be both in the
+         * /16 and in the family of another).
+         */
+        void sortUnique() {
+            if (count < 2)
+                return;
+            Arrays.sort(ids, 0, count);
+            int unique = 1;
+            for (int i = 1; i < count; i++) {
+                if (ids[i] != ids[unique - 1])
+                    ids[unique++] = ids[i];
+            }
+            count = unique;
+        }
+
+        private void append(int[] source, int from, int length) {
+            if (count + length > ids.length)
+                ids = Arrays.copyOf(ids, Math.max(ids.length * 2, count + length));
+            System.arraycopy(source, from, ids, count, length);
+            count += length;
+        }
+    }
+
+    private final RelayTable relays;
+    private final FenwickSampler[] samplers;
+
+    private volatile Groups subnets;
+    private volatile Groups families;
+
+    /**
+     * @param samplers samplers whose weights are summed per group, see
+     *                 {@link #groupWeight(int, int)}; the index must be
+     *                 invalidated whenever their weights change
+     */
+    ExclusionIndex(RelayTable relays, FenwickSampler... samplers) {
+        this.relays = relays;
+        this.samplers = samplers;
+    }
+
+    /**
+     * Adds to out the relays in the same /16 or family as relay, including
+     * relay itself if it has an IPv4 address or a family.
+     */
+    void collect(int relay, Excluded out) {
+        Groups s = subnets();
+        Groups f = families;
+        append(s, s.groupOf[relay], out);
+        append(f, f.groupOf[relay], out);
+    }
+
+    /**
+     * Weight in samplers[sampler] of the relays {@link #collect(int, Excluded)}
+     * would add for relay. Relays in both the /16 and the family are counted
+     * twice, so this is an upper bound on the excluded mass. O(1).
+     */
+    long groupWeight(int sampler, int relay) {
+        Groups s = subnets();
+        Groups f = families;
+        return s.weight(sampler, relay) + f.weight(sampler, relay);
+    }
+
+    // Builds both groupings if needed; families is set before subnets
+    private Groups subnets() {
+        Groups s = subnets;
+        if (s == null || families == null) {
+            build();
+            s = subnets;
+        }
+        return s;
+    }
+
+    /**
+     * Drops both groupings after the relay table changed.
+     */
+    synchronized void invalidate() {
+        subnets = null;
+        families = null;
+    }
+
+    private static void append(Groups groups, int index, Excluded out) {
+        if (index >= 0)
+            out.append(groups.ids, groups.offsets[index], groups.offsets[index + 1] - groups.offsets[index]);
+    }
+
+    private synchronized void build() {
+        if (subnets != null && families != null)
+            return;
+
+        int n = relays.size();
+        long[] bySubnet = new long[n];
+        long[] byFamily = new long[n];
+        int subnetCount = 0;
+        int familyCount = 0;
+        for (int id = 0; id < n; id++) {
+            if (!relays.isLive(id))
+                continue;
+            if (relays.subnet16(id) >= 0)
+                bySubnet[subnetCount++] = ((long) relays.subnet16(id) << 32) | id;
+            if (relays.family(id) >= 0)
+                byFamily[familyCount++] = ((long) relays.family(id) << 32) | id;
+        }
+        families = group(byFamily, familyCount, n, samplers);
+        subnets = group(bySubnet, subnetCount, n, samplers);
+    }
+
+    // entries are key << 32 | id with non-negative keys
+    private static Groups group(long[] entries, int count, int relayCount, FenwickSampler[] samplers) {
+        Arrays.sort(entries, 0, count);
+        int[] keys = new int[count];
+        int[] offsets = new int[count + 1];
+        int[] ids = new int[count];
+        int groups = 0;
+        for (int i = 0; i < count; i++) {
+            int key = (int) (entries[i] >>> 32);
+            if (groups == 0 || keys[groups - 1] != key) {
+                keys[groups] = key;
+                offsets[groups] = i;
+                groups++;
+            }
+            ids[i] = (int) entries[i];
+        }
+        offsets[groups] = count;
+        return new Groups(Arrays.copyOf(offsets, groups + 1), ids, relayCount, samplers);
+    }
+}
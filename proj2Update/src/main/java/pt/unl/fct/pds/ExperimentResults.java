@@ -0,0 +1,140 @@
+package pt.unl.fct.pds;
+
+import pt.unl.fct.pds.utils.CountryCodes;
+import pt.unl.fct.pds.utils.HyperLogLog;
+
+/**
+ * Relay and country selection counts per position for a batch of circuits.
+ * Partial results computed on different threads are combined with
+ * {@link #merge(ExperimentResults)}.
+ *
+ * Counters are indexed by relay id and country code, so memory is fixed by
+ * the size of the consensus, not by the number of circuits; so is the
+ * histogram of circuit bandwidths. Relays without
+ * a country are counted under {@link CountryCodes#NONE}.
+ */
+public class ExperimentResults {
+
+    private static final int SKETCH_PRECISION = 12;
+
+    int numCircuits;
+    SelectionCounter guards;
+    SelectionCounter middles;
+    SelectionCounter exits;
+    SelectionCounter allNodes;
+
+    SelectionCounter guardCountries = newCountryCounter();
+    SelectionCounter middleCountries = newCountryCounter();
+    SelectionCounter exitCountries = newCountryCounter();
+    SelectionCounter allCountries = newCountryCounter();
+
+    // Distinct fingerprints, also across consensuses where ids get reused
+    HyperLogLog relaySketch = new HyperLogLog(SKETCH_PRECISION);
+
+    // Minimum bandwidth of each circuit, and how often each position
+    // (MetricsSnapshot.GUARD/MIDDLE/EXIT) held that minimum
+    BandwidthHistogram circuitBandwidths = new BandwidthHistogram();
+    long[] bottlenecks = new long[MetricsSnapshot.EXIT + 1];
+
+    ExperimentResults(int relayCapacity) {
+        guards = new SelectionCounter(relayCapacity);
+        middles = new SelectionCounter(relayCapacity);
+        exits = new SelectionCounter(relayCapacity);
+        allNodes = new SelectionCounter(relayCapacity);
+    }
+
+    private static SelectionCounter newCountryCounter() {
+        return new SelectionCounter(CountryCodes.MAX_CODE + 1);
+    }
+
+    void record(RelayTable relays, CircuitBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            record(relays, batch.guards[i], batch.middles[i], batch.exits[i], batch.minBandwidths[i]);
+        }
+    }
+
+    void record(RelayTable relays, int guard, int middle, int exit, int minBandwidth) {
+        numCircuits++;
+
+        guards.add(guard);
+        middles.add(middle);
+        exits.add(exit);
+        allNodes.add(guard);
+        allNodes.add(middle);
+        allNodes.add(exit);
+
+        short gCountry = relays.country(guard);
+        short mCountry = relays.country(middle);
+        short eCountry = relays.country(exit);
+
+        guardCountries.add(gCountry);
+        middleCountries.add(mCountry);
+        exitCountries.add(eCountry);
+        allCountries.add(gCountry);
+        allCountries.add(mCountry);
+        allCountries.add(eCountry);
+
+        relaySketch.add(relays.fingerprintHash(guard));
+        relaySketch.add(relays.fingerprintHash(middle));
+        relaySketch.add(relays.fingerprintHash(exit));
+
+        circuitBandwidths.record(minBandwidth);
+        // Ties go to the earliest hop
+        if (relays.bandwidth(guard) == minBandwidth)
+            bottlenecks[MetricsSnapshot.GUARD]++;
+        else if (relays.bandwidth(middle) == minBandwidth)
+            bottlenecks[MetricsSnapshot.MIDDLE]++;
+        else
+            bottlenecks[MetricsSnapshot.EXIT]++;
+    }
+
+    /**
+     * Adds other's circuits to this result.
+     */
+    void merge(ExperimentResults other) {
+        numCircuits += other.numCircuits;
+        guards.merge(other.guards);
+        middles.merge(other.middles);
+        exits.merge(other.exits);
+        allNodes.merge(other.allNodes);
+
+        guardCountries.merge(other.guardCountries);
+        middleCountries.merge(other.middleCountries);
+        exitCountries.merge(other.exitCountries);
+        allCountries.merge(other.allCountries);
+
+        relaySketch.merge(other.relaySketch);
+
+        circuitBandwidths.merge(other.circuitBandwidths);
+        for (int i = 0; i < bottlenecks.length; i++) {
+            bottlenecks[i] += other.bottlenecks[i];
+        }
+    }
+
+    /**
+     * Entropy, Gini and guessing entropy of every counter, and the circuit
+     * bandwidth statistics, at this point. O(relays log relays),
+     * independent of the number of circuits.
+     */
+    public MetricsSnapshot snapshot() {
+        SelectionCounter.Summary[] relays = new SelectionCounter.Summary[MetricsSnapshot.POSITIONS];
+        relays[MetricsSnapshot.GUARD] = guards.summary();
+        relays[MetricsSnapshot.MIDDLE] = middles.summary();
+        relays[MetricsSnapshot.EXIT] = exits.summary();
+        relays[MetricsSnapshot.ALL] = allNodes.summary();
+
+        SelectionCounter.Summary[] countries = new SelectionCounter.Summary[MetricsSnapshot.POSITIONS];
+        countries[MetricsSnapshot.GUARD] = guardCountries.summary();
+        countries[MetricsSnapshot.MIDDLE] = middleCountries.summary();
+        countries[MetricsSnapshot.EXIT] = exitCountries.summary();
+        countries[MetricsSnapshot.ALL] = allCountries.summary();
+
+        double[] bottleneckShares = new double[bottlenecks.length];
+        for (int i = 0; i < bottlenecks.length; i++) {
+            bottleneckShares[i] = numCircuits > 0 ? (double) bottlenecks[i] / numCircuits : 0.0;
+        }
+
+        return new MetricsSnapshot(numCircuits, relays, countries, relaySketch.estimate(),
+                circuitBandwidths.summary(), bottleneckShares);
+    }
+}
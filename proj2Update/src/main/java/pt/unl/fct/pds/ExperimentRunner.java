@@ -0,0 +1,121 @@
+package pt.unl.fct.pds;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+/**
+ * Runs a Monte Carlo experiment (many circuits from one PathSelector)
+ * across several threads.
+ *
+ * The circuits are cut into fixed-size chunks. Each chunk gets its own
+ * SplittableRandom, split from the seed in chunk order, and accumulates into
+ * its own ExperimentResults; the partial results are merged in chunk order.
+ * The output for a given seed is therefore the same for any thread count.
+ * Only a window of chunks proportional to the thread count is in flight at
+ * once (see {@link OrderedChunks}), so memory does not grow with the number
+ * of circuits.
+ *
+ * Each chunk is generated as one {@link CircuitBatch} and recorded straight
+ * into the counters, without building a Circuit per draw.
+ */
+public class ExperimentRunner {
+
+    static final int CHUNK_SIZE = 4096;
+
+    private final PathSelector selector;
+    private final int threads;
+
+    public ExperimentRunner(PathSelector selector, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive.");
+        }
+        this.selector = selector;
+        this.threads = threads;
+    }
+
+    /**
+     * @param type a {@link StrategyRegistry} name, e.g. "baseline" or "geo"
+     *             (geo-aware with alpha/beta)
+     */
+    public ExperimentResults run(int numCircuits, String type, double alpha, double beta, long seed)
+            throws InterruptedException {
+        return run(numCircuits, type, alpha, beta, seed, 0, null);
+    }
+
+    public ExperimentResults run(int numCircuits, String type, double alpha, double beta, long seed,
+            int snapshotEvery, Consumer<MetricsSnapshot> listener) throws InterruptedException {
+        Map<String, Double> params = new HashMap<>();
+        params.put("alpha", alpha);
+        params.put("beta", beta);
+        return run(numCircuits, StrategyRegistry.create(type, params), seed, snapshotEvery, listener);
+    }
+
+    /**
+     * Runs numCircuits circuits of the given strategy. If listener is not
+     * null it gets a {@link MetricsSnapshot} of the circuits so far every
+     * snapshotEvery circuits (rounded up to whole chunks) and at the end.
+     * Snapshots are taken on the calling thread as chunks are merged in
+     * order, so they are the same for any thread count too.
+     */
+    public ExperimentResults run(int numCircuits, final PathSelectionStrategy strategy, long seed,
+            int snapshotEvery, Consumer<MetricsSnapshot> listener) throws InterruptedException {
+        final RelayTable relays = selector.getRelayTable();
+        SplittableRandom root = new SplittableRandom(seed);
+        int chunks = (numCircuits + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        ExperimentResults total = new ExperimentResults(relays.size());
+        Snapshots snapshots = new Snapshots(snapshotEvery, listener);
+
+        OrderedChunks.run(chunks, i -> {
+            final int count = Math.min(CHUNK_SIZE, numCircuits - i * CHUNK_SIZE);
+            final PathSelector worker = selector.withRandom(root.split());
+            return () -> {
+                CircuitBatch batch = new CircuitBatch(count);
+                worker.selectPaths(count, strategy, batch);
+
+                ExperimentResults res = new ExperimentResults(relays.size());
+                res.record(relays, batch);
+                return res;
+            };
+        }, threads, res -> {
+            total.merge(res);
+            snapshots.afterMerge(total);
+        });
+
+        snapshots.atEnd(total);
+        return total;
+    }
+
+    private static final class Snapshots {
+        private final int every;
+        private final Consumer<MetricsSnapshot> listener;
+        private long next;
+        private int lastCircuits = -1;
+
+        Snapshots(int every, Consumer<MetricsSnapshot> listener) {
+            this.every = every;
+            this.listener = listener;
+            this.next = every > 0 ? every : Long.MAX_VALUE;
+        }
+
+        void afterMerge(ExperimentResults total) {
+            if (listener == null || total.numCircuits < next)
+                return;
+            emit(total);
+            while (next <= total.numCircuits)
+                next += every;
+        }
+
+        void atEnd(ExperimentResults total) {
+            if (listener != null && lastCircuits != total.numCircuits)
+                emit(total);
+        }
+
+        private void emit(ExperimentResults total) {
+            lastCircuits = total.numCircuits;
+            listener.accept(total.snapshot());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package pt.unl.fct.pds;
+
+import java.util.Arrays;
+
+/**
+ * Weighted sampler over integer weights backed by a Fenwick (binary indexed)
+ * tree. Draws and weight updates are both O(log n) and allocation-free,
+ * which is what lets PathSelector patch a few relays per consensus instead
+ * of rebuilding its tables.
+ *
+ * Weights are longs, so sums of relay bandwidths are exact.
+ */
+public final class FenwickSampler {
+
+    // 1-based Fenwick tree; tree[i] covers (i - lowbit(i), i]
+    private long[] tree;
+    private long[] weights;
+    private long total;
+
+    public FenwickSampler(int capacity) {
+        this.tree = new long[capacity + 1];
+        this.weights = new long[capacity];
+    }
+
+    public int capacity() {
+        return weights.length;
+    }
+
+    /**
+     * Grows the sampler so that indices up to capacity - 1 are valid,
+     * keeping every weight. O(capacity).
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= weights.length)
+            return;
+        weights = Arrays.copyOf(weights, Math.max(capacity, weights.length * 2));
+        rebuild();
+    }
+
+    private void rebuild() {
+        int n = weights.length;
+        tree = new long[n + 1];
+        for (int i = 1; i <= n; i++) {
+            tree[i] += weights[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= n)
+                tree[parent] += tree[i];
+        }
+    }
+
+    public long weight(int index) {
+        return weights[index];
+    }
+
+    public long total() {
+        return total;
+    }
+
+    public void set(int index, long weight) {
+        if (weight < 0)
+            weight = 0;
+        long delta = weight - weights[index];
+        if (delta == 0)
+            return;
+        weights[index] = weight;
+        total += delta;
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * Sum of the weights of indices [0, end).
+     */
+    public long prefixSum(int end) {
+        long sum = 0;
+        for (int i = end; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Index whose cumulative range contains target, i.e. the smallest i with
+     * prefixSum(i + 1) > target. target must be in [0, total()).
+     */
+    public int find(long target) {
+        int pos = 0;
+        int n = tree.length - 1;
+        for (int step = Integer.highestOneBit(n); step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next <= n && tree[next] <= target) {
+                pos = next;
+                target -= tree[next];
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Draws an index with probability weight / total using a uniform u in
+     * [0, 1). Requires total() > 0.
+     */
+    public int sample(double u) {
+        long target = (long) (u * total);
+        if (target >= total)
+            target = total - 1;
+        return find(target);
+    }
+
+    /**
+     * Draws an index with probability weight / (total - excluded mass),
+     * never returning one of excluded[0, count), which must be sorted and
+     * distinct. Returns -1 if the excluded indices hold all the weight.
+     *
+     * The target is drawn from the remaining mass and the walk is repeated
+     * with the target shifted by the excluded weight at or before the
+     * previous result, until that weight stops growing: at most count + 1
+     * walks, O((count + 1) log n).
+     */
+    public int sampleExcluding(double u, int[] excluded, int count) {
+        long excludedMass = 0;
+        for (int i = 0; i < count; i++) {
+            excludedMass += weights[excluded[i]];
+        }
+        long remaining = total - excludedMass;
+        if (remaining <= 0)
+            return -1;
+
+        long target = (long) (u * remaining);
+        if (target >= remaining)
+            target = remaining - 1;
+
+        long shift = 0;
+        int next = 0;
+        while (true) {
+            int index = find(target + shift);
+            long before = shift;
+            while (next < count && excluded[next] <= index) {
+                shift += weights[excluded[next++]];
+            }
+            if (shift == before)
+                return index;
+        }
+    }
+}
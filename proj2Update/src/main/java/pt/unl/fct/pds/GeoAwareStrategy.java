@@ -0,0 +1,98 @@
+package pt.unl.fct.pds;
+
+import pt.unl.fct.pds.utils.CountryCodes;
+
+/**
+ * Geo-aware selection: guards outside the exit's country get weight
+ * bandwidth * (1 + alpha); middles get bandwidth * (1 + beta * c), where c
+ * is 3, 2 or 1 as the middle shares no country, one country or both
+ * countries with the guard and exit. Relays without a country never count
+ * as sharing one. Alpha and beta are clamped to [0, 1].
+ */
+public final class GeoAwareStrategy implements CountryFactorStrategy {
+
+    private final double alpha;
+    private final double beta;
+
+    public GeoAwareStrategy(double alpha, double beta) {
+        this.alpha = Math.max(0.0, Math.min(1.0, alpha));
+        this.beta = Math.max(0.0, Math.min(1.0, beta));
+    }
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    public double getBeta() {
+        return beta;
+    }
+
+    @Override
+    public String getName() {
+        return "geo";
+    }
+
+    @Override
+    public double guardCountryFactor(short candidateCountry, short exitCountry) {
+        return differentCountries(candidateCountry, exitCountry) ? 1.0 + alpha : 1.0;
+    }
+
+    @Override
+    public double maxGuardFactor() {
+        return 1.0 + alpha;
+    }
+
+    @Override
+    public double middleCountryFactor(short candidateCountry, short guardCountry, short exitCountry) {
+        return 1.0 + beta * countryDiversityTerm(candidateCountry, guardCountry, exitCountry);
+    }
+
+    @Override
+    public double maxMiddleFactor() {
+        return 1.0 + beta * 3;
+    }
+
+    static boolean differentCountries(short a, short b) {
+        return a != CountryCodes.NONE && b != CountryCodes.NONE && a != b;
+    }
+
+    /**
+     * 3 if the middle shares no country with guard/exit, 2 if it shares one,
+     * 1 if it shares both.
+     */
+    static int countryDiversityTerm(short mCountry, short gCountry, short eCountry) {
+        int shared = 0;
+
+        if (mCountry != CountryCodes.NONE && mCountry == gCountry) {
+            shared++;
+        }
+        if (mCountry != CountryCodes.NONE && mCountry == eCountry) {
+            shared++;
+        }
+
+        if (shared == 2) {
+            return 1;
+        } else if (shared == 1) {
+            return 2;
+        }
+        return 3;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof GeoAwareStrategy))
+            return false;
+        GeoAwareStrategy g = (GeoAwareStrategy) o;
+        return Double.compare(alpha, g.alpha) == 0 && Double.compare(beta, g.beta) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Double.hashCode(alpha) + Double.hashCode(beta);
+    }
+
+    @Override
+    public String toString() {
+        return getName() + ":alpha=" + alpha + ",beta=" + beta;
+    }
+}
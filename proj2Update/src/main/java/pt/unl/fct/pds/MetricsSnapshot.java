@@ -0,0 +1,80 @@
+package pt.unl.fct.pds;
+
+/**
+ * Relay and country statistics of an experiment after some number of
+ * circuits, taken by {@link ExperimentResults#snapshot()}. Indexed by
+ * position: {@link #GUARD}, {@link #MIDDLE}, {@link #EXIT} or {@link #ALL}
+ * (every hop of every circuit).
+ */
+public final class MetricsSnapshot {
+
+    public static final int GUARD = 0;
+    public static final int MIDDLE = 1;
+    public static final int EXIT = 2;
+    public static final int ALL = 3;
+
+    static final int POSITIONS = 4;
+
+    private final int circuits;
+    private final SelectionCounter.Summary[] relays;
+    private final SelectionCounter.Summary[] countries;
+    private final long distinctRelaysEstimate;
+    private final BandwidthHistogram.Summary bandwidth;
+    private final double[] bottleneckShares;
+
+    MetricsSnapshot(int circuits, SelectionCounter.Summary[] relays, SelectionCounter.Summary[] countries,
+            long distinctRelaysEstimate, BandwidthHistogram.Summary bandwidth, double[] bottleneckShares) {
+        this.circuits = circuits;
+        this.relays = relays;
+        this.countries = countries;
+        this.distinctRelaysEstimate = distinctRelaysEstimate;
+        this.bandwidth = bandwidth;
+        this.bottleneckShares = bottleneckShares;
+    }
+
+    public int getCircuits() {
+        return circuits;
+    }
+
+    public SelectionCounter.Summary getRelays(int position) {
+        return relays[position];
+    }
+
+    public SelectionCounter.Summary getCountries(int position) {
+        return countries[position];
+    }
+
+    /**
+     * HyperLogLog estimate of the distinct relay fingerprints seen, which
+     * stays meaningful when results from different consensuses are merged.
+     */
+    public long getDistinctRelaysEstimate() {
+        return distinctRelaysEstimate;
+    }
+
+    /**
+     * Statistics of the circuits' minimum bandwidths.
+     */
+    public BandwidthHistogram.Summary getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * Fraction of circuits whose minimum bandwidth is at the given hop
+     * ({@link #GUARD}, {@link #MIDDLE} or {@link #EXIT}; ties count for
+     * the earliest hop), i.e. which position limits throughput.
+     */
+    public double getBottleneckShare(int position) {
+        return bottleneckShares[position];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d circuits: H(country) global %.4f guard %.4f middle %.4f exit %.4f"
+                + ", relays %d, Gini(relay) %.4f, bw mean %.1f p10 %d",
+                circuits,
+                countries[ALL].getEntropy(), countries[GUARD].getEntropy(),
+                countries[MIDDLE].getEntropy(), countries[EXIT].getEntropy(),
+                relays[ALL].getDistinct(), relays[ALL].getGini(), bandwidth.getMean(), bandwidth.getP10());
+    }
+}
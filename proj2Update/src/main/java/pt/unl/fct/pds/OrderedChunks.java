@@ -0,0 +1,85 @@
+package pt.unl.fct.pds;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Runs numbered chunks of work on a thread pool and hands their results to
+ * the caller in chunk order.
+ *
+ * Chunks are created on the calling thread, in order, only when there is
+ * room for them: at most {@link #window(int)} chunks are submitted and not
+ * yet merged at any time. A chunk's result is dropped as soon as it is
+ * merged, so memory depends on the thread count, not on the number of
+ * chunks.
+ */
+final class OrderedChunks {
+
+    private OrderedChunks() {
+    }
+
+    /**
+     * Chunks in flight (running, queued or finished but not yet merged).
+     */
+    static int window(int threads) {
+        return 2 * threads;
+    }
+
+    /**
+     * Runs chunks 0..count-1, each created by chunk.apply(i), and passes
+     * their results to merge in index order on the calling thread.
+     */
+    static <T> void run(int count, IntFunction<Callable<T>> chunk, int threads, Consumer<T> merge)
+            throws InterruptedException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive.");
+        }
+        if (threads == 1 || count <= 1) {
+            for (int i = 0; i < count; i++) {
+                merge.accept(call(chunk.apply(i)));
+            }
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, count));
+        ArrayDeque<Future<T>> inFlight = new ArrayDeque<>();
+        int window = window(threads);
+        int next = 0;
+        try {
+            while (next < count || !inFlight.isEmpty()) {
+                while (next < count && inFlight.size() < window) {
+                    inFlight.add(pool.submit(chunk.apply(next++)));
+                }
+                merge.accept(inFlight.poll().get());
+            }
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static <T> T call(Callable<T> chunk) {
+        try {
+            return chunk.call();
+        } catch (Exception e) {
+            throw rethrow(e);
+        }
+    }
+
+    static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,209 @@
+package pt.unl.fct.pds;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the same experiment for every (alpha, beta) pair of a grid, to chart
+ * the anonymity/bandwidth trade-off of a strategy.
+ *
+ * Every grid point shares one PathSelector, so the consensus is parsed and
+ * annotated and the relay tables are built only once. Points run in
+ * parallel, one per thread, each as a single-threaded
+ * {@link ExperimentRunner} run. Every point uses the same seed, so
+ * differences between points come from the parameters rather than from
+ * different random streams, and the results do not depend on the thread
+ * count.
+ */
+public class ParameterSweep {
+
+    private final PathSelector selector;
+    private final int threads;
+
+    public ParameterSweep(PathSelector selector, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive.");
+        }
+        this.selector = selector;
+        this.threads = threads;
+    }
+
+    /**
+     * Results of one grid point.
+     */
+    public static final class Point {
+        private final double alpha;
+        private final double beta;
+        private final MetricsSnapshot metrics;
+
+        Point(double alpha, double beta, ExperimentResults results) {
+            this.alpha = alpha;
+            this.beta = beta;
+            this.metrics = results.snapshot();
+        }
+
+        public double getAlpha() {
+            return alpha;
+        }
+
+        public double getBeta() {
+            return beta;
+        }
+
+        public MetricsSnapshot getMetrics() {
+            return metrics;
+        }
+    }
+
+    /**
+     * Runs numCircuits circuits of the named strategy (see
+     * {@link StrategyRegistry}) for every alpha x beta pair. Points are
+     * returned alpha-major, in grid order.
+     */
+    public List<Point> run(String strategy, double[] alphas, double[] betas, int numCircuits, long seed)
+            throws InterruptedException {
+        List<Callable<Point>> points = new ArrayList<>();
+        for (final double alpha : alphas) {
+            for (final double beta : betas) {
+                Map<String, Double> params = new HashMap<>();
+                params.put("alpha", alpha);
+                params.put("beta", beta);
+                final PathSelectionStrategy s = StrategyRegistry.create(strategy, params);
+                points.add(() -> new Point(alpha, beta,
+                        new ExperimentRunner(selector, 1).run(numCircuits, s, seed, 0, null)));
+            }
+        }
+
+        List<Point> results = new ArrayList<>(points.size());
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, points.size())));
+        try {
+            List<Future<Point>> futures = pool.invokeAll(points);
+            for (Future<Point> f : futures) {
+                results.add(f.get());
+            }
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof RuntimeException)
+                throw (RuntimeException) t;
+            if (t instanceof Error)
+                throw (Error) t;
+            throw new IllegalStateException(t);
+        } finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Parses a grid: "start:end:step" (both ends included) or a comma
+     * separated list of values.
+     */
+    public static double[] parseGrid(String spec) {
+        String[] parts = spec.split(":");
+        if (parts.length == 3) {
+            double start = Double.parseDouble(parts[0].trim());
+            double end = Double.parseDouble(parts[1].trim());
+            double step = Double.parseDouble(parts[2].trim());
+            if (step <= 0 || end < start) {
+                throw new IllegalArgumentException("Invalid grid: " + spec);
+            }
+            // Rounded so that e.g. 0:1:0.1 has exactly 11 points
+            int count = (int) Math.floor((end - start) / step + 1e-9) + 1;
+            double[] values = new double[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = start + i * step;
+            }
+            return values;
+        }
+        if (parts.length != 1) {
+            throw new IllegalArgumentException("Invalid grid: " + spec);
+        }
+
+        String[] items = spec.split(",");
+        double[] values = new double[items.length];
+        for (int i = 0; i < items.length; i++) {
+            values[i] = Double.parseDouble(items[i].trim());
+        }
+        return values;
+    }
+
+    private static final String[] COLUMNS = {
+            "alpha", "beta", "circuits", "distinct_relays", "distinct_guards", "distinct_middles",
+            "distinct_exits", "h_country_all", "h_country_guard", "h_country_middle", "h_country_exit",
+            "h_relay_all", "gini_relay_all", "bw_mean", "bw_min", "bw_p10", "bw_median", "bw_p90",
+            "bottleneck_guard", "bottleneck_middle", "bottleneck_exit"
+    };
+
+    private static Object[] row(Point p) {
+        MetricsSnapshot m = p.getMetrics();
+        BandwidthHistogram.Summary bw = m.getBandwidth();
+        return new Object[] {
+                p.getAlpha(), p.getBeta(), m.getCircuits(),
+                m.getRelays(MetricsSnapshot.ALL).getDistinct(), m.getRelays(MetricsSnapshot.GUARD).getDistinct(),
+                m.getRelays(MetricsSnapshot.MIDDLE).getDistinct(), m.getRelays(MetricsSnapshot.EXIT).getDistinct(),
+                m.getCountries(MetricsSnapshot.ALL).getEntropy(), m.getCountries(MetricsSnapshot.GUARD).getEntropy(),
+                m.getCountries(MetricsSnapshot.MIDDLE).getEntropy(),
+                m.getCountries(MetricsSnapshot.EXIT).getEntropy(),
+                m.getRelays(MetricsSnapshot.ALL).getEntropy(), m.getRelays(MetricsSnapshot.ALL).getGini(),
+                bw.getMean(), bw.getMin(), bw.getP10(), bw.getMedian(), bw.getP90(),
+                m.getBottleneckShare(MetricsSnapshot.GUARD), m.getBottleneckShare(MetricsSnapshot.MIDDLE),
+                m.getBottleneckShare(MetricsSnapshot.EXIT)
+        };
+    }
+
+    public static void writeCsv(List<Point> points, Writer out) throws IOException {
+        out.write(String.join(",", COLUMNS));
+        out.write('\n');
+        for (Point p : points) {
+            Object[] values = row(p);
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0)
+                    out.write(',');
+                out.write(format(values[i]));
+            }
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    /**
+     * One JSON array with an object per point, keyed by the CSV column
+     * names.
+     */
+    public static void writeJson(List<Point> points, Writer out) throws IOException {
+        out.write("[\n");
+        for (int p = 0; p < points.size(); p++) {
+            Object[] values = row(points.get(p));
+            out.write("  {");
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0)
+                    out.write(", ");
+                out.write('"' + COLUMNS[i] + "\": " + format(values[i]));
+            }
+            out.write(p + 1 < points.size() ? "},\n" : "}\n");
+        }
+        out.write("]\n");
+        out.flush();
+    }
+
+    // Locale-independent, and valid JSON for NaN/infinite values
+    private static String format(Object value) {
+        if (value instanceof Double) {
+            double d = (Double) value;
+            if (Double.isNaN(d) || Double.isInfinite(d))
+                return "null";
+            return String.format(Locale.ROOT, "%.6f", d);
+        }
+        return String.valueOf(value);
+    }
+}
@@ -0,0 +1,63 @@
+package pt.unl.fct.pds;
+
+import java.util.Map;
+
+/**
+ * A path-selection algorithm, described by how it re-weights each position
+ * relative to plain bandwidth weighting.
+ *
+ * PathSelector draws candidates from its shared per-position bandwidth
+ * tables, applies the /16 rule, and accepts a candidate with probability
+ * factor / maxFactor for that position. The resulting distribution is
+ * exactly bandwidth * factor, without scanning the consensus. Factors must
+ * lie in [0, maxFactor]; a factor equal to the maximum is accepted without
+ * using a random draw, so strategies that leave a position alone cost
+ * nothing there.
+ *
+ * Strategies are immutable and used concurrently by several threads.
+ * Implementations are registered in {@link StrategyRegistry}, either
+ * directly or as a {@link Factory} service on the classpath.
+ */
+public interface PathSelectionStrategy {
+
+    /**
+     * Name used in the registry, experiment output and CSV files.
+     */
+    String getName();
+
+    default double exitFactor(RelayTable relays, int candidate) {
+        return 1.0;
+    }
+
+    default double maxExitFactor() {
+        return 1.0;
+    }
+
+    default double guardFactor(RelayTable relays, int candidate, int exit) {
+        return 1.0;
+    }
+
+    default double maxGuardFactor() {
+        return 1.0;
+    }
+
+    default double middleFactor(RelayTable relays, int candidate, int guard, int exit) {
+        return 1.0;
+    }
+
+    default double maxMiddleFactor() {
+        return 1.0;
+    }
+
+    /**
+     * Creates strategies from named numeric parameters, e.g. alpha and
+     * beta for the geo-aware one. Listed in
+     * META-INF/services/pt.unl.fct.pds.PathSelectionStrategy$Factory to be
+     * picked up by {@link StrategyRegistry} automatically.
+     */
+    interface Factory {
+        String getName();
+
+        PathSelectionStrategy create(Map<String, Double> params);
+    }
+}
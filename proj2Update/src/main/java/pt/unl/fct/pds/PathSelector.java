@@ -1,307 +1,530 @@
 package pt.unl.fct.pds;
 
 import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.model.RelayFlags;
 import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.utils.RelaySnapshot;
+
+import java.util.SplittableRandom;
+
+/**
+ * Tor path selection over one consensus.
+ *
+ * The per-position tables are shared with withRandom() views, but each
+ * PathSelector owns a SplittableRandom and must only be used from one
+ * thread at a time. Use {@link #withRandom(SplittableRandom)} to get a
+ * cheap view with its own random stream for each worker thread.
+ *
+ * Internally relays are dense ids into a {@link RelayTable}; Nodes are only
+ * looked up when the final Circuit is built.
+ *
+ * Each position (exit, guard, middle) has a {@link FenwickSampler} over all
+ * relay ids, weighted by bandwidth for eligible relays and zero otherwise.
+ * {@link #update(Node[])} patches only the relays that changed between two
+ * consensuses. Updates must not run concurrently with selection on this
+ * selector or any of its {@link #withRandom(SplittableRandom)} views.
+ *
+ * No two hops share a /16 or a family. A few plain draws are tried first
+ * with an O(1) check against the other hops; only when those keep clashing
+ * are the relays to avoid listed from an {@link ExclusionIndex} and their
+ * weight taken out of the draw itself.
+ *
+ * Circuits for a destination port draw their exit from a per-port sampler
+ * over the relays whose compiled exit policy accepts that port.
+ *
+ * The algorithm is a {@link PathSelectionStrategy}: it only supplies weight
+ * factors per position, applied by rejection on top of these tables.
+ * selectPathBaseline and selectPathGeoAware are shortcuts for the
+ * built-in strategies. Guards and middles of a {@link CountryFactorStrategy}
+ * (such as the geo-aware one) are drawn from per-country tables instead,
+ * see {@link CountryTables}.
+ */
+public class PathSelector {
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
+    /**
+     * How many draws from the precomputed tables we try before giving up on
+     * rejection sampling and falling back to a full scan of the consensus.
+     * Only happens when the /16 and family constraints exclude almost all of
+     * the mass, or when the strategy factors are far below their maximum.
+     */
+    private static final int MAX_REJECTIONS = 64;
 
-public class PathSelector {
+    /**
+     * Plain draws, checked with related(), before listing the excluded
+     * relays. Skipped when the other hops' groups hold half of the mass.
+     */
+    private static final int PLAIN_DRAWS = 4;
+
+    // Flags a relay needs to be a candidate for each position
+    static final int EXIT_MASK = RelayFlags.FAST | RelayTable.EXIT_POLICY_OK;
+    static final int GUARD_MASK = RelayFlags.GUARD;
+    static final int MIDDLE_MASK = RelayFlags.FAST;
+
+    private static final int POSITION_EXIT = 0;
+    private static final int POSITION_GUARD = 1;
+    private static final int POSITION_MIDDLE = 2;
+    private static final String[] POSITION_NAMES = { "exit", "guard", "middle" };
+
+    private final RelayTable relays;
+    private final SplittableRandom random;
+
+    // Per-position bandwidth weights over relay ids. The /16 rule and the
+    // strategy's factors depend on the other hops, so they are applied by
+    // rejection on top of these tables.
+    private final FenwickSampler exitSampler;
+    private final FenwickSampler guardSampler;
+    private final FenwickSampler middleSampler;
 
-    private final Node[] allNodes;
-    private final Random random = new Random();
+    // Exit samplers for specific destination ports
+    private final PortExitIndex portExits;
+
+    // Guard and middle tables by country for CountryFactorStrategy
+    private final CountryTables countryTables;
+
+    // Relays by /16 and family, and this view's scratch list of them
+    private final ExclusionIndex exclusions;
+    private final ExclusionIndex.Excluded excluded = new ExclusionIndex.Excluded();
 
     public PathSelector(Node[] allNodes) {
-        this.allNodes = allNodes;
+        this(allNodes, new SplittableRandom());
     }
 
-    public Circuit selectPathBaseline(int circuitId) {
-        Node exit = selectExit();
-        Node guard = selectGuard(exit);
-        Node middle = selectMiddle(guard, exit);
-
-        Node[] nodes = new Node[] { guard, middle, exit };
-        int minBw = computeMinBandwidth(nodes);
-
-        return new Circuit(circuitId, nodes, minBw);
-    }
-
-    private Node selectExit() {
-        List<Node> candidates = new ArrayList<>();
-        for (Node n : allNodes) {
-            if (n == null)
-                continue;
-            if (!n.isFast())
-                continue;
-            if (!isSuitableExit(n))
-                continue;
-            candidates.add(n);
-        }
+    public PathSelector(Node[] allNodes, long seed) {
+        this(allNodes, new SplittableRandom(seed));
+    }
 
-        if (candidates.isEmpty()) {
-            throw new IllegalStateException("No suitable exit nodes found!");
-        }
+    /**
+     * Selector over a binary snapshot, built from its columns without
+     * decoding a Node per relay; see {@link RelayTable#fromSnapshot}.
+     */
+    public PathSelector(RelaySnapshot snapshot) {
+        this(RelayTable.fromSnapshot(snapshot), new SplittableRandom());
+    }
 
-        return weightedRandomByBandwidth(candidates);
+    public PathSelector(RelaySnapshot snapshot, long seed) {
+        this(RelayTable.fromSnapshot(snapshot), new SplittableRandom(seed));
     }
 
-    private boolean isSuitableExit(Node n) {
-        String policy = n.getExitPolicy();
-        if (policy == null)
-            return true;
-        policy = policy.trim().toLowerCase();
-        return !policy.startsWith("reject *:*");
+    private PathSelector(Node[] allNodes, SplittableRandom random) {
+        this(RelayTable.fromNodes(allNodes), random);
     }
 
-    private Node selectGuard(Node exit) {
-        List<Node> candidates = new ArrayList<>();
-        for (Node n : allNodes) {
-            if (n == null)
-                continue;
-            if (!n.isGuard())
-                continue;
+    private PathSelector(RelayTable relays, SplittableRandom random) {
+        this.relays = relays;
+        this.random = random;
 
-            if (same16Subnet(n, exit))
-                continue;
+        int n = relays.size();
+        this.exitSampler = new FenwickSampler(n);
+        this.guardSampler = new FenwickSampler(n);
+        this.middleSampler = new FenwickSampler(n);
+        this.portExits = new PortExitIndex(relays, EXIT_MASK);
+        this.countryTables = new CountryTables(relays, GUARD_MASK, MIDDLE_MASK);
+        this.exclusions = new ExclusionIndex(relays, exitSampler, guardSampler, middleSampler);
 
-            candidates.add(n);
+        for (int id = 0; id < n; id++) {
+            refreshWeights(id);
         }
+    }
 
-        if (candidates.isEmpty()) {
-            throw new IllegalStateException("No suitable guard nodes found!");
-        }
+    // Shares every precomputed table with base; only the random stream differs
+    private PathSelector(PathSelector base, SplittableRandom random) {
+        this.relays = base.relays;
+        this.random = random;
+        this.exitSampler = base.exitSampler;
+        this.guardSampler = base.guardSampler;
+        this.middleSampler = base.middleSampler;
+        this.portExits = base.portExits;
+        this.countryTables = base.countryTables;
+        this.exclusions = base.exclusions;
+    }
 
-        return weightedRandomByBandwidth(candidates);
+    /**
+     * Returns a selector over the same consensus and tables that draws from
+     * the given random stream. Building it is O(1).
+     */
+    public PathSelector withRandom(SplittableRandom random) {
+        return new PathSelector(this, random);
     }
 
-    private Node selectMiddle(Node guard, Node exit) {
-        List<Node> candidates = new ArrayList<>();
-        for (Node n : allNodes) {
-            if (n == null)
-                continue;
-            if (!n.isFast())
-                continue;
+    public RelayTable getRelayTable() {
+        return relays;
+    }
 
-            if (same16Subnet(n, exit) || same16Subnet(n, guard))
-                continue;
+    /**
+     * Moves this selector to a new consensus. Relays are matched by
+     * fingerprint and keep their ids; only the ones whose bandwidth, flags,
+     * address or exit policy changed have their weights updated, at
+     * O(log n) each.
+     *
+     * Relays that kept their address also keep their country. Call
+     * {@link #refreshCountries()} after annotating the new relays.
+     */
+    public RelayTable.Update update(Node[] consensus) {
+        RelayTable.Update update = relays.update(consensus);
 
-            candidates.add(n);
-        }
+        int n = relays.size();
+        exitSampler.ensureCapacity(n);
+        guardSampler.ensureCapacity(n);
+        middleSampler.ensureCapacity(n);
 
-        if (candidates.isEmpty()) {
-            throw new IllegalStateException("No suitable middle nodes found!");
+        for (int id : update.getChangedIds()) {
+            refreshWeights(id);
         }
+        if (update.getChangedIds().length > 0) {
+            portExits.invalidate();
+            countryTables.invalidate();
+            exclusions.invalidate();
+        }
+        return update;
+    }
 
-        return weightedRandomByBandwidth(candidates);
+    /**
+     * Re-reads relay countries from their Nodes after GeoIP annotation.
+     */
+    public void refreshCountries() {
+        relays.refreshCountries();
+        countryTables.invalidate();
     }
 
-    private Node weightedRandomByBandwidth(List<Node> candidates) {
-        long total = 0;
-        for (Node n : candidates) {
-            int bw = n.getBandwidth();
-            if (bw > 0) {
-                total += bw;
-            }
-        }
+    private void refreshWeights(int id) {
+        int bw = Math.max(0, relays.bandwidth(id));
+        exitSampler.set(id, isCandidate(id, EXIT_MASK) ? bw : 0);
+        guardSampler.set(id, isCandidate(id, GUARD_MASK) ? bw : 0);
+        middleSampler.set(id, isCandidate(id, MIDDLE_MASK) ? bw : 0);
+    }
 
-        if (total <= 0) {
-            return candidates.get(random.nextInt(candidates.size()));
-        }
+    private boolean isCandidate(int id, int mask) {
+        return relays.isLive(id) && relays.hasFlags(id, mask);
+    }
 
-        long r = (long) (random.nextDouble() * total);
-        long cumulative = 0;
+    public Circuit selectPathBaseline(int circuitId) {
+        return selectPath(circuitId, BaselineStrategy.INSTANCE);
+    }
 
-        for (Node n : candidates) {
-            int bw = n.getBandwidth();
-            if (bw > 0) {
-                cumulative += bw;
-                if (cumulative > r) {
-                    return n;
-                }
-            }
-        }
+    /**
+     * Baseline circuit whose exit policy accepts the given port. The
+     * eligible exits for each port are indexed on first use, so later
+     * circuits for the same port cost the same as the generic case.
+     */
+    public Circuit selectPathBaseline(int circuitId, int port) {
+        return selectPath(circuitId, BaselineStrategy.INSTANCE, port);
+    }
 
-        return candidates.get(candidates.size() - 1);
+    /**
+     * Baseline circuit whose exit policy accepts every port in ports.
+     */
+    public Circuit selectPathBaseline(int circuitId, int[] ports) {
+        return selectPath(circuitId, BaselineStrategy.INSTANCE, ports);
     }
 
-    private boolean same16Subnet(Node a, Node b) {
-        if (a == null || b == null)
-            return false;
-        String ipa = a.getIpAddress();
-        String ipb = b.getIpAddress();
-        if (ipa == null || ipb == null)
-            return false;
+    public Circuit selectPathGeoAware(int circuitId, double alpha, double beta) {
+        return selectPath(circuitId, new GeoAwareStrategy(alpha, beta));
+    }
 
-        String[] pa = ipa.split("\\.");
-        String[] pb = ipb.split("\\.");
-        if (pa.length < 2 || pb.length < 2)
-            return false;
+    /**
+     * Geo-aware circuit whose exit policy accepts the given port.
+     */
+    public Circuit selectPathGeoAware(int circuitId, int port, double alpha, double beta) {
+        return selectPath(circuitId, new GeoAwareStrategy(alpha, beta), port);
+    }
 
-        return pa[0].equals(pb[0]) && pa[1].equals(pb[1]);
+    /**
+     * Geo-aware circuit whose exit policy accepts every port in ports.
+     */
+    public Circuit selectPathGeoAware(int circuitId, int[] ports, double alpha, double beta) {
+        return selectPath(circuitId, new GeoAwareStrategy(alpha, beta), ports);
     }
 
-    private int computeMinBandwidth(Node[] nodes) {
-        int min = Integer.MAX_VALUE;
-        for (Node n : nodes) {
-            if (n == null)
-                continue;
-            if (n.getBandwidth() < min) {
-                min = n.getBandwidth();
-            }
-        }
-        return (min == Integer.MAX_VALUE) ? 0 : min;
+    public Circuit selectPath(int circuitId, PathSelectionStrategy strategy) {
+        return selectPath(circuitId, strategy, (PortExitIndex.Entry) null);
+    }
+
+    public Circuit selectPath(int circuitId, PathSelectionStrategy strategy, int port) {
+        return selectPath(circuitId, strategy, portExits.forPort(port));
+    }
+
+    public Circuit selectPath(int circuitId, PathSelectionStrategy strategy, int[] ports) {
+        return selectPath(circuitId, strategy, portExits.forPorts(ports));
+    }
+
+    private Circuit selectPath(int circuitId, PathSelectionStrategy strategy, PortExitIndex.Entry exits) {
+        int exit = selectExit(strategy, exits);
+        int guard = selectGuard(strategy, exit);
+        int middle = selectMiddle(strategy, guard, exit);
+
+        Node[] nodes = new Node[] { relays.node(guard), relays.node(middle), relays.node(exit) };
+        return new Circuit(circuitId, nodes, computeMinBandwidth(guard, middle, exit));
     }
 
     /**
-     * Generic weighted random selection given an explicit weight for each
-     * candidate.
-     * weights[i] corresponds to candidates.get(i).
+     * Fills out with count baseline circuits. Same draws as count calls to
+     * {@link #selectPathBaseline(int)}, without a Circuit or Node[] per
+     * circuit.
      */
-    private Node weightedRandomWithWeights(List<Node> candidates, double[] weights) {
-        if (candidates.isEmpty()) {
-            throw new IllegalArgumentException("No candidates to choose from.");
-        }
-        if (weights.length != candidates.size()) {
-            throw new IllegalArgumentException("weights length must match candidates size.");
-        }
+    public void selectPathsBaseline(int count, CircuitBatch out) {
+        selectPaths(count, BaselineStrategy.INSTANCE, out);
+    }
 
-        double total = 0.0;
-        for (double w : weights) {
-            if (w > 0) {
-                total += w;
-            }
-        }
+    public void selectPathsBaseline(int count, int port, CircuitBatch out) {
+        selectPaths(count, BaselineStrategy.INSTANCE, port, out);
+    }
 
-        if (total <= 0.0) {
-            return candidates.get(random.nextInt(candidates.size()));
-        }
+    /**
+     * Fills out with count geo-aware circuits, like count calls to
+     * {@link #selectPathGeoAware(int, double, double)}.
+     */
+    public void selectPathsGeoAware(int count, double alpha, double beta, CircuitBatch out) {
+        selectPaths(count, new GeoAwareStrategy(alpha, beta), out);
+    }
 
-        double r = random.nextDouble() * total;
-        double cumulative = 0.0;
+    public void selectPathsGeoAware(int count, int port, double alpha, double beta, CircuitBatch out) {
+        selectPaths(count, new GeoAwareStrategy(alpha, beta), port, out);
+    }
 
-        for (int i = 0; i < candidates.size(); i++) {
-            double w = Math.max(0.0, weights[i]);
-            cumulative += w;
-            if (cumulative > r) {
-                return candidates.get(i);
-            }
-        }
+    public void selectPaths(int count, PathSelectionStrategy strategy, CircuitBatch out) {
+        selectPaths(count, strategy, (PortExitIndex.Entry) null, out);
+    }
 
-        return candidates.get(candidates.size() - 1);
+    public void selectPaths(int count, PathSelectionStrategy strategy, int port, CircuitBatch out) {
+        selectPaths(count, strategy, portExits.forPort(port), out);
     }
 
-    public Circuit selectPathGeoAware(int circuitId, double alpha, double beta) {
-        alpha = Math.max(0.0, Math.min(1.0, alpha));
-        beta = Math.max(0.0, Math.min(1.0, beta));
+    /**
+     * True if some exit allows the port, i.e. if
+     * {@link #selectPaths(int, PathSelectionStrategy, int, CircuitBatch)} has
+     * an exit to pick for it.
+     */
+    boolean hasExitFor(int port) {
+        return !portExits.forPort(port).isEmpty();
+    }
 
-        Node exit = selectExit();
-        Node guard = selectGuardGeoAware(exit, alpha);
-        Node middle = selectMiddleGeoAware(guard, exit, beta);
+    private void selectPaths(int count, PathSelectionStrategy strategy, PortExitIndex.Entry exits,
+            CircuitBatch out) {
+        out.reset(count);
 
-        Node[] nodes = new Node[] { guard, middle, exit };
-        int minBw = computeMinBandwidth(nodes);
+        for (int i = 0; i < count; i++) {
+            int exit = selectExit(strategy, exits);
+            int guard = selectGuard(strategy, exit);
+            int middle = selectMiddle(strategy, guard, exit);
+            out.add(guard, middle, exit, computeMinBandwidth(guard, middle, exit));
+        }
+    }
 
-        return new Circuit(circuitId, nodes, minBw);
+    /**
+     * Bandwidth-weighted guard with no other hop to stay away from, as a
+     * client does when it adds a relay to its guard set. Returns a relay id.
+     */
+    int selectGuardId() {
+        if (guardSampler.total() > 0) {
+            return guardSampler.sample(random.nextDouble());
+        }
+
+        int[] candidates = relays.idsWithFlags(GUARD_MASK);
+        if (candidates.length == 0) {
+            throw new IllegalStateException("No suitable guard nodes found!");
+        }
+        return candidates[random.nextInt(candidates.length)];
     }
 
-    private Node selectGuardGeoAware(Node exit, double alpha) {
-        List<Node> candidates = new ArrayList<>();
+    // Each position: bandwidth proposal from the shared table, first plain
+    // and rejected if related to another hop, then minus the relays excluded
+    // by the other hops, with acceptance with probability factor / maxFactor
+    // either way. Every attempt accepts with probability proportional to the
+    // target weight, so mixing the two kinds keeps exactly the distribution
+    // of the weighted scan below, which is only used when MAX_REJECTIONS
+    // proposals in a row are turned down.
+    // Country-factor strategies propose from their country tables, which
+    // already include the factor, so only the /16 and family rules are left
+    // to reject.
 
-        for (Node n : allNodes) {
-            if (n == null)
-                continue;
-            if (!n.isGuard())
-                continue;
+    /**
+     * Exit among all exits when exits is null, or among the ones allowing a
+     * port (set) otherwise.
+     */
+    private int selectExit(PathSelectionStrategy strategy, PortExitIndex.Entry exits) {
+        FenwickSampler sampler = exits != null ? exits.sampler : exitSampler;
+        if (sampler.total() > 0) {
+            double maxFactor = strategy.maxExitFactor();
+            for (int attempt = 0; attempt < MAX_REJECTIONS; attempt++) {
+                int n = sampler.sample(random.nextDouble());
+                if (accept(strategy.exitFactor(relays, n), maxFactor))
+                    return n;
+            }
+        }
 
-            if (same16Subnet(n, exit))
-                continue;
+        return selectByScan(strategy, POSITION_EXIT, exits, -1, -1);
+    }
 
-            candidates.add(n);
+    private int selectGuard(PathSelectionStrategy strategy, int exit) {
+        if (strategy instanceof CountryFactorStrategy) {
+            CountryFactorStrategy geo = (CountryFactorStrategy) strategy;
+            AliasSampler table = countryTables.guardTable(geo, relays.country(exit));
+            if (table != null) {
+                CountryTables.Groups groups = countryTables.guards();
+                for (int attempt = 0; attempt < MAX_REJECTIONS; attempt++) {
+                    int n = groups.sample(table, random.nextDouble(), random.nextDouble());
+                    if (!related(n, exit))
+                        return n;
+                }
+            }
+            return selectByScan(strategy, POSITION_GUARD, null, -1, exit);
         }
 
-        if (candidates.isEmpty()) {
-            throw new IllegalStateException("No suitable guard nodes found (geo-aware)!");
+        if (guardSampler.total() > 0) {
+            double maxFactor = strategy.maxGuardFactor();
+            int attempt = 0;
+            if (exclusions.groupWeight(POSITION_GUARD, exit) * 2 < guardSampler.total()) {
+                for (; attempt < PLAIN_DRAWS; attempt++) {
+                    int n = guardSampler.sample(random.nextDouble());
+                    if (!related(n, exit) && accept(strategy.guardFactor(relays, n, exit), maxFactor))
+                        return n;
+                }
+            }
+
+            collectExcluded(exit, -1);
+            for (; attempt < MAX_REJECTIONS; attempt++) {
+                int n = guardSampler.sampleExcluding(random.nextDouble(), excluded.ids, excluded.count);
+                if (n < 0)
+                    break;
+                if (accept(strategy.guardFactor(relays, n, exit), maxFactor))
+                    return n;
+            }
         }
 
-        double[] weights = new double[candidates.size()];
+        return selectByScan(strategy, POSITION_GUARD, null, -1, exit);
+    }
 
-        for (int i = 0; i < candidates.size(); i++) {
-            Node n = candidates.get(i);
-            int bw = n.getBandwidth();
-            if (bw <= 0) {
-                weights[i] = 0.0;
-                continue;
+    private int selectMiddle(PathSelectionStrategy strategy, int guard, int exit) {
+        if (strategy instanceof CountryFactorStrategy) {
+            CountryFactorStrategy geo = (CountryFactorStrategy) strategy;
+            AliasSampler table = countryTables.middleTable(geo, relays.country(guard), relays.country(exit));
+            if (table != null) {
+                CountryTables.Groups groups = countryTables.middles();
+                for (int attempt = 0; attempt < MAX_REJECTIONS; attempt++) {
+                    int n = groups.sample(table, random.nextDouble(), random.nextDouble());
+                    if (!related(n, exit) && !related(n, guard))
+                        return n;
+                }
             }
+            return selectByScan(strategy, POSITION_MIDDLE, null, guard, exit);
+        }
 
-            String guardCountry = n.getCountry();
-            String exitCountry = exit.getCountry();
+        if (middleSampler.total() > 0) {
+            double maxFactor = strategy.maxMiddleFactor();
+            int attempt = 0;
+            long related = exclusions.groupWeight(POSITION_MIDDLE, exit)
+                    + exclusions.groupWeight(POSITION_MIDDLE, guard);
+            if (related * 2 < middleSampler.total()) {
+                for (; attempt < PLAIN_DRAWS; attempt++) {
+                    int n = middleSampler.sample(random.nextDouble());
+                    if (!related(n, exit) && !related(n, guard)
+                            && accept(strategy.middleFactor(relays, n, guard, exit), maxFactor))
+                        return n;
+                }
+            }
 
-            if (guardCountry != null && exitCountry != null && !guardCountry.equals(exitCountry)) {
-                weights[i] = bw * (1.0 + alpha);
-            } else {
-                weights[i] = bw;
+            collectExcluded(exit, guard);
+            for (; attempt < MAX_REJECTIONS; attempt++) {
+                int n = middleSampler.sampleExcluding(random.nextDouble(), excluded.ids, excluded.count);
+                if (n < 0)
+                    break;
+                if (accept(strategy.middleFactor(relays, n, guard, exit), maxFactor))
+                    return n;
             }
         }
 
-        return weightedRandomWithWeights(candidates, weights);
+        return selectByScan(strategy, POSITION_MIDDLE, null, guard, exit);
     }
 
-    private Node selectMiddleGeoAware(Node guard, Node exit, double beta) {
-        List<Node> candidates = new ArrayList<>();
+    // Relays sharing a /16 or a family with exit or guard (if >= 0)
+    private void collectExcluded(int exit, int guard) {
+        excluded.clear();
+        exclusions.collect(exit, excluded);
+        if (guard >= 0)
+            exclusions.collect(guard, excluded);
+        excluded.sortUnique();
+    }
 
-        for (Node n : allNodes) {
-            if (n == null)
-                continue;
-            if (!n.isFast())
-                continue;
+    private boolean related(int a, int b) {
+        return relays.same16Subnet(a, b) || relays.sameFamily(a, b);
+    }
 
-            if (same16Subnet(n, exit) || same16Subnet(n, guard))
-                continue;
+    // A factor at the maximum is accepted without spending a random draw
+    private boolean accept(double factor, double maxFactor) {
+        return factor >= maxFactor || random.nextDouble() * maxFactor < factor;
+    }
 
-            candidates.add(n);
+    /**
+     * Full scan over the candidates of a position with weight bandwidth *
+     * factor. Uniform among them if every weight is zero.
+     */
+    private int selectByScan(PathSelectionStrategy strategy, int position, PortExitIndex.Entry exits,
+            int guard, int exit) {
+        int[] candidates = new int[relays.size()];
+        double[] weights = new double[relays.size()];
+        int count = 0;
+
+        for (int n = 0; n < relays.size(); n++) {
+            double factor;
+            if (position == POSITION_EXIT) {
+                if (exits != null ? !exits.isEligible(n) : !isCandidate(n, EXIT_MASK))
+                    continue;
+                factor = strategy.exitFactor(relays, n);
+            } else if (position == POSITION_GUARD) {
+                if (!isCandidate(n, GUARD_MASK) || related(n, exit))
+                    continue;
+                factor = strategy.guardFactor(relays, n, exit);
+            } else {
+                if (!isCandidate(n, MIDDLE_MASK) || related(n, exit) || related(n, guard))
+                    continue;
+                factor = strategy.middleFactor(relays, n, guard, exit);
+            }
+
+            candidates[count] = n;
+            weights[count] = Math.max(0, relays.bandwidth(n)) * factor;
+            count++;
         }
 
-        if (candidates.isEmpty()) {
-            throw new IllegalStateException("No suitable middle nodes found (geo-aware)!");
+        if (count == 0) {
+            throw new IllegalStateException("No suitable " + POSITION_NAMES[position] + " nodes found!");
         }
 
-        double[] weights = new double[candidates.size()];
+        return weightedRandomWithWeights(candidates, weights, count);
+    }
 
-        for (int i = 0; i < candidates.size(); i++) {
-            Node n = candidates.get(i);
-            int bw = n.getBandwidth();
-            if (bw <= 0) {
-                weights[i] = 0.0;
-                continue;
-            }
+    private int computeMinBandwidth(int guard, int middle, int exit) {
+        return Math.min(relays.bandwidth(guard), Math.min(relays.bandwidth(middle), relays.bandwidth(exit)));
+    }
 
-            String mCountry = n.getCountry();
-            String gCountry = guard.getCountry();
-            String eCountry = exit.getCountry();
+    /**
+     * Generic weighted random selection given an explicit weight for each
+     * candidate.
+     * weights[i] corresponds to candidates[i], for i < count.
+     */
+    private int weightedRandomWithWeights(int[] candidates, double[] weights, int count) {
+        double total = 0.0;
+        for (int i = 0; i < count; i++) {
+            if (weights[i] > 0) {
+                total += weights[i];
+            }
+        }
 
-            int shared = 0;
+        if (total <= 0.0) {
+            return candidates[random.nextInt(count)];
+        }
 
-            if (mCountry != null && gCountry != null && mCountry.equals(gCountry)) {
-                shared++;
-            }
-            if (mCountry != null && eCountry != null && mCountry.equals(eCountry)) {
-                shared++;
-            }
+        double r = random.nextDouble() * total;
+        double cumulative = 0.0;
 
-            int c;
-            if (shared == 2) {
-                c = 1;
-            } else if (shared == 1) {
-                c = 2;
-            } else {
-                c = 3;
+        for (int i = 0; i < count; i++) {
+            double w = Math.max(0.0, weights[i]);
+            cumulative += w;
+            if (cumulative > r) {
+                return candidates[i];
             }
-
-            weights[i] = bw * (1.0 + beta * c);
         }
 
-        return weightedRandomWithWeights(candidates, weights);
+        return candidates[count - 1];
     }
 
 }
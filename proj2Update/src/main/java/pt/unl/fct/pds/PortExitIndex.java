@@ -0,0 +1,232 @@
+package pt.unl.fct.pds;
+
+import pt.unl.fct.pds.model.ExitPolicy;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Exit samplers for specific destination ports, built on first use and
+ * shared by a PathSelector and its withRandom() views.
+ *
+ * The range boundaries of every exit policy in the consensus cut the port
+ * space into segments on which each policy gives the same answer, so one
+ * representative port decides eligibility for a whole segment. Port sets
+ * with exactly the same eligible relays (e.g. 80 and 443, which nearly
+ * every exit allows) share one sampler.
+ *
+ * Lookups for a port already seen are a single volatile read. Building is
+ * synchronized, and {@link #invalidate()} must not run concurrently with
+ * selection.
+ */
+final class PortExitIndex {
+
+    /**
+     * Bandwidth sampler over the exits that allow a port (set), plus the
+     * same set as a bitset over relay ids for the uniform fallback.
+     */
+    static final class Entry {
+        final long[] eligible;
+        final FenwickSampler sampler;
+
+        Entry(long[] eligible, FenwickSampler sampler) {
+            this.eligible = eligible;
+            this.sampler = sampler;
+        }
+
+        boolean isEligible(int id) {
+            return (eligible[id >>> 6] & (1L << id)) != 0;
+        }
+
+        boolean isEmpty() {
+            for (long word : eligible) {
+                if (word != 0)
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private final RelayTable relays;
+    private final int mask;
+
+    private volatile AtomicReferenceArray<Entry> byPort = new AtomicReferenceArray<>(ExitPolicy.MAX_PORT + 1);
+    private final Map<Key, Entry> byPortSet = new ConcurrentHashMap<>();
+
+    // Guarded by this; rebuilt lazily after invalidate()
+    private int[] segmentStarts;
+    private final Map<Key, Entry> bySegments = new HashMap<>();
+    private final Map<Key, Entry> byEligible = new HashMap<>();
+
+    /**
+     * @param mask flags (and pseudo-flags) an exit needs besides the port
+     */
+    PortExitIndex(RelayTable relays, int mask) {
+        this.relays = relays;
+        this.mask = mask;
+    }
+
+    Entry forPort(int port) {
+        checkPort(port);
+        AtomicReferenceArray<Entry> cache = byPort;
+        Entry e = cache.get(port);
+        if (e == null) {
+            e = build(new int[] { port });
+            cache.set(port, e);
+        }
+        return e;
+    }
+
+    /**
+     * Exits that allow every port in ports.
+     */
+    Entry forPorts(int[] ports) {
+        if (ports.length == 1)
+            return forPort(ports[0]);
+
+        int[] sorted = ports.clone();
+        Arrays.sort(sorted);
+        for (int p : sorted) {
+            checkPort(p);
+        }
+        Key key = new Key(sorted);
+        Entry e = byPortSet.get(key);
+        if (e == null) {
+            e = build(sorted);
+            byPortSet.put(key, e);
+        }
+        return e;
+    }
+
+    /**
+     * Drops every sampler after the relay table changed.
+     */
+    synchronized void invalidate() {
+        byPort = new AtomicReferenceArray<>(ExitPolicy.MAX_PORT + 1);
+        byPortSet.clear();
+        segmentStarts = null;
+        bySegments.clear();
+        byEligible.clear();
+    }
+
+    private static void checkPort(int port) {
+        if (port < ExitPolicy.MIN_PORT || port > ExitPolicy.MAX_PORT) {
+            throw new IllegalArgumentException("Invalid port: " + port);
+        }
+    }
+
+    private synchronized Entry build(int[] ports) {
+        if (segmentStarts == null)
+            segmentStarts = computeSegments();
+
+        int[] segments = new int[ports.length];
+        int count = 0;
+        for (int p : ports) {
+            int s = segmentOf(p);
+            if (count == 0 || segments[count - 1] != s)
+                segments[count++] = s;
+        }
+        Key segmentKey = new Key(Arrays.copyOf(segments, count));
+        Entry e = bySegments.get(segmentKey);
+        if (e != null)
+            return e;
+
+        int n = relays.size();
+        long[] eligible = new long[(n + 63) >>> 6];
+        for (int id = 0; id < n; id++) {
+            if (relays.isLive(id) && relays.hasFlags(id, mask) && allowsAll(relays.policy(id), segmentKey.values))
+                eligible[id >>> 6] |= 1L << id;
+        }
+
+        Key eligibleKey = new Key(eligible);
+        e = byEligible.get(eligibleKey);
+        if (e == null) {
+            FenwickSampler sampler = new FenwickSampler(n);
+            for (int id = 0; id < n; id++) {
+                if ((eligible[id >>> 6] & (1L << id)) != 0)
+                    sampler.set(id, Math.max(0, relays.bandwidth(id)));
+            }
+            e = new Entry(eligible, sampler);
+            byEligible.put(eligibleKey, e);
+        }
+        bySegments.put(segmentKey, e);
+        return e;
+    }
+
+    private boolean allowsAll(ExitPolicy policy, int[] segments) {
+        for (int s : segments) {
+            if (!policy.allows(segmentStarts[s]))
+                return false;
+        }
+        return true;
+    }
+
+    // Sorted starts of the port segments; the first one is MIN_PORT
+    private int[] computeSegments() {
+        Map<ExitPolicy, Boolean> seen = new IdentityHashMap<>();
+        int[] bounds = new int[64];
+        int count = 0;
+        bounds[count++] = ExitPolicy.MIN_PORT;
+
+        for (int id = 0; id < relays.size(); id++) {
+            ExitPolicy p = relays.policy(id);
+            if (p == null || seen.put(p, Boolean.TRUE) != null)
+                continue;
+            for (int r = 0; r < p.getRangeCount(); r++) {
+                if (count + 2 > bounds.length)
+                    bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                bounds[count++] = p.getRangeStart(r);
+                if (p.getRangeEnd(r) < ExitPolicy.MAX_PORT)
+                    bounds[count++] = p.getRangeEnd(r) + 1;
+            }
+        }
+
+        Arrays.sort(bounds, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || bounds[unique - 1] != bounds[i])
+                bounds[unique++] = bounds[i];
+        }
+        return Arrays.copyOf(bounds, unique);
+    }
+
+    private int segmentOf(int port) {
+        int i = Arrays.binarySearch(segmentStarts, port);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    private static final class Key {
+        final int[] values;
+        final long[] bits;
+        final int hash;
+
+        Key(int[] values) {
+            this.values = values;
+            this.bits = null;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        Key(long[] bits) {
+            this.values = null;
+            this.bits = bits;
+            this.hash = Arrays.hashCode(bits);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return hash == k.hash && Arrays.equals(values, k.values) && Arrays.equals(bits, k.bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
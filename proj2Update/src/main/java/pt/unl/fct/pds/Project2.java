@@ -2,26 +2,130 @@ package pt.unl.fct.pds;
 
 import pt.unl.fct.pds.model.Node;
 import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.utils.BoundedCountryCache;
+import pt.unl.fct.pds.utils.ConsensusFiles;
 import pt.unl.fct.pds.utils.ConsensusParser;
+import pt.unl.fct.pds.utils.CountryAnnotator;
+import pt.unl.fct.pds.utils.GeoIpDatabase;
+import pt.unl.fct.pds.utils.RelaySnapshot;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Application for Tor Path Selection alternatives.
  */
 public class Project2 {
+
+    // Bulk GeoIP annotation: parallel lookups and overall deadline
+    private static final int ANNOTATION_CONCURRENCY = 32;
+    private static final long ANNOTATION_TIMEOUT_MILLIS = 120_000;
+
+    // Guard lifetime of 30 to 60 days, in hourly consensus periods
+    private static final int GUARD_LIFETIME_MIN = 30 * 24;
+    private static final int GUARD_LIFETIME_MAX = 60 * 24;
+
     public static void main(String[] args) {
         System.out.println("Welcome to the Circuit Simulator!");
 
-        // 1) Parse consensus
+        // 1) Parse consensus (live download, or a local file/directory with
+        // --consensus <path> to run offline)
         ConsensusParser parser = new ConsensusParser();
-        Node[] nodes = parser.parseConsensus();
-        if (nodes == null || nodes.length == 0) {
-            System.out.println("Erro: não foram encontrados nodes no consenso.");
+        if (!loadGeoIp(parser, option(args, "--geoip"), option(args, "--geoip6"))) {
+            return;
+        }
+        String cacheFile = option(args, "--country-cache");
+        loadCountryCache(parser, cacheFile);
+
+        // Long-lived clients over a directory of consecutive consensuses
+        if (option(args, "--clients") != null) {
+            simulateClients(parser, args);
+            saveCountryCache(parser, cacheFile);
+            return;
+        }
+
+        // Same experiment on every consensus of an archive directory
+        if (option(args, "--replay") != null) {
+            replayArchive(parser, args);
+            saveCountryCache(parser, cacheFile);
+            return;
+        }
+
+        // 2) Create path selector (baseline). A binary snapshot is already
+        // annotated, and the selector reads its columns directly; Nodes are
+        // only decoded when a circuit is printed
+        String consensus = option(args, "--consensus");
+        Path snapshotFile = snapshotFile(consensus);
+        PathSelector selector;
+        if (snapshotFile != null) {
+            selector = loadSnapshot(snapshotFile, option(args, "--save-snapshot"));
+            if (selector == null) {
+                return;
+            }
+        } else {
+            Node[] nodes = loadConsensus(parser, consensus);
+            if (nodes == null || nodes.length == 0) {
+                System.out.println("Erro: não foram encontrados nodes no consenso.");
+                return;
+            }
+            System.out.println("Total de nodes carregados: " + nodes.length);
+
+            // Resolve every relay's country up front, in parallel, before any
+            // path selection happens
+            try {
+                new CountryAnnotator(parser, ANNOTATION_CONCURRENCY, ANNOTATION_TIMEOUT_MILLIS).annotate(nodes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            // Parsed and annotated relays in binary form; pass the file to
+            // --consensus on later runs to skip parsing and GeoIP
+            saveSnapshot(nodes, option(args, "--save-snapshot"));
+
+            selector = new PathSelector(nodes);
+        }
+
+        // Grid of alpha/beta values over the same selector instead of the
+        // single fixed run below
+        if (option(args, "--sweep-alpha") != null || option(args, "--sweep-beta") != null) {
+            runSweep(selector, args);
+            saveCountryCache(parser, cacheFile);
             return;
         }
-        System.out.println("Total de nodes carregados: " + nodes.length);
 
-        // 2) Create path selector (baseline)
-        PathSelector selector = new PathSelector(nodes);
+        // Guard/exit compromise rates of a list of adversaries (a file, or
+        // "countries" for one adversary per country)
+        if (option(args, "--adversaries") != null) {
+            analyzeCompromise(selector, args);
+            saveCountryCache(parser, cacheFile);
+            return;
+        }
+
+        // One circuit per "ip:port" destination of a file such as
+        // IPAddresses.txt, with exits allowing each port
+        if (option(args, "--destinations") != null) {
+            runWorkload(parser, selector, args);
+            saveCountryCache(parser, cacheFile);
+            return;
+        }
+
+        // Flows over generated circuits, with relays shared between them
+        if (option(args, "--load-flows") != null) {
+            simulateLoad(selector, args);
+            saveCountryCache(parser, cacheFile);
+            return;
+        }
 
         // 3) Select circuits
         Circuit c1 = selector.selectPathBaseline(1); // baseline algorithm
@@ -37,40 +141,54 @@ public class Project2 {
 
         // --- EXPERIMENT / SIMULATION
 
-        int numCircuits = 20;
+        int numCircuits = intOption(args, "--circuits", 20);
+        int threads = intOption(args, "--threads", Runtime.getRuntime().availableProcessors());
+        long seed = longOption(args, "--seed", System.nanoTime());
         double alpha = 0.5;
         double beta = 0.2;
-
-        System.out.println("\nA correr simulação com " + numCircuits + " circuitos...");
-
-        ExperimentResults baselineRes = runExperiment(parser, selector, numCircuits, "baseline", alpha, beta);
-        ExperimentResults geoRes = runExperiment(parser, selector, numCircuits, "geo", alpha, beta);
+        // Print convergence every N circuits (0 = only the final results)
+        int progress = intOption(args, "--progress", 0);
+        Consumer<MetricsSnapshot> listener = progress > 0
+                ? snapshot -> System.out.println("  " + snapshot)
+                : null;
+
+        System.out.println("\nA correr simulação com " + numCircuits + " circuitos ("
+                + threads + " threads, seed " + seed + ")...");
+
+        ExperimentRunner runner = new ExperimentRunner(selector, threads);
+        ExperimentResults baselineRes;
+        ExperimentResults geoRes;
+        try {
+            baselineRes = runner.run(numCircuits, "baseline", alpha, beta, seed, progress, listener);
+            geoRes = runner.run(numCircuits, "geo", alpha, beta, seed, progress, listener);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
 
         System.out.println("\n=== Distinct nodes used (baseline) ===");
-        System.out.println("Total unique nodes: " + baselineRes.allNodes.size());
-        System.out.println("Guards:  " + baselineRes.guards.size());
-        System.out.println("Middles: " + baselineRes.middles.size());
-        System.out.println("Exits:   " + baselineRes.exits.size());
+        System.out.println("Total unique nodes: " + baselineRes.allNodes.distinct());
+        System.out.println("Guards:  " + baselineRes.guards.distinct());
+        System.out.println("Middles: " + baselineRes.middles.distinct());
+        System.out.println("Exits:   " + baselineRes.exits.distinct());
 
         System.out.println("\n=== Distinct nodes used (geo-aware) ===");
-        System.out.println("Total unique nodes: " + geoRes.allNodes.size());
-        System.out.println("Guards:  " + geoRes.guards.size());
-        System.out.println("Middles: " + geoRes.middles.size());
-        System.out.println("Exits:   " + geoRes.exits.size());
-
-        // Entropy: note total selections = 3 * numCircuits for global; numCircuits per
-        // position
-        int totalSelections = 3 * numCircuits;
-
-        double H_all_baseline = computeEntropy(baselineRes.allCountries, totalSelections);
-        double H_guard_baseline = computeEntropy(baselineRes.guardCountries, numCircuits);
-        double H_middle_baseline = computeEntropy(baselineRes.middleCountries, numCircuits);
-        double H_exit_baseline = computeEntropy(baselineRes.exitCountries, numCircuits);
-
-        double H_all_geo = computeEntropy(geoRes.allCountries, totalSelections);
-        double H_guard_geo = computeEntropy(geoRes.guardCountries, numCircuits);
-        double H_middle_geo = computeEntropy(geoRes.middleCountries, numCircuits);
-        double H_exit_geo = computeEntropy(geoRes.exitCountries, numCircuits);
+        System.out.println("Total unique nodes: " + geoRes.allNodes.distinct());
+        System.out.println("Guards:  " + geoRes.guards.distinct());
+        System.out.println("Middles: " + geoRes.middles.distinct());
+        System.out.println("Exits:   " + geoRes.exits.distinct());
+
+        // Entropy of the country distribution, kept up to date by the
+        // counters as circuits are recorded
+        double H_all_baseline = baselineRes.allCountries.entropy();
+        double H_guard_baseline = baselineRes.guardCountries.entropy();
+        double H_middle_baseline = baselineRes.middleCountries.entropy();
+        double H_exit_baseline = baselineRes.exitCountries.entropy();
+
+        double H_all_geo = geoRes.allCountries.entropy();
+        double H_guard_geo = geoRes.guardCountries.entropy();
+        double H_middle_geo = geoRes.middleCountries.entropy();
+        double H_exit_geo = geoRes.exitCountries.entropy();
 
         System.out.println("\n=== Shannon entropy of country selection (baseline) ===");
         System.out.println("Global: " + H_all_baseline);
@@ -84,110 +202,509 @@ public class Project2 {
         System.out.println("Middle: " + H_middle_geo);
         System.out.println("Exit:   " + H_exit_geo);
 
+        MetricsSnapshot baselineSnap = baselineRes.snapshot();
+        MetricsSnapshot geoSnap = geoRes.snapshot();
+
+        System.out.println("\n=== Relay concentration (baseline / geo-aware) ===");
+        System.out.println("Gini, all hops:           " + baselineSnap.getRelays(MetricsSnapshot.ALL).getGini()
+                + " / " + geoSnap.getRelays(MetricsSnapshot.ALL).getGini());
+        System.out.println("Guessing entropy, guard:  "
+                + baselineSnap.getRelays(MetricsSnapshot.GUARD).getGuessingEntropy()
+                + " / " + geoSnap.getRelays(MetricsSnapshot.GUARD).getGuessingEntropy());
+        System.out.println("Guessing entropy, exit:   "
+                + baselineSnap.getRelays(MetricsSnapshot.EXIT).getGuessingEntropy()
+                + " / " + geoSnap.getRelays(MetricsSnapshot.EXIT).getGuessingEntropy());
+
+        BandwidthHistogram.Summary baselineBw = baselineSnap.getBandwidth();
+        BandwidthHistogram.Summary geoBw = geoSnap.getBandwidth();
+        System.out.println("\n=== Circuit bandwidth (baseline / geo-aware) ===");
+        System.out.println("Mean:    " + String.format("%.1f", baselineBw.getMean())
+                + " / " + String.format("%.1f", geoBw.getMean()));
+        System.out.println("Min:     " + baselineBw.getMin() + " / " + geoBw.getMin());
+        System.out.println("p10:     " + baselineBw.getP10() + " / " + geoBw.getP10());
+        System.out.println("Median:  " + baselineBw.getMedian() + " / " + geoBw.getMedian());
+        System.out.println("p90:     " + baselineBw.getP90() + " / " + geoBw.getP90());
+        System.out.println("Bottleneck share (guard/middle/exit): "
+                + bottlenecks(baselineSnap) + " / " + bottlenecks(geoSnap));
+
+        // What the sampled entropies above converge to
+        SelectionProbabilities baselineExact =
+                SelectionProbabilities.compute(selector.getRelayTable(), BaselineStrategy.INSTANCE);
+        SelectionProbabilities geoExact =
+                SelectionProbabilities.compute(selector.getRelayTable(), new GeoAwareStrategy(alpha, beta));
+        System.out.println("\n=== Exact country entropy (baseline / geo-aware) ===");
+        System.out.println("Global: " + baselineExact.countryEntropy(SelectionProbabilities.ALL)
+                + " / " + geoExact.countryEntropy(SelectionProbabilities.ALL));
+        System.out.println("Guard:  " + baselineExact.countryEntropy(SelectionProbabilities.GUARD)
+                + " / " + geoExact.countryEntropy(SelectionProbabilities.GUARD));
+        System.out.println("Middle: " + baselineExact.countryEntropy(SelectionProbabilities.MIDDLE)
+                + " / " + geoExact.countryEntropy(SelectionProbabilities.MIDDLE));
+        System.out.println("Exit:   " + baselineExact.countryEntropy(SelectionProbabilities.EXIT)
+                + " / " + geoExact.countryEntropy(SelectionProbabilities.EXIT));
+
+        saveCountryCache(parser, cacheFile);
     }
 
-    // Helper to print circuits
-    private static void printCircuit(ConsensusParser parser, Circuit c) {
-        Node[] nodes = c.getNodes();
+    private static String bottlenecks(MetricsSnapshot snapshot) {
+        return String.format("%.3f/%.3f/%.3f",
+                snapshot.getBottleneckShare(MetricsSnapshot.GUARD),
+                snapshot.getBottleneckShare(MetricsSnapshot.MIDDLE),
+                snapshot.getBottleneckShare(MetricsSnapshot.EXIT));
+    }
 
-        String guardCountry = ensureCountry(parser, nodes[0]);
-        String middleCountry = ensureCountry(parser, nodes[1]);
-        String exitCountry = ensureCountry(parser, nodes[2]);
+    private static Node[] loadConsensus(ConsensusParser parser, String path) {
+        if (path == null) {
+            return parser.parseConsensus();
+        }
 
-        System.out.println("Guard:  " + nodes[0].getNickname() + " ("
-                + nodes[0].getIpAddress() + ", "
-                + guardCountry + ")");
+        try {
+            Path file = consensusPath(path);
+            if (file == null) {
+                return null;
+            }
+            return parser.parseConsensusFile(file);
+        } catch (IOException e) {
+            System.out.println("Erro ao ler o consenso local: " + e.getMessage());
+            return null;
+        }
+    }
 
-        System.out.println("Middle: " + nodes[1].getNickname() + " ("
-                + nodes[1].getIpAddress() + ", "
-                + middleCountry + ")");
+    // The file itself, or the most recent consensus of a directory (null
+    // if it has none)
+    private static Path consensusPath(String path) throws IOException {
+        Path file = Paths.get(path);
+        if (Files.isDirectory(file)) {
+            List<Path> files = ConsensusFiles.listConsensusFiles(file);
+            if (files.isEmpty()) {
+                return null;
+            }
+            file = files.get(files.size() - 1);
+        }
+        return file;
+    }
 
-        System.out.println("Exit:   " + nodes[2].getNickname() + " ("
-                + nodes[2].getIpAddress() + ", "
-                + exitCountry + ")");
+    // The --consensus file if it is a binary snapshot, null otherwise; read
+    // errors are left for loadConsensus to report
+    private static Path snapshotFile(String path) {
+        if (path == null) {
+            return null;
+        }
+        try {
+            Path file = consensusPath(path);
+            return file != null && RelaySnapshot.isSnapshot(file) ? file : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
 
-        System.out.println("Circuit min bandwidth: " + c.getMinBandwidth());
+    private static PathSelector loadSnapshot(Path file, String saveTo) {
+        RelaySnapshot snapshot;
+        try {
+            snapshot = RelaySnapshot.load(file);
+        } catch (IOException e) {
+            System.out.println("Erro ao ler o consenso local: " + e.getMessage());
+            return null;
+        }
+        if (snapshot.size() == 0) {
+            System.out.println("Erro: não foram encontrados nodes no consenso.");
+            return null;
+        }
+        System.out.println("Snapshot binário: " + snapshot.size() + " relays de " + file);
+
+        if (saveTo != null) {
+            saveSnapshot(snapshot.toNodes(), saveTo);
+        }
+        return new PathSelector(snapshot);
+    }
+
+    private static void simulateClients(ConsensusParser parser, String[] args) {
+        String dir = option(args, "--consensus");
+        if (dir == null || !Files.isDirectory(Paths.get(dir))) {
+            System.out.println("Erro: --clients precisa de --consensus <diretório> com consensos consecutivos.");
+            return;
+        }
+
+        int clients = intOption(args, "--clients", 100_000);
+        int guards = intOption(args, "--guards", 1);
+        long seed = longOption(args, "--seed", System.nanoTime());
+        ClientPopulation population = new ClientPopulation(clients, guards,
+                intOption(args, "--guard-lifetime-min", GUARD_LIFETIME_MIN),
+                intOption(args, "--guard-lifetime-max", GUARD_LIFETIME_MAX), seed);
+        CountryAnnotator annotator = new CountryAnnotator(parser, ANNOTATION_CONCURRENCY,
+                ANNOTATION_TIMEOUT_MILLIS);
+
+        System.out.println("\nA simular " + clients + " clientes com " + guards + " guard(s) cada...");
+        PathSelector selector = null;
+        try {
+            for (Path file : ConsensusFiles.listConsensusFiles(Paths.get(dir))) {
+                Node[] nodes = parser.parseConsensusFile(file);
+                if (nodes.length == 0) {
+                    continue;
+                }
+                if (selector == null) {
+                    annotator.annotate(nodes);
+                    selector = new PathSelector(nodes, seed);
+                } else {
+                    // Relays that kept their address keep their country, so
+                    // only new addresses are looked up
+                    selector.update(nodes);
+                    annotator.annotate(nodes);
+                    selector.refreshCountries();
+                }
+                System.out.println(file.getFileName() + "  " + population.step(selector));
+            }
+        } catch (IOException e) {
+            System.out.println("Erro ao ler os consensos: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void replayArchive(ConsensusParser parser, String[] args) {
+        Path dir = Paths.get(option(args, "--replay"));
+        if (!Files.isDirectory(dir)) {
+            System.out.println("Erro: --replay precisa de um diretório com consensos.");
+            return;
+        }
+
+        PathSelectionStrategy strategy;
+        try {
+            strategy = StrategyRegistry.create(stringOption(args, "--strategy", "baseline"));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Erro: " + e.getMessage());
+            return;
+        }
+        int numCircuits = intOption(args, "--circuits", 20);
+        int threads = intOption(args, "--threads", Runtime.getRuntime().availableProcessors());
+        int prefetch = intOption(args, "--prefetch", 2);
+        long seed = longOption(args, "--seed", System.nanoTime());
+        ConsensusReplay replay = new ConsensusReplay(parser,
+                new CountryAnnotator(parser, ANNOTATION_CONCURRENCY, ANNOTATION_TIMEOUT_MILLIS), prefetch, threads);
+
+        System.out.println("\nA reproduzir " + dir + " (" + strategy + ", " + numCircuits
+                + " circuitos por consenso, seed " + seed + ")...");
+        ConsensusReplay.Summary summary;
+        try {
+            summary = replay.run(dir, strategy, numCircuits, seed, hour -> System.out.println("  " + hour));
+        } catch (IOException e) {
+            System.out.println("Erro ao ler os consensos: " + e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        BandwidthHistogram.Summary bw = summary.getBandwidth();
+        System.out.println("\n=== Archive totals ===");
+        System.out.println("Consensuses: " + summary.getHours() + ", circuits: " + summary.getCircuits());
+        System.out.println("Distinct relays (estimate): " + summary.getDistinctRelaysEstimate());
+        System.out.println("Country entropy (global/guard/middle/exit): " + String.format("%.4f/%.4f/%.4f/%.4f",
+                summary.getCountries(MetricsSnapshot.ALL).getEntropy(),
+                summary.getCountries(MetricsSnapshot.GUARD).getEntropy(),
+                summary.getCountries(MetricsSnapshot.MIDDLE).getEntropy(),
+                summary.getCountries(MetricsSnapshot.EXIT).getEntropy()));
+        System.out.println("Circuit bandwidth mean/p10/median: " + String.format("%.1f", bw.getMean())
+                + "/" + bw.getP10() + "/" + bw.getMedian());
     }
 
-    static class ExperimentResults {
-        int numCircuits;
-        java.util.Set<String> guards = new java.util.HashSet<>();
-        java.util.Set<String> middles = new java.util.HashSet<>();
-        java.util.Set<String> exits = new java.util.HashSet<>();
-        java.util.Set<String> allNodes = new java.util.HashSet<>();
+    private static void analyzeCompromise(PathSelector selector, String[] args) {
+        String spec = option(args, "--adversaries");
+        List<Adversary> adversaries;
+        try {
+            if (spec.equals("countries")) {
+                adversaries = Adversary.perCountry(selector.getRelayTable());
+            } else {
+                try (Reader r = Files.newBufferedReader(Paths.get(spec), StandardCharsets.UTF_8)) {
+                    adversaries = Adversary.read(r);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Erro ao ler os adversários: " + e.getMessage());
+            return;
+        } catch (IllegalArgumentException e) {
+            System.out.println("Erro: adversário inválido (" + e.getMessage() + ").");
+            return;
+        }
 
-        java.util.Map<String, Integer> guardCountries = new java.util.HashMap<>();
-        java.util.Map<String, Integer> middleCountries = new java.util.HashMap<>();
-        java.util.Map<String, Integer> exitCountries = new java.util.HashMap<>();
-        java.util.Map<String, Integer> allCountries = new java.util.HashMap<>();
+        int numCircuits = intOption(args, "--circuits", 20);
+        int threads = intOption(args, "--threads", Runtime.getRuntime().availableProcessors());
+        long seed = longOption(args, "--seed", System.nanoTime());
+        int top = intOption(args, "--top", 20);
+        CompromiseAnalyzer analyzer = new CompromiseAnalyzer(selector.getRelayTable(), adversaries);
+
+        System.out.println("\nA avaliar " + adversaries.size() + " adversários em " + numCircuits
+                + " circuitos (" + threads + " threads, seed " + seed + ")...");
+        CompromiseAnalyzer.Tally baseline;
+        CompromiseAnalyzer.Tally geo;
+        try {
+            baseline = analyzer.run(selector, BaselineStrategy.INSTANCE, numCircuits, seed, threads);
+            geo = analyzer.run(selector, new GeoAwareStrategy(0.5, 0.2), numCircuits, seed, threads);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
 
-        java.util.List<Integer> circuitBandwidths = new java.util.ArrayList<>();
+        // Worst adversaries first, by baseline end-to-end rate
+        Integer[] order = new Integer[adversaries.size()];
+        for (int a = 0; a < order.length; a++) {
+            order[a] = a;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(baseline.getEndToEnd(b), baseline.getEndToEnd(a)));
+
+        System.out.println("\n=== End-to-end compromise rate (baseline / geo-aware) ===");
+        for (int i = 0; i < Math.min(top, order.length); i++) {
+            int a = order[i];
+            System.out.println(String.format("%-20s relays %5d  guard+exit %.4f / %.4f  any hop %.4f / %.4f",
+                    adversaries.get(a).getName(), analyzer.relayCount(a),
+                    baseline.getEndToEndRate(a), geo.getEndToEndRate(a),
+                    (double) baseline.getAnyHop(a) / Math.max(1, baseline.getCircuits()),
+                    (double) geo.getAnyHop(a) / Math.max(1, geo.getCircuits())));
+        }
     }
 
-    private static void incCount(java.util.Map<String, Integer> map, String key) {
-        if (key == null)
-            key = "UNKNOWN";
-        map.put(key, map.getOrDefault(key, 0) + 1);
+    private static void runWorkload(ConsensusParser parser, PathSelector selector, String[] args) {
+        if (parser.getGeoIpDatabase() == null) {
+            System.out.println("Erro: --destinations precisa de uma base de dados GeoIP local (--geoip).");
+            return;
+        }
+        Path file = Paths.get(option(args, "--destinations"));
+        int threads = intOption(args, "--threads", Runtime.getRuntime().availableProcessors());
+        long seed = longOption(args, "--seed", System.nanoTime());
+        int top = intOption(args, "--top", 10);
+
+        DestinationWorkload workload = new DestinationWorkload(selector, parser.getGeoIpDatabase(), threads);
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            workload.read(r);
+        } catch (IOException e) {
+            System.out.println("Erro ao ler os destinos: " + e.getMessage());
+            return;
+        }
+        System.out.println("Destinos: " + workload.getDestinations() + " (" + workload.getMalformed()
+                + " linhas inválidas, " + workload.getUnresolved() + " sem país)");
+
+        PathSelectionStrategy[] strategies = { BaselineStrategy.INSTANCE, new GeoAwareStrategy(0.5, 0.2) };
+        for (PathSelectionStrategy strategy : strategies) {
+            DestinationWorkload.Report report;
+            try {
+                report = workload.run(strategy, seed);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            DestinationWorkload.PortStats total = report.getTotal();
+            System.out.println("\n=== Destination workload (" + strategy + ") ===");
+            System.out.println(String.format("Circuits: %d in %.1f ms (%.0f circuits/s), %d unserved",
+                    total.getCircuits(), report.getElapsedNanos() / 1e6, report.getCircuitsPerSecond(),
+                    total.getUnserved()));
+            System.out.println(String.format("Same country as destination (guard/exit/both): %.4f/%.4f/%.4f",
+                    total.rate(total.getGuardOverlap()), total.rate(total.getExitOverlap()),
+                    total.rate(total.getBothOverlap())));
+            List<DestinationWorkload.PortStats> ports = report.getPorts();
+            for (int i = 0; i < Math.min(top, ports.size()); i++) {
+                DestinationWorkload.PortStats p = ports.get(i);
+                System.out.println(String.format("  port %5d: %6d circuits, %d unserved, guard/exit %.4f/%.4f",
+                        p.getPort(), p.getCircuits(), p.getUnserved(), p.rate(p.getGuardOverlap()),
+                        p.rate(p.getExitOverlap())));
+            }
+        }
     }
 
-    private static double computeEntropy(java.util.Map<String, Integer> counts, int total) {
-        if (total == 0)
-            return 0.0;
-        double h = 0.0;
-        for (int count : counts.values()) {
-            double p = (double) count / (double) total;
-            if (p > 0.0) {
-                h -= p * (Math.log(p) / Math.log(2));
+    private static void simulateLoad(PathSelector selector, String[] args) {
+        int flows = intOption(args, "--load-flows", 100_000);
+        double arrivals = doubleOption(args, "--arrival-rate", 100.0);
+        double flowKb = doubleOption(args, "--flow-kb", 500.0);
+        long seed = longOption(args, "--seed", System.nanoTime());
+
+        System.out.println("\nA simular " + flows + " fluxos (" + arrivals + " por segundo, " + flowKb
+                + " kB em média, seed " + seed + ")...");
+        RelayLoadSimulator simulator = new RelayLoadSimulator(selector);
+        PathSelectionStrategy[] strategies = { BaselineStrategy.INSTANCE, new GeoAwareStrategy(0.5, 0.2) };
+        for (PathSelectionStrategy strategy : strategies) {
+            RelayLoadSimulator.Report report;
+            try {
+                report = simulator.run(strategy, flows, arrivals, flowKb, seed);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Erro: " + e.getMessage());
+                return;
             }
+
+            BandwidthHistogram.Summary fct = report.getCompletionTimes();
+            System.out.println("\n=== Relay load (" + strategy + ") ===");
+            System.out.println(String.format("Events: %d in %.1f ms (%.0f events/s), %.1f s simulated",
+                    report.getEvents(), report.getElapsedNanos() / 1e6, report.getEventsPerSecond(),
+                    report.getDuration()));
+            System.out.println(String.format("Flow completion ms (mean/median/p90/p99): %.1f/%d/%d/%d",
+                    fct.getMean(), fct.getMedian(), fct.getP90(), fct.getP99()));
+            System.out.println(String.format("Utilisation: max %.3f, %d relays above 50%%, %d above 90%%",
+                    report.getMaxUtilization(), report.relaysAbove(0.5), report.relaysAbove(0.9)));
         }
-        return h;
     }
 
-    private static ExperimentResults runExperiment(ConsensusParser parser,
-            PathSelector selector,
-            int numCircuits,
-            String type,
-            double alpha,
-            double beta) {
-        ExperimentResults res = new ExperimentResults();
-        res.numCircuits = numCircuits;
+    private static void runSweep(PathSelector selector, String[] args) {
+        double[] alphas;
+        double[] betas;
+        try {
+            alphas = ParameterSweep.parseGrid(stringOption(args, "--sweep-alpha", "0.5"));
+            betas = ParameterSweep.parseGrid(stringOption(args, "--sweep-beta", "0.2"));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Erro: grelha inválida (" + e.getMessage()
+                    + "); use inicio:fim:passo ou uma lista separada por vírgulas.");
+            return;
+        }
 
-        for (int i = 0; i < numCircuits; i++) {
-            Circuit c;
-            if ("baseline".equalsIgnoreCase(type)) {
-                c = selector.selectPathBaseline(i);
-            } else {
-                c = selector.selectPathGeoAware(i, alpha, beta);
+        String strategy = stringOption(args, "--sweep-strategy", "geo");
+        int numCircuits = intOption(args, "--circuits", 20);
+        int threads = intOption(args, "--threads", Runtime.getRuntime().availableProcessors());
+        long seed = longOption(args, "--seed", System.nanoTime());
+        String out = option(args, "--sweep-out");
+
+        System.out.println("\nA correr " + (alphas.length * betas.length) + " pontos (" + strategy + ", "
+                + numCircuits + " circuitos cada, " + threads + " threads, seed " + seed + ")...");
+
+        List<ParameterSweep.Point> points;
+        try {
+            points = new ParameterSweep(selector, threads).run(strategy, alphas, betas, numCircuits, seed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        try {
+            if (out == null) {
+                Writer w = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+                ParameterSweep.writeCsv(points, w);
+                return;
+            }
+            try (Writer w = Files.newBufferedWriter(Paths.get(out), StandardCharsets.UTF_8)) {
+                if (out.toLowerCase().endsWith(".json")) {
+                    ParameterSweep.writeJson(points, w);
+                } else {
+                    ParameterSweep.writeCsv(points, w);
+                }
             }
+            System.out.println("Resultados gravados em " + out);
+        } catch (IOException e) {
+            System.out.println("Erro ao gravar os resultados: " + e.getMessage());
+        }
+    }
 
-            Node[] nodes = c.getNodes();
-            Node guard = nodes[0];
-            Node middle = nodes[1];
-            Node exit = nodes[2];
+    private static void saveSnapshot(Node[] nodes, String file) {
+        if (file == null) {
+            return;
+        }
 
-            // fingerprints (unique nodes)
-            res.guards.add(guard.getFingerprint());
-            res.middles.add(middle.getFingerprint());
-            res.exits.add(exit.getFingerprint());
-            res.allNodes.add(guard.getFingerprint());
-            res.allNodes.add(middle.getFingerprint());
-            res.allNodes.add(exit.getFingerprint());
+        try {
+            RelaySnapshot.write(nodes, Paths.get(file));
+            System.out.println("Snapshot binário gravado em " + file);
+        } catch (IOException e) {
+            System.out.println("Erro ao gravar o snapshot: " + e.getMessage());
+        }
+    }
 
-            String gCountry = ensureCountry(parser, guard);
-            String mCountry = ensureCountry(parser, middle);
-            String eCountry = ensureCountry(parser, exit);
+    // Local GeoIP database (Tor geoip/geoip6 files) instead of ipinfo.io
+    private static boolean loadGeoIp(ConsensusParser parser, String v4File, String v6File) {
+        if (v4File == null && v6File == null) {
+            return true;
+        }
 
-            incCount(res.guardCountries, gCountry);
-            incCount(res.middleCountries, mCountry);
-            incCount(res.exitCountries, eCountry);
-            incCount(res.allCountries, gCountry);
-            incCount(res.allCountries, mCountry);
-            incCount(res.allCountries, eCountry);
+        try {
+            GeoIpDatabase db = GeoIpDatabase.load(
+                    v4File != null ? Paths.get(v4File) : null,
+                    v6File != null ? Paths.get(v6File) : null);
+            parser.setGeoIpDatabase(db);
+            System.out.println("GeoIP local: " + db.getIpv4RangeCount() + " intervalos IPv4, "
+                    + db.getIpv6RangeCount() + " intervalos IPv6");
+            return true;
+        } catch (IOException e) {
+            System.out.println("Erro ao ler a base de dados GeoIP: " + e.getMessage());
+            return false;
+        }
+    }
 
-            res.circuitBandwidths.add(c.getMinBandwidth());
+    // On-disk snapshot of the country cache, so later runs start warm
+    private static void loadCountryCache(ConsensusParser parser, String file) {
+        if (file == null) {
+            return;
         }
 
-        return res;
+        BoundedCountryCache cache = new BoundedCountryCache(ConsensusParser.DEFAULT_CACHE_SIZE,
+                ConsensusParser.DEFAULT_CACHE_TTL_MILLIS);
+        Path path = Paths.get(file);
+        if (Files.exists(path)) {
+            try {
+                int loaded = cache.loadSnapshot(path);
+                System.out.println("Cache de países: " + loaded + " IPs carregados de " + file);
+            } catch (IOException e) {
+                System.out.println("Erro ao ler a cache de países: " + e.getMessage());
+            }
+        }
+        parser.setCountryCache(cache);
+    }
+
+    private static void saveCountryCache(ConsensusParser parser, String file) {
+        if (file == null || !(parser.getCountryCache() instanceof BoundedCountryCache)) {
+            return;
+        }
+
+        try {
+            ((BoundedCountryCache) parser.getCountryCache()).saveSnapshot(Paths.get(file));
+        } catch (IOException e) {
+            System.out.println("Erro ao gravar a cache de países: " + e.getMessage());
+        }
+    }
+
+    // Value following a "--name" argument, or null if absent
+    private static String option(String[] args, String name) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (name.equals(args[i])) {
+                return args[i + 1];
+            }
+        }
+        return null;
+    }
+
+    private static String stringOption(String[] args, String name, String defaultValue) {
+        String v = option(args, name);
+        return v != null ? v : defaultValue;
+    }
+
+    private static int intOption(String[] args, String name, int defaultValue) {
+        String v = option(args, name);
+        return v != null ? Integer.parseInt(v) : defaultValue;
+    }
+
+    private static double doubleOption(String[] args, String name, double defaultValue) {
+        String v = option(args, name);
+        return v != null ? Double.parseDouble(v) : defaultValue;
+    }
+
+    private static long longOption(String[] args, String name, long defaultValue) {
+        String v = option(args, name);
+        return v != null ? Long.parseLong(v) : defaultValue;
+    }
+
+    // Helper to print circuits
+    private static void printCircuit(ConsensusParser parser, Circuit c) {
+        Node[] nodes = c.getNodes();
+
+        String guardCountry = ensureCountry(parser, nodes[0]);
+        String middleCountry = ensureCountry(parser, nodes[1]);
+        String exitCountry = ensureCountry(parser, nodes[2]);
+
+        System.out.println("Guard:  " + nodes[0].getNickname() + " ("
+                + nodes[0].getIpAddress() + ", "
+                + guardCountry + ")");
+
+        System.out.println("Middle: " + nodes[1].getNickname() + " ("
+                + nodes[1].getIpAddress() + ", "
+                + middleCountry + ")");
+
+        System.out.println("Exit:   " + nodes[2].getNickname() + " ("
+                + nodes[2].getIpAddress() + ", "
+                + exitCountry + ")");
+
+        System.out.println("Circuit min bandwidth: " + c.getMinBandwidth());
     }
 
     private static String ensureCountry(ConsensusParser parser, Node n) {
@@ -0,0 +1,517 @@
+package pt.unl.fct.pds;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Discrete-event simulation of flows over circuits from a PathSelector,
+ * to see how a strategy loads the relays rather than just which relays it
+ * picks.
+ *
+ * Flows arrive as a Poisson process, each on a new circuit of the
+ * strategy, with an exponentially distributed size. Every relay is a
+ * processor-sharing server: its consensus bandwidth is split equally among
+ * the flows crossing it, and a flow moves at the smallest of its three
+ * shares, i.e. at the share of its bottleneck relay.
+ *
+ * All flows bottlenecked at the same relay move at the same speed, so
+ * their progress is tracked with one virtual clock per relay (data served
+ * to each of them so far) and a per-relay min-heap of finish tags, the
+ * virtual time at which each flow is done. A relay's share changing only
+ * moves its clock's speed; the {@link EventHeap} holds one completion per
+ * relay, for the head of its heap, with lazy deletion by a per-relay
+ * stamp. An arrival or completion only touches individual flows whose
+ * bottleneck moves to or away from one of its circuit's relays; the others
+ * crossing those relays are checked without any heap work.
+ *
+ * So the heap sees a few pushes per event at any load, but each event
+ * still scans the flows crossing its three relays. That stays cheap while
+ * the busiest relays are below about 90% utilisation; past that their
+ * queues grow without bound and throughput drops with them (on 1500
+ * synthetic relays, about 4M events/s at 40% max utilisation and 1.6M at
+ * 85% in RelayLoadSimulatorBenchmark, but under 0.1M at 94%).
+ *
+ * State lives in primitive arrays indexed by relay id or by flow slot,
+ * reused after each completion. Arrivals are generated one ahead instead
+ * of going through the heap. Bandwidths are in the consensus unit (kB/s)
+ * and sizes in kB.
+ */
+public final class RelayLoadSimulator {
+
+    private static final int HOPS = 3;
+    private static final int CIRCUIT_BATCH = 4096;
+
+    private final PathSelector selector;
+    private final RelayTable relays;
+
+    // Per relay: capacity, active flows (slots) and the share of each,
+    // virtual clock as of relayClock, and data served by completed flows
+    private final double[] capacity;
+    private final int[][] flowsAt;
+    private final int[] active;
+    private final double[] share;
+    private final double[] virtual;
+    private final double[] relayClock;
+    private final double[] served;
+
+    // Per relay: min-heap of the flows bottlenecked there, by finish tag,
+    // and the stamp of its pending completion event
+    private final int[][] queue;
+    private final int[] queued;
+    private final int[] relayStamp;
+
+    // Relays whose completion event must be redone after the current event
+    private final int[] dirty;
+    private final boolean[] isDirty;
+    private int dirtyCount;
+    private int[] scratch = new int[64];
+
+    // Per flow slot; hop h of slot f is at [f * HOPS + h]
+    private int[] hopRelay = new int[HOPS * 64];
+    private int[] hopIndex = new int[HOPS * 64];
+    private int[] bottleneck = new int[64];
+    private int[] queuePos = new int[64];
+    private double[] tag = new double[64];
+    private double[] size = new double[64];
+    private double[] started = new double[64];
+    private int[] freeSlots = new int[64];
+    private int freeCount;
+    private int slots;
+
+    private final EventHeap events = new EventHeap(1024);
+    private long scheduled;
+
+    public RelayLoadSimulator(PathSelector selector) {
+        this.selector = selector;
+        this.relays = selector.getRelayTable();
+        int n = relays.size();
+        this.capacity = new double[n];
+        this.flowsAt = new int[n][];
+        this.active = new int[n];
+        this.share = new double[n];
+        this.virtual = new double[n];
+        this.relayClock = new double[n];
+        this.served = new double[n];
+        this.queue = new int[n][];
+        this.queued = new int[n];
+        this.relayStamp = new int[n];
+        this.dirty = new int[n];
+        this.isDirty = new boolean[n];
+        for (int id = 0; id < n; id++) {
+            // Relays without a measured bandwidth still move data, slowly
+            capacity[id] = Math.max(1, relays.bandwidth(id));
+        }
+    }
+
+    /**
+     * Outcome of one run.
+     */
+    public static final class Report {
+        private final int flows;
+        private final long events;
+        private final long scheduled;
+        private final double duration;
+        private final long elapsedNanos;
+        private final BandwidthHistogram completionMillis;
+        private final double[] utilization;
+        private final double totalFlowKb;
+        private final double servedKb;
+
+        Report(int flows, long events, long scheduled, double duration, long elapsedNanos,
+                BandwidthHistogram completionMillis, double[] utilization, double totalFlowKb, double servedKb) {
+            this.flows = flows;
+            this.events = events;
+            this.scheduled = scheduled;
+            this.duration = duration;
+            this.elapsedNanos = elapsedNanos;
+            this.completionMillis = completionMillis;
+            this.utilization = utilization;
+            this.totalFlowKb = totalFlowKb;
+            this.servedKb = servedKb;
+        }
+
+        public int getFlows() {
+            return flows;
+        }
+
+        /**
+         * Arrivals and completions processed.
+         */
+        public long getEvents() {
+            return events;
+        }
+
+        /**
+         * Per-relay completion events pushed, including the ones later
+         * made stale by a share change.
+         */
+        public long getScheduled() {
+            return scheduled;
+        }
+
+        /**
+         * Simulated seconds until the last completion.
+         */
+        public double getDuration() {
+            return duration;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getEventsPerSecond() {
+            return elapsedNanos > 0 ? events * 1e9 / elapsedNanos : 0.0;
+        }
+
+        /**
+         * Flow completion times, in milliseconds.
+         */
+        public BandwidthHistogram.Summary getCompletionTimes() {
+            return completionMillis.summary();
+        }
+
+        /**
+         * Fraction of the relay's capacity used over the run.
+         */
+        public double getUtilization(int id) {
+            return utilization[id];
+        }
+
+        public double getMaxUtilization() {
+            double max = 0.0;
+            for (double u : utilization) {
+                max = Math.max(max, u);
+            }
+            return max;
+        }
+
+        /**
+         * Relays busier than the given fraction of their capacity.
+         */
+        public int relaysAbove(double fraction) {
+            int count = 0;
+            for (double u : utilization) {
+                if (u > fraction)
+                    count++;
+            }
+            return count;
+        }
+
+        public double getTotalFlowKb() {
+            return totalFlowKb;
+        }
+
+        /**
+         * Data moved by all relays; each flow crosses three, so this is
+         * three times {@link #getTotalFlowKb()} once every flow finished.
+         */
+        public double getServedKb() {
+            return servedKb;
+        }
+    }
+
+    /**
+     * Simulates numFlows flows of the strategy arriving at arrivalsPerSecond
+     * with mean size meanFlowKb, until the last one finishes.
+     */
+    public Report run(PathSelectionStrategy strategy, int numFlows, double arrivalsPerSecond, double meanFlowKb,
+            long seed) {
+        if (numFlows <= 0 || arrivalsPerSecond <= 0 || meanFlowKb <= 0) {
+            throw new IllegalArgumentException("flows, arrival rate and flow size must be positive.");
+        }
+        reset();
+        SplittableRandom random = new SplittableRandom(seed);
+        PathSelector circuits = selector.withRandom(random.split());
+        CircuitBatch batch = new CircuitBatch(Math.min(numFlows, CIRCUIT_BATCH));
+        BandwidthHistogram completions = new BandwidthHistogram();
+
+        long start = System.nanoTime();
+        long processed = 0;
+        double totalKb = 0.0;
+        double now = 0.0;
+        double nextArrival = exponential(random, 1.0 / arrivalsPerSecond);
+        int arrived = 0;
+        int next = 0;
+
+        while (arrived < numFlows || !events.isEmpty()) {
+            if (arrived < numFlows && (events.isEmpty() || nextArrival <= events.peekTime())) {
+                now = nextArrival;
+                if (next == batch.size()) {
+                    circuits.selectPaths(Math.min(numFlows - arrived, CIRCUIT_BATCH), strategy, batch);
+                    next = 0;
+                }
+                double size = exponential(random, meanFlowKb);
+                totalKb += size;
+                arrive(now, batch.guard(next), batch.middle(next), batch.exit(next), size);
+                next++;
+                arrived++;
+                processed++;
+                nextArrival = now + exponential(random, 1.0 / arrivalsPerSecond);
+                continue;
+            }
+
+            double time = events.peekTime();
+            long payload = events.pop();
+            int r = (int) payload;
+            if ((int) (payload >>> 32) != relayStamp[r])
+                continue;
+            now = time;
+            int slot = queue[r][0];
+            completions.record(Math.round((now - started[slot]) * 1000));
+            finish(now, r, slot);
+            processed++;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double[] utilization = new double[capacity.length];
+        double servedKb = 0.0;
+        for (int id = 0; id < capacity.length; id++) {
+            servedKb += served[id];
+            utilization[id] = now > 0 ? served[id] / (capacity[id] * now) : 0.0;
+        }
+        return new Report(numFlows, processed, scheduled, now, elapsed, completions, utilization, totalKb,
+                servedKb);
+    }
+
+    private static double exponential(SplittableRandom random, double mean) {
+        return -mean * Math.log(1.0 - random.nextDouble());
+    }
+
+    private void reset() {
+        Arrays.fill(active, 0);
+        Arrays.fill(virtual, 0.0);
+        Arrays.fill(relayClock, 0.0);
+        Arrays.fill(served, 0.0);
+        Arrays.fill(queued, 0);
+        freeCount = 0;
+        slots = 0;
+        scheduled = 0;
+        while (!events.isEmpty()) {
+            events.pop();
+        }
+    }
+
+    private void arrive(double now, int guard, int middle, int exit, double kb) {
+        int f = allocate();
+        size[f] = kb;
+        started[f] = now;
+        hopRelay[f * HOPS] = guard;
+        hopRelay[f * HOPS + 1] = middle;
+        hopRelay[f * HOPS + 2] = exit;
+        for (int h = 0; h < HOPS; h++) {
+            int r = hopRelay[f * HOPS + h];
+            advance(r, now);
+            attach(f, h);
+            share[r] = capacity[r] / active[r];
+        }
+
+        int b = narrowestHop(f);
+        bottleneck[f] = b;
+        tag[f] = virtual[b] + kb;
+        enqueue(b, f);
+
+        // Each relay's share shrank: flows crossing it that are
+        // bottlenecked elsewhere, at a wider share, now move at this one
+        for (int h = 0; h < HOPS; h++) {
+            int r = hopRelay[f * HOPS + h];
+            markDirty(r);
+            int[] list = flowsAt[r];
+            for (int i = 0; i < active[r]; i++) {
+                int g = list[i];
+                if (bottleneck[g] != r && share[r] < share[bottleneck[g]])
+                    move(g, narrowestHop(g), now);
+            }
+        }
+        rescheduleDirty(now);
+    }
+
+    private void finish(double now, int r, int f) {
+        advance(r, now);
+        dequeue(r, f);
+        for (int h = 0; h < HOPS; h++) {
+            int hop = hopRelay[f * HOPS + h];
+            served[hop] += size[f];
+            advance(hop, now);
+            detach(f, h);
+            if (active[hop] > 0)
+                share[hop] = capacity[hop] / active[hop];
+        }
+        freeSlots[freeCount++] = f;
+
+        // Each relay's share grew: only the flows bottlenecked there can
+        // now be held back by another of their relays
+        for (int h = 0; h < HOPS; h++) {
+            int hop = hopRelay[f * HOPS + h];
+            markDirty(hop);
+            int count = queued[hop];
+            if (count == 0)
+                continue;
+            if (scratch.length < count)
+                scratch = new int[Math.max(count, scratch.length * 2)];
+            System.arraycopy(queue[hop], 0, scratch, 0, count);
+            for (int i = 0; i < count; i++) {
+                int g = scratch[i];
+                int b = narrowestHop(g);
+                if (share[b] < share[hop])
+                    move(g, b, now);
+            }
+        }
+        rescheduleDirty(now);
+    }
+
+    // Hop of flow f with the smallest share; the first one on ties
+    private int narrowestHop(int f) {
+        int base = f * HOPS;
+        int best = hopRelay[base];
+        for (int h = 1; h < HOPS; h++) {
+            int r = hopRelay[base + h];
+            if (share[r] < share[best])
+                best = r;
+        }
+        return best;
+    }
+
+    // Moves flow f's remaining data from its bottleneck's clock to to's
+    private void move(int f, int to, double now) {
+        int from = bottleneck[f];
+        advance(from, now);
+        advance(to, now);
+        double left = Math.max(0.0, tag[f] - virtual[from]);
+        dequeue(from, f);
+        bottleneck[f] = to;
+        tag[f] = virtual[to] + left;
+        enqueue(to, f);
+        markDirty(from);
+        markDirty(to);
+    }
+
+    private void advance(int r, double now) {
+        if (active[r] > 0)
+            virtual[r] += share[r] * (now - relayClock[r]);
+        relayClock[r] = now;
+    }
+
+    private void markDirty(int r) {
+        if (!isDirty[r]) {
+            isDirty[r] = true;
+            dirty[dirtyCount++] = r;
+        }
+    }
+
+    // New completion event for the head of each dirty relay's queue
+    private void rescheduleDirty(double now) {
+        for (int i = 0; i < dirtyCount; i++) {
+            int r = dirty[i];
+            isDirty[r] = false;
+            relayStamp[r]++;
+            if (queued[r] == 0)
+                continue;
+            advance(r, now);
+            double left = Math.max(0.0, tag[queue[r][0]] - virtual[r]);
+            events.push(now + left / share[r], ((long) relayStamp[r] << 32) | r);
+            scheduled++;
+        }
+        dirtyCount = 0;
+        if (events.size() > 4 * capacity.length + 1024)
+            events.retain(p -> (int) (p >>> 32) == relayStamp[(int) p]);
+    }
+
+    private void attach(int f, int h) {
+        int r = hopRelay[f * HOPS + h];
+        int[] list = flowsAt[r];
+        if (list == null) {
+            list = flowsAt[r] = new int[8];
+        } else if (active[r] == list.length) {
+            list = flowsAt[r] = Arrays.copyOf(list, list.length * 2);
+        }
+        hopIndex[f * HOPS + h] = active[r];
+        list[active[r]++] = f;
+    }
+
+    // Swap-remove; the flow moved into the hole learns its new index
+    private void detach(int f, int h) {
+        int r = hopRelay[f * HOPS + h];
+        int[] list = flowsAt[r];
+        int i = hopIndex[f * HOPS + h];
+        int last = list[--active[r]];
+        list[i] = last;
+        if (last != f) {
+            for (int lh = 0; lh < HOPS; lh++) {
+                if (hopRelay[last * HOPS + lh] == r) {
+                    hopIndex[last * HOPS + lh] = i;
+                    break;
+                }
+            }
+        }
+    }
+
+    private void enqueue(int r, int f) {
+        int[] heap = queue[r];
+        if (heap == null) {
+            heap = queue[r] = new int[8];
+        } else if (queued[r] == heap.length) {
+            heap = queue[r] = Arrays.copyOf(heap, heap.length * 2);
+        }
+        siftUp(heap, queued[r]++, f);
+    }
+
+    private void dequeue(int r, int f) {
+        int[] heap = queue[r];
+        int i = queuePos[f];
+        int last = heap[--queued[r]];
+        if (last == f)
+            return;
+        if (i > 0 && tag[last] < tag[heap[(i - 1) >>> 1]]) {
+            siftUp(heap, i, last);
+        } else {
+            siftDown(heap, queued[r], i, last);
+        }
+    }
+
+    private void siftUp(int[] heap, int i, int f) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (tag[heap[parent]] <= tag[f])
+                break;
+            heap[i] = heap[parent];
+            queuePos[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = f;
+        queuePos[f] = i;
+    }
+
+    private void siftDown(int[] heap, int count, int i, int f) {
+        int half = count >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < count && tag[heap[child + 1]] < tag[heap[child]])
+                child++;
+            if (tag[f] <= tag[heap[child]])
+                break;
+            heap[i] = heap[child];
+            queuePos[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = f;
+        queuePos[f] = i;
+    }
+
+    private int allocate() {
+        if (freeCount > 0)
+            return freeSlots[--freeCount];
+        if (slots == size.length) {
+            int n = slots * 2;
+            hopRelay = Arrays.copyOf(hopRelay, n * HOPS);
+            hopIndex = Arrays.copyOf(hopIndex, n * HOPS);
+            bottleneck = Arrays.copyOf(bottleneck, n);
+            queuePos = Arrays.copyOf(queuePos, n);
+            tag = Arrays.copyOf(tag, n);
+            size = Arrays.copyOf(size, n);
+            started = Arrays.copyOf(started, n);
+            freeSlots = Arrays.copyOf(freeSlots, n);
+        }
+        return slots++;
+    }
+}
@@ -0,0 +1,529 @@
+package pt.unl.fct.pds;
+
+import pt.unl.fct.pds.model.ExitPolicy;
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.CountryCodes;
+import pt.unl.fct.pds.utils.HyperLogLog;
+import pt.unl.fct.pds.utils.IpAddresses;
+import pt.unl.fct.pds.utils.RelaySnapshot;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Struct-of-arrays view of the relays in a consensus.
+ *
+ * Each relay gets a dense id and its selection-relevant fields are copied
+ * into primitive arrays: flags as a {@link pt.unl.fct.pds.model.RelayFlags}
+ * mask, IPv4 as an int, /16 prefix and country as a {@link CountryCodes}
+ * short. Path selection works on ids only and never touches strings.
+ *
+ * Relays that list each other in their "family" lines get the same family
+ * id, and the same family id is given to the whole connected group of
+ * such mutual declarations. Entries are matched by "$hexfingerprint";
+ * nicknames are ignored.
+ *
+ * Ids are stable across {@link #update(Node[])}: a relay keeps its id (by
+ * fingerprint) for as long as it stays in the consensus, and ids of relays
+ * that left are reused for new ones. Ids of removed relays have no flags,
+ * zero bandwidth and a null node.
+ *
+ * A table built with {@link #fromSnapshot(RelaySnapshot)} reads the columns
+ * straight from the snapshot and only decodes its Nodes the first time one
+ * is asked for (or on the first update).
+ */
+public final class RelayTable {
+
+    /**
+     * Pseudo-flag set when the relay's exit policy accepts at least one
+     * port. Lives above the consensus flags in the same mask.
+     */
+    public static final int EXIT_POLICY_OK = 1 << 30;
+
+    private Node[] nodes;
+    private int[] bandwidth;
+    private int[] flags;
+    private int[] ipv4;
+    // ipv4 >>> 16, or -1 if the relay has no valid IPv4 address
+    private int[] subnet16;
+    private short[] country;
+    private long[] fingerprintHash;
+    private ExitPolicy[] policy;
+    // Family id (the smallest relay id in the family), or -1 if none
+    private int[] family;
+
+    // Ids in use are [0, size); some of them may be free slots
+    private int size;
+    private int liveCount;
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private final Map<String, Integer> idByFingerprint = new HashMap<>();
+
+    // Source of the Nodes until they are decoded, then null
+    private volatile RelaySnapshot snapshot;
+
+    private RelayTable(int capacity) {
+        this.nodes = new Node[capacity];
+        this.bandwidth = new int[capacity];
+        this.flags = new int[capacity];
+        this.ipv4 = new int[capacity];
+        this.subnet16 = new int[capacity];
+        this.country = new short[capacity];
+        this.fingerprintHash = new long[capacity];
+        this.policy = new ExitPolicy[capacity];
+        this.family = new int[capacity];
+    }
+
+    /**
+     * Builds the table from a parsed consensus. Null entries are skipped, so
+     * ids are not necessarily the same as the array indices.
+     */
+    public static RelayTable fromNodes(Node[] allNodes) {
+        RelayTable table = new RelayTable(Math.max(16, allNodes.length));
+        for (Node n : allNodes) {
+            if (n != null)
+                table.add(n);
+        }
+        table.computeFamilies();
+        return table;
+    }
+
+    /**
+     * Builds the table from the columns of a binary snapshot. Only the
+     * fingerprints, exit policies and families are decoded; relay i of the
+     * snapshot gets id i.
+     */
+    public static RelayTable fromSnapshot(RelaySnapshot snapshot) {
+        int count = snapshot.size();
+        RelayTable table = new RelayTable(Math.max(16, count));
+        for (int id = 0; id < count; id++) {
+            ExitPolicy policy = ExitPolicy.compile(snapshot.exitPolicy(id));
+            table.bandwidth[id] = snapshot.bandwidth(id);
+            table.flags[id] = snapshot.flagBits(id) | (policy.allowsAnyPort() ? EXIT_POLICY_OK : 0);
+            table.policy[id] = policy;
+
+            // Written as (int) IpAddresses.parseIpv4, so -1 if invalid
+            int ip = snapshot.ipv4(id);
+            table.ipv4[id] = ip;
+            table.subnet16[id] = ip != -1 ? ip >>> 16 : -1;
+            table.country[id] = snapshot.country(id);
+
+            String fingerprint = snapshot.fingerprint(id);
+            table.fingerprintHash[id] = fingerprint != null ? HyperLogLog.hash(fingerprint) : 0;
+            table.idByFingerprint.put(fingerprint, id);
+        }
+        table.size = count;
+        table.liveCount = count;
+        table.snapshot = snapshot;
+        table.computeFamilies();
+        return table;
+    }
+
+    // Nodes of a snapshot table, all at once so node() stays lock-free
+    private synchronized void decodeNodes() {
+        RelaySnapshot source = snapshot;
+        if (source == null)
+            return;
+        for (int id = 0; id < size; id++) {
+            nodes[id] = source.node(id);
+        }
+        snapshot = null;
+    }
+
+    /**
+     * Changes made by one {@link #update(Node[])}.
+     */
+    public static final class Update {
+        private final int added;
+        private final int removed;
+        private final int modified;
+        private final int[] changedIds;
+
+        Update(int added, int removed, int modified, int[] changedIds) {
+            this.added = added;
+            this.removed = removed;
+            this.modified = modified;
+            this.changedIds = changedIds;
+        }
+
+        public int getAdded() {
+            return added;
+        }
+
+        public int getRemoved() {
+            return removed;
+        }
+
+        public int getModified() {
+            return modified;
+        }
+
+        /**
+         * Ids whose bandwidth, flags, address or policy changed, including
+         * added and removed relays.
+         */
+        public int[] getChangedIds() {
+            return changedIds;
+        }
+    }
+
+    /**
+     * Brings the table in line with a new consensus, matching relays by
+     * fingerprint. Relays that kept their IP address keep their country if
+     * the new Node has none yet, so only new addresses need a GeoIP lookup.
+     */
+    public Update update(Node[] consensus) {
+        decodeNodes();
+        int oldSize = size;
+        boolean[] seen = new boolean[oldSize];
+        int[] changed = new int[16];
+        int changedCount = 0;
+        int added = 0;
+        int modified = 0;
+
+        for (Node n : consensus) {
+            if (n == null)
+                continue;
+
+            Integer existing = idByFingerprint.get(n.getFingerprint());
+            if (existing == null) {
+                int id = add(n);
+                if (id < oldSize)
+                    seen[id] = true;
+                added++;
+                changed = push(changed, changedCount++, id);
+                continue;
+            }
+
+            int id = existing;
+            seen[id] = true;
+            Node old = nodes[id];
+            if (!hasCountry(n) && hasCountry(old) && sameString(n.getIpAddress(), old.getIpAddress())) {
+                n.setCountry(old.getCountry());
+            }
+
+            boolean differs = n.getBandwidth() != bandwidth[id]
+                    || (computeFlags(n)) != flags[id]
+                    || !sameString(n.getIpAddress(), old.getIpAddress())
+                    || !n.getPortPolicy().equals(policy[id])
+                    || !Arrays.equals(n.getFamily(), old.getFamily());
+            set(id, n);
+            if (differs) {
+                modified++;
+                changed = push(changed, changedCount++, id);
+            }
+        }
+
+        int removed = 0;
+        for (int id = 0; id < oldSize; id++) {
+            if (isLive(id) && !seen[id]) {
+                remove(id);
+                removed++;
+                changed = push(changed, changedCount++, id);
+            }
+        }
+
+        computeFamilies();
+        return new Update(added, removed, modified, Arrays.copyOf(changed, changedCount));
+    }
+
+    private static int[] push(int[] array, int index, int value) {
+        if (index == array.length)
+            array = Arrays.copyOf(array, array.length * 2);
+        array[index] = value;
+        return array;
+    }
+
+    private int add(Node n) {
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            if (size == nodes.length)
+                grow();
+            id = size++;
+        }
+        idByFingerprint.put(n.getFingerprint(), id);
+        set(id, n);
+        liveCount++;
+        return id;
+    }
+
+    private void remove(int id) {
+        idByFingerprint.remove(nodes[id].getFingerprint());
+        nodes[id] = null;
+        bandwidth[id] = 0;
+        flags[id] = 0;
+        ipv4[id] = 0;
+        subnet16[id] = -1;
+        country[id] = CountryCodes.NONE;
+        fingerprintHash[id] = 0;
+        policy[id] = null;
+        family[id] = -1;
+        if (freeCount == freeIds.length)
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        freeIds[freeCount++] = id;
+        liveCount--;
+    }
+
+    private void set(int id, Node node) {
+        nodes[id] = node;
+        bandwidth[id] = node.getBandwidth();
+        flags[id] = computeFlags(node);
+        policy[id] = node.getPortPolicy();
+
+        long ip = IpAddresses.parseIpv4(node.getIpAddress());
+        ipv4[id] = (int) ip;
+        subnet16[id] = ip >= 0 ? (int) (ip >>> 16) : -1;
+        country[id] = CountryCodes.code(node.getCountry());
+        String fingerprint = node.getFingerprint();
+        fingerprintHash[id] = fingerprint != null ? HyperLogLog.hash(fingerprint) : 0;
+    }
+
+    private void grow() {
+        int capacity = nodes.length * 2;
+        nodes = Arrays.copyOf(nodes, capacity);
+        bandwidth = Arrays.copyOf(bandwidth, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        ipv4 = Arrays.copyOf(ipv4, capacity);
+        subnet16 = Arrays.copyOf(subnet16, capacity);
+        country = Arrays.copyOf(country, capacity);
+        fingerprintHash = Arrays.copyOf(fingerprintHash, capacity);
+        policy = Arrays.copyOf(policy, capacity);
+        family = Arrays.copyOf(family, capacity);
+    }
+
+    /**
+     * Union-find over the mutual family declarations. O(total entries).
+     */
+    private void computeFamilies() {
+        int[] parent = new int[size];
+        for (int id = 0; id < size; id++) {
+            parent[id] = id;
+        }
+
+        Set<Long> declared = new HashSet<>();
+        for (int id = 0; id < size; id++) {
+            for (int other : declaredFamily(id)) {
+                declared.add(((long) id << 32) | other);
+            }
+        }
+        for (long edge : declared) {
+            int a = (int) (edge >>> 32);
+            int b = (int) edge;
+            if (declared.contains(((long) b << 32) | a)) {
+                int ra = find(parent, a);
+                int rb = find(parent, b);
+                // The smallest id becomes the root, so family ids do not
+                // depend on iteration order
+                if (ra < rb)
+                    parent[rb] = ra;
+                else if (rb < ra)
+                    parent[ra] = rb;
+            }
+        }
+
+        int[] members = new int[size];
+        for (int id = 0; id < size; id++) {
+            members[find(parent, id)]++;
+        }
+        for (int id = 0; id < size; id++) {
+            int root = find(parent, id);
+            family[id] = isLive(id) && members[root] > 1 ? root : -1;
+        }
+    }
+
+    private static int find(int[] parent, int id) {
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    private int[] declaredFamily(int id) {
+        String[] entries = familyEntries(id);
+        if (entries == null)
+            return new int[0];
+
+        int[] ids = new int[entries.length];
+        int count = 0;
+        for (String entry : entries) {
+            String fingerprint = fingerprintOf(entry);
+            Integer other = fingerprint != null ? idByFingerprint.get(fingerprint) : null;
+            if (other != null && other != id)
+                ids[count++] = other;
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    private String[] familyEntries(int id) {
+        RelaySnapshot source = snapshot;
+        if (source != null)
+            return source.family(id);
+        Node n = nodes[id];
+        return n != null ? n.getFamily() : null;
+    }
+
+    /**
+     * Consensus (base64) fingerprint of a "$hex[~name|=name]" family entry,
+     * or null for nicknames and malformed entries.
+     */
+    static String fingerprintOf(String entry) {
+        if (entry.length() < 41 || entry.charAt(0) != '$')
+            return null;
+        byte[] digest = new byte[20];
+        for (int i = 0; i < digest.length; i++) {
+            int hi = Character.digit(entry.charAt(1 + 2 * i), 16);
+            int lo = Character.digit(entry.charAt(2 + 2 * i), 16);
+            if (hi < 0 || lo < 0)
+                return null;
+            digest[i] = (byte) (hi << 4 | lo);
+        }
+        if (entry.length() > 41 && entry.charAt(41) != '~' && entry.charAt(41) != '=')
+            return null;
+        return Base64.getEncoder().withoutPadding().encodeToString(digest);
+    }
+
+    private static int computeFlags(Node n) {
+        int f = n.getFlagBits();
+        if (n.getPortPolicy().allowsAnyPort())
+            f |= EXIT_POLICY_OK;
+        return f;
+    }
+
+    private static boolean hasCountry(Node n) {
+        String c = n.getCountry();
+        return c != null && !c.isEmpty() && !"XX".equals(c);
+    }
+
+    private static boolean sameString(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Re-reads the country of every Node, e.g. after GeoIP annotation. A
+     * snapshot table whose Nodes were never decoded keeps the snapshot's
+     * countries.
+     */
+    public void refreshCountries() {
+        if (snapshot != null)
+            return;
+        for (int id = 0; id < size; id++) {
+            if (nodes[id] != null)
+                country[id] = CountryCodes.code(nodes[id].getCountry());
+        }
+    }
+
+    /**
+     * Upper bound (exclusive) of the ids in use, including free slots.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of relays currently in the table.
+     */
+    public int liveCount() {
+        return liveCount;
+    }
+
+    public boolean isLive(int id) {
+        // Only free ids have no policy, and it does not need decoded Nodes
+        return policy[id] != null;
+    }
+
+    /**
+     * Id of the relay with this fingerprint, or -1 if it is not in the table.
+     */
+    public int idOf(String fingerprint) {
+        Integer id = idByFingerprint.get(fingerprint);
+        return id != null ? id : -1;
+    }
+
+    public Node node(int id) {
+        if (snapshot != null)
+            decodeNodes();
+        return nodes[id];
+    }
+
+    public int bandwidth(int id) {
+        return bandwidth[id];
+    }
+
+    public int flags(int id) {
+        return flags[id];
+    }
+
+    /**
+     * True if the relay has every flag in mask.
+     */
+    public boolean hasFlags(int id, int mask) {
+        return (flags[id] & mask) == mask;
+    }
+
+    /**
+     * Compiled exit policy, or null for a free id.
+     */
+    public ExitPolicy policy(int id) {
+        return policy[id];
+    }
+
+    public int ipv4(int id) {
+        return ipv4[id];
+    }
+
+    public int subnet16(int id) {
+        return subnet16[id];
+    }
+
+    public short country(int id) {
+        return country[id];
+    }
+
+    /**
+     * 64-bit hash of the relay's fingerprint, for distinct-count sketches.
+     */
+    public long fingerprintHash(int id) {
+        return fingerprintHash[id];
+    }
+
+    /**
+     * Family id of the relay, or -1 if it is in no family.
+     */
+    public int family(int id) {
+        return family[id];
+    }
+
+    public boolean sameFamily(int a, int b) {
+        int f = family[a];
+        return f >= 0 && f == family[b];
+    }
+
+    /**
+     * Same rule as the old string comparison: relays without an IPv4
+     * address are never in the same /16 as anything.
+     */
+    public boolean same16Subnet(int a, int b) {
+        int s = subnet16[a];
+        return s >= 0 && s == subnet16[b];
+    }
+
+    /**
+     * Ids of every live relay that has all the flags in mask.
+     */
+    public int[] idsWithFlags(int mask) {
+        int[] ids = new int[size];
+        int count = 0;
+        for (int id = 0; id < size; id++) {
+            if (isLive(id) && (flags[id] & mask) == mask)
+                ids[count++] = id;
+        }
+        return Arrays.copyOf(ids, count);
+    }
+}
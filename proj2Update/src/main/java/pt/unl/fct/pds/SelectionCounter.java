@@ -0,0 +1,180 @@
+package pt.unl.fct.pds;
+
+import java.util.Arrays;
+
+/**
+ * Selection counts over dense ids (relay ids from a {@link RelayTable} or
+ * {@link pt.unl.fct.pds.utils.CountryCodes}), in a primitive array whose
+ * size depends on the number of ids and not on the number of selections.
+ *
+ * Shannon entropy is kept up to date on every {@link #add(int)} through the
+ * running sum of c * ln(c), so reading it is O(1):
+ * H = ln(N) - (1/N) * sum(c * ln c). The Gini coefficient and guessing
+ * entropy need the counts in order and are computed in {@link #summary()}.
+ */
+public final class SelectionCounter {
+
+    private static final double LN2 = Math.log(2);
+
+    private long[] counts;
+    private long total;
+    private int distinct;
+    // sum of c * ln(c) over every id
+    private double sumCLogC;
+
+    public SelectionCounter(int capacity) {
+        this.counts = new long[Math.max(1, capacity)];
+    }
+
+    public void add(int id) {
+        add(id, 1);
+    }
+
+    public void add(int id, long delta) {
+        if (delta <= 0)
+            return;
+        if (id >= counts.length)
+            counts = Arrays.copyOf(counts, Math.max(id + 1, counts.length * 2));
+
+        long c = counts[id];
+        long n = c + delta;
+        counts[id] = n;
+        total += delta;
+        sumCLogC += xLogX(n) - xLogX(c);
+        if (c == 0)
+            distinct++;
+    }
+
+    /**
+     * Adds other's counts to this counter. The entropy sum is recomputed from
+     * scratch, which also drops any rounding accumulated by the updates.
+     */
+    public void merge(SelectionCounter other) {
+        if (other.counts.length > counts.length)
+            counts = Arrays.copyOf(counts, other.counts.length);
+
+        for (int id = 0; id < other.counts.length; id++) {
+            counts[id] += other.counts[id];
+        }
+        total += other.total;
+
+        distinct = 0;
+        sumCLogC = 0.0;
+        for (long c : counts) {
+            if (c > 0) {
+                distinct++;
+                sumCLogC += xLogX(c);
+            }
+        }
+    }
+
+    public long count(int id) {
+        return id < counts.length ? counts[id] : 0;
+    }
+
+    public long total() {
+        return total;
+    }
+
+    /**
+     * Number of ids selected at least once.
+     */
+    public int distinct() {
+        return distinct;
+    }
+
+    /**
+     * Counts indexed by id, up to the last id selected.
+     */
+    public long[] toArray() {
+        int end = counts.length;
+        while (end > 0 && counts[end - 1] == 0)
+            end--;
+        return Arrays.copyOf(counts, end);
+    }
+
+    /**
+     * Shannon entropy of the observed distribution, in bits.
+     */
+    public double entropy() {
+        if (total == 0)
+            return 0.0;
+        double h = (Math.log(total) - sumCLogC / total) / LN2;
+        // Rounding can leave a tiny negative value for a single id
+        return Math.max(0.0, h);
+    }
+
+    public Summary summary() {
+        long[] sorted = new long[distinct];
+        int k = 0;
+        for (long c : counts) {
+            if (c > 0)
+                sorted[k++] = c;
+        }
+        Arrays.sort(sorted);
+
+        double gini = 0.0;
+        double guessing = 0.0;
+        if (total > 0) {
+            // Gini over the ids that were selected:
+            // G = 2 * sum(i * x_i) / (n * N) - (n + 1) / n, x ascending, i from 1
+            int n = sorted.length;
+            double weighted = 0.0;
+            for (int i = 0; i < n; i++) {
+                weighted += (i + 1) * (double) sorted[i];
+            }
+            gini = 2.0 * weighted / (n * (double) total) - (n + 1.0) / n;
+
+            // Guessing entropy: expected guesses when trying the most
+            // likely ids first, sum(i * p_i) with p descending
+            for (int i = 0; i < n; i++) {
+                guessing += (i + 1) * (double) sorted[n - 1 - i];
+            }
+            guessing /= total;
+        }
+        return new Summary(total, distinct, entropy(), gini, guessing);
+    }
+
+    private static double xLogX(long x) {
+        return x <= 1 ? 0.0 : x * Math.log(x);
+    }
+
+    /**
+     * Point-in-time statistics of one counter.
+     */
+    public static final class Summary {
+        private final long total;
+        private final int distinct;
+        private final double entropy;
+        private final double gini;
+        private final double guessingEntropy;
+
+        Summary(long total, int distinct, double entropy, double gini, double guessingEntropy) {
+            this.total = total;
+            this.distinct = distinct;
+            this.entropy = entropy;
+            this.gini = gini;
+            this.guessingEntropy = guessingEntropy;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public int getDistinct() {
+            return distinct;
+        }
+
+        public double getEntropy() {
+            return entropy;
+        }
+
+        public double getGini() {
+            return gini;
+        }
+
+        public double getGuessingEntropy() {
+            return guessingEntropy;
+        }
+    }
+}
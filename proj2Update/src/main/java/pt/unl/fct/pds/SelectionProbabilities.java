@@ -0,0 +1,418 @@
+package pt.unl.fct.pds;
+
+import pt.unl.fct.pds.utils.CountryCodes;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exact probability of each relay and country being chosen at each
+ * position, for the baseline or any {@link CountryFactorStrategy}, computed
+ * from the consensus instead of sampled.
+ *
+ * Exits are drawn by bandwidth times the exit factor. A guard's weight
+ * given the exit, and a middle's given both, only depend on its bandwidth,
+ * its country and whether it shares a /16 or a family with the other hops.
+ * So relays are grouped into classes of equal (/16, family, country), and
+ * the sums over exits and guard/exit pairs run over classes: each
+ * normalizer is a per-country total minus the few classes excluded by the
+ * /16 and family rules. The cost is O(guard classes x exit classes) plus
+ * the size of the consensus, independent of any number of circuits.
+ *
+ * Hops whose candidates all have zero weight (which the selector handles
+ * with a uniform draw) are left out, so probabilities may then sum to less
+ * than one; this does not happen with real consensuses.
+ */
+public final class SelectionProbabilities {
+
+    public static final int GUARD = MetricsSnapshot.GUARD;
+    public static final int MIDDLE = MetricsSnapshot.MIDDLE;
+    public static final int EXIT = MetricsSnapshot.EXIT;
+    public static final int ALL = MetricsSnapshot.ALL;
+
+    private static final int CODES = CountryCodes.MAX_CODE + 1;
+    private static final double LN2 = Math.log(2);
+
+    // [position][relay id] and [position][country code]; ALL is the
+    // average of the three hops
+    private final double[][] relay;
+    private final double[][] country;
+
+    private SelectionProbabilities(double[][] relay, double[][] country) {
+        this.relay = relay;
+        this.country = country;
+    }
+
+    public double relay(int position, int id) {
+        return relay[position][id];
+    }
+
+    public double country(int position, short code) {
+        return country[position][code];
+    }
+
+    /**
+     * Shannon entropy, in bits, of the relay chosen at a position.
+     */
+    public double relayEntropy(int position) {
+        return entropy(relay[position]);
+    }
+
+    public double countryEntropy(int position) {
+        return entropy(country[position]);
+    }
+
+    private static double entropy(double[] p) {
+        double h = 0.0;
+        for (double x : p) {
+            if (x > 0)
+                h -= x * Math.log(x);
+        }
+        return h / LN2;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the strategy is neither the
+     *                                  baseline nor a CountryFactorStrategy
+     */
+    public static SelectionProbabilities compute(RelayTable relays, PathSelectionStrategy strategy) {
+        CountryFactorStrategy geo = null;
+        if (strategy instanceof CountryFactorStrategy) {
+            geo = (CountryFactorStrategy) strategy;
+        } else if (!(strategy instanceof BaselineStrategy)) {
+            throw new IllegalArgumentException("Exact probabilities need country-only guard and middle factors: "
+                    + strategy);
+        }
+        return new Engine(relays, strategy, geo).run();
+    }
+
+    /**
+     * State of one computation. Class arrays are indexed by class id.
+     */
+    private static final class Engine {
+        final RelayTable relays;
+        final PathSelectionStrategy strategy;
+        final CountryFactorStrategy geo;
+        final int n;
+
+        final int[] classOf;
+        int classes;
+        short[] classCountry = new short[64];
+        int[] classSubnet = new int[64];
+        int[] classFamily = new int[64];
+        double[] guardMass = new double[64];
+        double[] middleMass = new double[64];
+        double[] exitProb = new double[64];
+        // Classes sharing a /16 or family with each class (itself included
+        // when it has either)
+        int[][] related;
+
+        final double[] exitRelay;
+
+        Engine(RelayTable relays, PathSelectionStrategy strategy, CountryFactorStrategy geo) {
+            this.relays = relays;
+            this.strategy = strategy;
+            this.geo = geo;
+            this.n = relays.size();
+            this.classOf = new int[n];
+            this.exitRelay = new double[n];
+        }
+
+        double guardFactor(short candidate, short exit) {
+            return geo != null ? geo.guardCountryFactor(candidate, exit) : 1.0;
+        }
+
+        double middleFactor(short candidate, short guard, short exit) {
+            return geo != null ? geo.middleCountryFactor(candidate, guard, exit) : 1.0;
+        }
+
+        boolean related(int a, int b) {
+            return (classSubnet[a] >= 0 && classSubnet[a] == classSubnet[b])
+                    || (classFamily[a] >= 0 && classFamily[a] == classFamily[b]);
+        }
+
+        SelectionProbabilities run() {
+            buildClasses();
+
+            double[] zGuard = guardNormalizers();
+            double[] guardClass = guardClassProbabilities(zGuard);
+            double[] middleClass = middleClassProbabilities(zGuard);
+
+            double[][] relay = new double[MetricsSnapshot.POSITIONS][n];
+            double[][] country = new double[MetricsSnapshot.POSITIONS][CODES];
+            for (int id = 0; id < n; id++) {
+                relay[EXIT][id] = exitRelay[id];
+                int k = classOf[id];
+                if (k >= 0 && weight(id, PathSelector.GUARD_MASK) > 0)
+                    relay[GUARD][id] = guardClass[k] * weight(id, PathSelector.GUARD_MASK) / guardMass[k];
+                if (k >= 0 && weight(id, PathSelector.MIDDLE_MASK) > 0)
+                    relay[MIDDLE][id] = middleClass[k] * weight(id, PathSelector.MIDDLE_MASK) / middleMass[k];
+
+                short c = relays.country(id);
+                for (int p = GUARD; p <= EXIT; p++) {
+                    country[p][c] += relay[p][id];
+                    relay[ALL][id] += relay[p][id] / 3;
+                    country[ALL][c] += relay[p][id] / 3;
+                }
+            }
+            return new SelectionProbabilities(relay, country);
+        }
+
+        // Bandwidth if the relay is a candidate for the mask, 0 otherwise
+        double weight(int id, int mask) {
+            if (!relays.isLive(id) || !relays.hasFlags(id, mask))
+                return 0.0;
+            return Math.max(0, relays.bandwidth(id));
+        }
+
+        private void buildClasses() {
+            double exitTotal = 0.0;
+            for (int id = 0; id < n; id++) {
+                double w = weight(id, PathSelector.EXIT_MASK);
+                if (w > 0)
+                    exitRelay[id] = w * strategy.exitFactor(relays, id);
+                exitTotal += exitRelay[id];
+            }
+
+            Map<Long, Integer> byKey = new HashMap<>();
+            for (int id = 0; id < n; id++) {
+                double g = weight(id, PathSelector.GUARD_MASK);
+                double m = weight(id, PathSelector.MIDDLE_MASK);
+                if (exitTotal > 0)
+                    exitRelay[id] /= exitTotal;
+                if (g <= 0 && m <= 0 && exitRelay[id] <= 0) {
+                    classOf[id] = -1;
+                    continue;
+                }
+
+                int subnet = relays.subnet16(id);
+                int family = relays.family(id);
+                short c = relays.country(id);
+                // country in 11 bits, family + 1 in 32, subnet + 1 in 17
+                long key = ((long) (subnet + 1) << 43) | ((long) (family + 1) << 11) | c;
+                Integer k = byKey.get(key);
+                if (k == null) {
+                    k = newClass(c, subnet, family);
+                    byKey.put(key, k);
+                }
+                classOf[id] = k;
+                guardMass[k] += g;
+                middleMass[k] += m;
+                exitProb[k] += exitRelay[id];
+            }
+
+            Map<Integer, int[]> bySubnet = groupClasses(classSubnet);
+            Map<Integer, int[]> byFamily = groupClasses(classFamily);
+            related = new int[classes][];
+            for (int k = 0; k < classes; k++) {
+                int[] s = classSubnet[k] >= 0 ? bySubnet.get(classSubnet[k]) : new int[0];
+                int[] f = classFamily[k] >= 0 ? byFamily.get(classFamily[k]) : new int[0];
+                int[] r = new int[s.length + f.length];
+                int count = 0;
+                for (int j : s) {
+                    r[count++] = j;
+                }
+                for (int j : f) {
+                    // Already there if it shares the /16 too
+                    if (classSubnet[k] < 0 || classSubnet[j] != classSubnet[k])
+                        r[count++] = j;
+                }
+                related[k] = Arrays.copyOf(r, count);
+            }
+        }
+
+        private int newClass(short c, int subnet, int family) {
+            if (classes == classCountry.length) {
+                int size = classes * 2;
+                classCountry = Arrays.copyOf(classCountry, size);
+                classSubnet = Arrays.copyOf(classSubnet, size);
+                classFamily = Arrays.copyOf(classFamily, size);
+                guardMass = Arrays.copyOf(guardMass, size);
+                middleMass = Arrays.copyOf(middleMass, size);
+                exitProb = Arrays.copyOf(exitProb, size);
+            }
+            classCountry[classes] = c;
+            classSubnet[classes] = subnet;
+            classFamily[classes] = family;
+            return classes++;
+        }
+
+        private Map<Integer, int[]> groupClasses(int[] keyOf) {
+            Map<Integer, int[]> groups = new HashMap<>();
+            for (int k = 0; k < classes; k++) {
+                if (keyOf[k] < 0)
+                    continue;
+                int[] g = groups.get(keyOf[k]);
+                g = g == null ? new int[1] : Arrays.copyOf(g, g.length + 1);
+                g[g.length - 1] = k;
+                groups.put(keyOf[k], g);
+            }
+            return groups;
+        }
+
+        /**
+         * Guard normalizer for each exit class: total guard weight given the
+         * exit's country, minus the guards sharing its /16 or family.
+         */
+        private double[] guardNormalizers() {
+            double[] massByCountry = new double[CODES];
+            for (int k = 0; k < classes; k++) {
+                massByCountry[classCountry[k]] += guardMass[k];
+            }
+            short[] guardCountries = present(massByCountry);
+
+            double[] totalByExitCountry = new double[CODES];
+            boolean[] done = new boolean[CODES];
+            double[] z = new double[classes];
+            for (int e = 0; e < classes; e++) {
+                if (exitProb[e] <= 0)
+                    continue;
+                short ce = classCountry[e];
+                if (!done[ce]) {
+                    double t = 0.0;
+                    for (short cg : guardCountries) {
+                        t += massByCountry[cg] * guardFactor(cg, ce);
+                    }
+                    totalByExitCountry[ce] = t;
+                    done[ce] = true;
+                }
+                double zk = totalByExitCountry[ce];
+                for (int j : related[e]) {
+                    zk -= guardMass[j] * guardFactor(classCountry[j], ce);
+                }
+                z[e] = zk;
+            }
+            return z;
+        }
+
+        private double[] guardClassProbabilities(double[] zGuard) {
+            // sum over exits of P(exit) / Z, by exit country
+            double[] byExitCountry = new double[CODES];
+            for (int e = 0; e < classes; e++) {
+                if (exitProb[e] > 0 && zGuard[e] > 0)
+                    byExitCountry[classCountry[e]] += exitProb[e] / zGuard[e];
+            }
+            short[] exitCountries = present(byExitCountry);
+
+            double[] perGuardCountry = new double[CODES];
+            boolean[] done = new boolean[CODES];
+            double[] p = new double[classes];
+            for (int g = 0; g < classes; g++) {
+                if (guardMass[g] <= 0)
+                    continue;
+                short cg = classCountry[g];
+                if (!done[cg]) {
+                    double s = 0.0;
+                    for (short ce : exitCountries) {
+                        s += guardFactor(cg, ce) * byExitCountry[ce];
+                    }
+                    perGuardCountry[cg] = s;
+                    done[cg] = true;
+                }
+                double s = perGuardCountry[cg];
+                for (int e : related[g]) {
+                    if (exitProb[e] > 0 && zGuard[e] > 0)
+                        s -= exitProb[e] * guardFactor(cg, classCountry[e]) / zGuard[e];
+                }
+                p[g] = Math.max(0.0, guardMass[g] * s);
+            }
+            return p;
+        }
+
+        private double[] middleClassProbabilities(double[] zGuard) {
+            double[] massByCountry = new double[CODES];
+            for (int k = 0; k < classes; k++) {
+                massByCountry[classCountry[k]] += middleMass[k];
+            }
+            short[] middleCountries = present(massByCountry);
+
+            // Per (guard country, exit country): middle weight total and
+            // the accumulated P(guard, exit) / Z_middle
+            Map<Integer, double[]> byCountryPair = new HashMap<>();
+            double[] correction = new double[classes];
+
+            for (int e = 0; e < classes; e++) {
+                if (exitProb[e] <= 0 || zGuard[e] <= 0)
+                    continue;
+                short ce = classCountry[e];
+                for (int g = 0; g < classes; g++) {
+                    if (guardMass[g] <= 0 || related(g, e))
+                        continue;
+                    short cg = classCountry[g];
+                    double joint = exitProb[e] * guardMass[g] * guardFactor(cg, ce) / zGuard[e];
+                    if (joint <= 0)
+                        continue;
+
+                    int pair = cg * CODES + ce;
+                    double[] acc = byCountryPair.get(pair);
+                    if (acc == null) {
+                        double t = 0.0;
+                        for (short cm : middleCountries) {
+                            t += massByCountry[cm] * middleFactor(cm, cg, ce);
+                        }
+                        acc = new double[] { t, 0.0 };
+                        byCountryPair.put(pair, acc);
+                    }
+
+                    double z = acc[0];
+                    for (int j : related[g]) {
+                        z -= middleMass[j] * middleFactor(classCountry[j], cg, ce);
+                    }
+                    for (int j : related[e]) {
+                        if (!related(j, g))
+                            z -= middleMass[j] * middleFactor(classCountry[j], cg, ce);
+                    }
+                    if (z <= 0)
+                        continue;
+
+                    double w = joint / z;
+                    acc[1] += w;
+                    for (int j : related[g]) {
+                        correction[j] += w * middleFactor(classCountry[j], cg, ce);
+                    }
+                    for (int j : related[e]) {
+                        if (!related(j, g))
+                            correction[j] += w * middleFactor(classCountry[j], cg, ce);
+                    }
+                }
+            }
+
+            double[] perMiddleCountry = new double[CODES];
+            boolean[] done = new boolean[CODES];
+            double[] p = new double[classes];
+            for (int m = 0; m < classes; m++) {
+                if (middleMass[m] <= 0)
+                    continue;
+                short cm = classCountry[m];
+                if (!done[cm]) {
+                    double s = 0.0;
+                    for (Map.Entry<Integer, double[]> entry : byCountryPair.entrySet()) {
+                        int pair = entry.getKey();
+                        s += entry.getValue()[1]
+                                * middleFactor(cm, (short) (pair / CODES), (short) (pair % CODES));
+                    }
+                    perMiddleCountry[cm] = s;
+                    done[cm] = true;
+                }
+                p[m] = Math.max(0.0, middleMass[m] * (perMiddleCountry[cm] - correction[m]));
+            }
+            return p;
+        }
+
+        private static short[] present(double[] byCountry) {
+            int count = 0;
+            for (double v : byCountry) {
+                if (v > 0)
+                    count++;
+            }
+            short[] codes = new short[count];
+            count = 0;
+            for (int c = 0; c < byCountry.length; c++) {
+                if (byCountry[c] > 0)
+                    codes[count++] = (short) c;
+            }
+            return codes;
+        }
+    }
+}
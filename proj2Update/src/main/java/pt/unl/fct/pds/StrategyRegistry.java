@@ -0,0 +1,110 @@
+package pt.unl.fct.pds;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * Path-selection strategies by name. The built-in ones are "baseline",
+ * "geo" (alpha, beta) and "bwcap" (cap); more can be added with
+ * {@link #register(PathSelectionStrategy.Factory)} or as
+ * {@link PathSelectionStrategy.Factory} services on the classpath.
+ *
+ * Strategies are created from specs such as "baseline",
+ * "geo:alpha=0.5,beta=0.2" or "bwcap:cap=20000".
+ */
+public final class StrategyRegistry {
+
+    private static final Map<String, PathSelectionStrategy.Factory> FACTORIES = new LinkedHashMap<>();
+
+    static {
+        register(new SimpleFactory("baseline") {
+            @Override
+            public PathSelectionStrategy create(Map<String, Double> params) {
+                return BaselineStrategy.INSTANCE;
+            }
+        });
+        register(new SimpleFactory("geo") {
+            @Override
+            public PathSelectionStrategy create(Map<String, Double> params) {
+                return new GeoAwareStrategy(param(params, "alpha", 0.5), param(params, "beta", 0.2));
+            }
+        });
+        register(new SimpleFactory("bwcap") {
+            @Override
+            public PathSelectionStrategy create(Map<String, Double> params) {
+                return new BandwidthCappedStrategy((int) param(params, "cap", 20000));
+            }
+        });
+
+        for (PathSelectionStrategy.Factory f : ServiceLoader.load(PathSelectionStrategy.Factory.class)) {
+            register(f);
+        }
+    }
+
+    private StrategyRegistry() {
+    }
+
+    public static synchronized void register(PathSelectionStrategy.Factory factory) {
+        FACTORIES.put(factory.getName().toLowerCase(), factory);
+    }
+
+    public static synchronized Set<String> names() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(FACTORIES.keySet()));
+    }
+
+    public static PathSelectionStrategy create(String name, Map<String, Double> params) {
+        PathSelectionStrategy.Factory factory;
+        synchronized (StrategyRegistry.class) {
+            factory = FACTORIES.get(name.toLowerCase());
+        }
+        if (factory == null) {
+            throw new IllegalArgumentException("Unknown path selection strategy: " + name
+                    + " (known: " + names() + ")");
+        }
+        return factory.create(params);
+    }
+
+    /**
+     * Parses "name" or "name:key=value,key=value".
+     */
+    public static PathSelectionStrategy create(String spec) {
+        int colon = spec.indexOf(':');
+        if (colon < 0) {
+            return create(spec.trim(), Collections.<String, Double>emptyMap());
+        }
+
+        Map<String, Double> params = new LinkedHashMap<>();
+        for (String pair : spec.substring(colon + 1).split(",")) {
+            if (pair.trim().isEmpty())
+                continue;
+            int eq = pair.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Invalid strategy parameter: " + pair);
+            }
+            params.put(pair.substring(0, eq).trim(), Double.parseDouble(pair.substring(eq + 1).trim()));
+        }
+        return create(spec.substring(0, colon).trim(), params);
+    }
+
+    static double param(Map<String, Double> params, String key, double defaultValue) {
+        Double v = params.get(key);
+        return v != null ? v : defaultValue;
+    }
+
+    private abstract static class SimpleFactory implements PathSelectionStrategy.Factory {
+        private final String name;
+
+        SimpleFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+}
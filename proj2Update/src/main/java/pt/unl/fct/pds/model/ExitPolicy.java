@@ -0,0 +1,210 @@
+package pt.unl.fct.pds.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled form of a consensus "p" line ("accept 80,443,8000-8100" or
+ * "reject 1-65535"): the accepted ports as sorted, disjoint ranges, so
+ * {@link #allows(int)} is a binary search instead of string handling.
+ *
+ * Most relays share one of a handful of policy summaries, so compiled
+ * policies are cached by their text and relays with the same "p" line get
+ * the same instance.
+ */
+public final class ExitPolicy {
+
+    public static final int MIN_PORT = 1;
+    public static final int MAX_PORT = 65535;
+
+    public static final ExitPolicy ACCEPT_ALL = new ExitPolicy(new int[] { pack(MIN_PORT, MAX_PORT) });
+    public static final ExitPolicy REJECT_ALL = new ExitPolicy(new int[0]);
+
+    // Distinct summaries seen in practice are in the hundreds
+    private static final int MAX_CACHED = 4096;
+    private static final Map<String, ExitPolicy> CACHE = new ConcurrentHashMap<>();
+
+    // start << 16 | end, sorted by start, non-overlapping and non-adjacent
+    private final int[] ranges;
+
+    private ExitPolicy(int[] ranges) {
+        this.ranges = ranges;
+    }
+
+    /**
+     * Compiles a policy summary. A null policy accepts everything and so does
+     * one that cannot be parsed, like the old "reject *:*" string check did;
+     * "reject *:*" itself rejects everything.
+     */
+    public static ExitPolicy compile(String summary) {
+        if (summary == null)
+            return ACCEPT_ALL;
+
+        ExitPolicy cached = CACHE.get(summary);
+        if (cached != null)
+            return cached;
+
+        ExitPolicy policy = parse(summary.trim());
+        if (CACHE.size() < MAX_CACHED)
+            CACHE.put(summary, policy);
+        return policy;
+    }
+
+    private static ExitPolicy parse(String s) {
+        int space = s.indexOf(' ');
+        if (space < 0)
+            return ACCEPT_ALL;
+
+        String action = s.substring(0, space);
+        String list = s.substring(space + 1).trim();
+        boolean accept;
+        if ("accept".equalsIgnoreCase(action)) {
+            accept = true;
+        } else if ("reject".equalsIgnoreCase(action)) {
+            accept = false;
+        } else {
+            return ACCEPT_ALL;
+        }
+
+        if (list.startsWith("*"))
+            return accept ? ACCEPT_ALL : REJECT_ALL;
+
+        int[] listed = parsePortList(list);
+        if (listed == null)
+            return ACCEPT_ALL;
+        int[] ranges = accept ? listed : complement(listed);
+        if (ranges.length == 0)
+            return REJECT_ALL;
+        if (ranges.length == 1 && ranges[0] == ACCEPT_ALL.ranges[0])
+            return ACCEPT_ALL;
+        return new ExitPolicy(ranges);
+    }
+
+    // "20-23,43,80" -> sorted, merged packed ranges, or null if malformed
+    private static int[] parsePortList(String list) {
+        int[] out = new int[8];
+        int count = 0;
+        int pos = 0;
+        while (pos < list.length()) {
+            int comma = list.indexOf(',', pos);
+            if (comma < 0)
+                comma = list.length();
+
+            int dash = list.indexOf('-', pos);
+            int start;
+            int end;
+            try {
+                if (dash >= 0 && dash < comma) {
+                    start = Integer.parseInt(list.substring(pos, dash).trim());
+                    end = Integer.parseInt(list.substring(dash + 1, comma).trim());
+                } else {
+                    start = Integer.parseInt(list.substring(pos, comma).trim());
+                    end = start;
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (start < MIN_PORT || end > MAX_PORT || start > end)
+                return null;
+
+            if (count == out.length)
+                out = Arrays.copyOf(out, count * 2);
+            out[count++] = pack(start, end);
+            pos = comma + 1;
+        }
+
+        // Sort by start: with the sign bit flipped, signed order of the
+        // packed values is unsigned order, i.e. order of start
+        for (int i = 0; i < count; i++) {
+            out[i] ^= Integer.MIN_VALUE;
+        }
+        Arrays.sort(out, 0, count);
+        for (int i = 0; i < count; i++) {
+            out[i] ^= Integer.MIN_VALUE;
+        }
+        int merged = 0;
+        for (int i = 0; i < count; i++) {
+            if (merged > 0 && start(out[i]) <= end(out[merged - 1]) + 1) {
+                int end = Math.max(end(out[merged - 1]), end(out[i]));
+                out[merged - 1] = pack(start(out[merged - 1]), end);
+            } else {
+                out[merged++] = out[i];
+            }
+        }
+        return Arrays.copyOf(out, merged);
+    }
+
+    private static int[] complement(int[] ranges) {
+        int[] out = new int[ranges.length + 1];
+        int count = 0;
+        int next = MIN_PORT;
+        for (int r : ranges) {
+            if (start(r) > next)
+                out[count++] = pack(next, start(r) - 1);
+            next = end(r) + 1;
+        }
+        if (next <= MAX_PORT)
+            out[count++] = pack(next, MAX_PORT);
+        return Arrays.copyOf(out, count);
+    }
+
+    private static int pack(int start, int end) {
+        return start << 16 | end;
+    }
+
+    private static int start(int range) {
+        return range >>> 16;
+    }
+
+    private static int end(int range) {
+        return range & 0xffff;
+    }
+
+    public boolean allows(int port) {
+        int lo = 0;
+        int hi = ranges.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int r = ranges[mid];
+            if (port < start(r)) {
+                hi = mid - 1;
+            } else if (port > end(r)) {
+                lo = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * True if at least one port is accepted, i.e. the relay can be an exit
+     * for something.
+     */
+    public boolean allowsAnyPort() {
+        return ranges.length > 0;
+    }
+
+    public int getRangeCount() {
+        return ranges.length;
+    }
+
+    public int getRangeStart(int index) {
+        return start(ranges[index]);
+    }
+
+    public int getRangeEnd(int index) {
+        return end(ranges[index]);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ExitPolicy && Arrays.equals(ranges, ((ExitPolicy) o).ranges);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ranges);
+    }
+}
@@ -11,10 +11,13 @@ public class Node {
     private int orPort;
     private int dirPort;
     private String[] flags;
+    private int flagBits;
     private String version;
     private int bandwidth;
     private String country;
     private String exitPolicy;
+    private ExitPolicy portPolicy = ExitPolicy.ACCEPT_ALL;
+    private String[] family;
 
     public Node() {
     }
@@ -38,10 +41,12 @@ public class Node {
         this.orPort = orPort;
         this.dirPort = dirPort;
         this.flags = Arrays.copyOf(flags, flags.length);
+        this.flagBits = RelayFlags.mask(flags);
         this.version = version;
         this.bandwidth = bandwidth;
         this.country = country;
         this.exitPolicy = exitPolicy;
+        this.portPolicy = ExitPolicy.compile(exitPolicy);
     }
 
     public String getNickname() {
@@ -72,6 +77,13 @@ public class Node {
         return flags;
     }
 
+    /**
+     * Known flags as a {@link RelayFlags} bit mask.
+     */
+    public int getFlagBits() {
+        return flagBits;
+    }
+
     public String getVersion() {
         return version;
     }
@@ -88,6 +100,21 @@ public class Node {
         return exitPolicy;
     }
 
+    /**
+     * The "p" line compiled to port ranges.
+     */
+    public ExitPolicy getPortPolicy() {
+        return portPolicy;
+    }
+
+    /**
+     * Entries of the relay's "family" line (e.g. "$hexfingerprint"), or
+     * null if it declared none.
+     */
+    public String[] getFamily() {
+        return family;
+    }
+
     public void setNickname(String nickname) {
         this.nickname = nickname;
     }
@@ -114,6 +141,7 @@ public class Node {
 
     public void setFlags(String[] flags) {
         this.flags = Arrays.copyOf(flags, flags.length);
+        this.flagBits = RelayFlags.mask(flags);
     }
 
     public void setVersion(String version) {
@@ -130,11 +158,19 @@ public class Node {
 
     public void setExitPolicy(String exitPolicy) {
         this.exitPolicy = exitPolicy;
+        this.portPolicy = ExitPolicy.compile(exitPolicy);
+    }
+
+    public void setFamily(String[] family) {
+        this.family = family != null ? Arrays.copyOf(family, family.length) : null;
     }
 
     public boolean hasFlag(String flag) {
         if (flags == null)
             return false;
+        int bit = RelayFlags.bit(flag);
+        if (bit != 0)
+            return (flagBits & bit) != 0;
         for (String f : flags) {
             if (f.equalsIgnoreCase(flag)) {
                 return true;
@@ -144,14 +180,14 @@ public class Node {
     }
 
     public boolean isFast() {
-        return hasFlag("Fast");
+        return (flagBits & RelayFlags.FAST) != 0;
     }
 
     public boolean isGuard() {
-        return hasFlag("Guard");
+        return (flagBits & RelayFlags.GUARD) != 0;
     }
 
     public boolean isExit() {
-        return hasFlag("Exit");
+        return (flagBits & RelayFlags.EXIT) != 0;
     }
 }
@@ -0,0 +1,70 @@
+package pt.unl.fct.pds.model;
+
+/**
+ * Bit masks for the relay flags that appear in the consensus "s" lines,
+ * so flag checks are a single AND instead of a string scan.
+ */
+public final class RelayFlags {
+
+    public static final int AUTHORITY = 1;
+    public static final int BAD_EXIT = 1 << 1;
+    public static final int EXIT = 1 << 2;
+    public static final int FAST = 1 << 3;
+    public static final int GUARD = 1 << 4;
+    public static final int HSDIR = 1 << 5;
+    public static final int MIDDLE_ONLY = 1 << 6;
+    public static final int NO_ED_CONSENSUS = 1 << 7;
+    public static final int RUNNING = 1 << 8;
+    public static final int STABLE = 1 << 9;
+    public static final int STALE_DESC = 1 << 10;
+    public static final int SYBIL = 1 << 11;
+    public static final int V2DIR = 1 << 12;
+    public static final int VALID = 1 << 13;
+
+    // Flag i is bit 1 << i; the parsers reuse these String instances
+    private static final String[] NAMES = {
+            "Authority", "BadExit", "Exit", "Fast", "Guard", "HSDir", "MiddleOnly",
+            "NoEdConsensus", "Running", "Stable", "StaleDesc", "Sybil", "V2Dir", "Valid"
+    };
+
+    private RelayFlags() {
+    }
+
+    /**
+     * Number of known flags.
+     */
+    public static int count() {
+        return NAMES.length;
+    }
+
+    /**
+     * Name of known flag i, the one with bit 1 << i.
+     */
+    public static String name(int i) {
+        return NAMES[i];
+    }
+
+    /**
+     * Bit for a flag name (case-insensitive), or 0 if the flag is unknown.
+     */
+    public static int bit(String flag) {
+        if (flag == null)
+            return 0;
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equalsIgnoreCase(flag)) {
+                return 1 << i;
+            }
+        }
+        return 0;
+    }
+
+    public static int mask(String[] flags) {
+        int mask = 0;
+        if (flags == null)
+            return mask;
+        for (String f : flags) {
+            mask |= bit(f);
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,205 @@
+package pt.unl.fct.pds.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CountryCache com tamanho máximo (LRU) e tempo de vida (TTL) por entrada.
+ *
+ * Está dividida em segmentos, cada um um LinkedHashMap por ordem de acesso
+ * protegido pelo seu próprio lock, para que vários threads possam fazer
+ * lookups ao mesmo tempo. Os países são guardados como códigos short
+ * ({@link CountryCodes}).
+ *
+ * O conteúdo pode ser gravado num ficheiro binário e lido no arranque
+ * seguinte, para não voltar a resolver os mesmos relays.
+ */
+public class BoundedCountryCache implements CountryCache {
+
+    private static final int SNAPSHOT_MAGIC = 0x43434348; // "CCCH"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SEGMENTS = 16;
+    private static final short UNKNOWN = CountryCodes.code("XX");
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long ttlMillis;
+
+    /**
+     * @param maxEntries número máximo de IPs guardados
+     * @param ttlMillis  tempo de vida de cada entrada; 0 ou negativo = sem TTL
+     */
+    public BoundedCountryCache(int maxEntries, long ttlMillis) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive.");
+        }
+        int perSegment = Math.max(1, (maxEntries + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+        this.ttlMillis = ttlMillis;
+    }
+
+    private Segment segmentFor(int ip) {
+        // Mistura os bits para os /16 não irem todos parar ao mesmo segmento
+        int h = ip * 0x9E3779B9;
+        return segments[(h >>> 28) & (SEGMENTS - 1)];
+    }
+
+    @Override
+    public String get(int ipv4) {
+        Segment seg = segmentFor(ipv4);
+        synchronized (seg) {
+            CacheEntry e = seg.map.get(ipv4);
+            if (e == null) {
+                return null;
+            }
+            if (isExpired(e, System.currentTimeMillis())) {
+                seg.map.remove(ipv4);
+                return null;
+            }
+            return e.country == CountryCodes.NONE ? "XX" : CountryCodes.name(e.country);
+        }
+    }
+
+    @Override
+    public void put(int ipv4, String country) {
+        put(ipv4, CountryCodes.code(country), System.currentTimeMillis());
+    }
+
+    private void put(int ipv4, short country, long storedAt) {
+        Segment seg = segmentFor(ipv4);
+        synchronized (seg) {
+            seg.map.put(ipv4, new CacheEntry(country, storedAt));
+        }
+    }
+
+    @Override
+    public int size() {
+        int total = 0;
+        for (Segment seg : segments) {
+            synchronized (seg) {
+                total += seg.map.size();
+            }
+        }
+        return total;
+    }
+
+    private boolean isExpired(CacheEntry e, long now) {
+        return ttlMillis > 0 && now - e.storedAt > ttlMillis;
+    }
+
+    /**
+     * Grava as entradas ainda válidas. As entradas "XX" (falhas de lookup)
+     * não são gravadas, para voltarem a ser tentadas no próximo arranque.
+     * Escreve para um ficheiro temporário e só depois substitui o antigo.
+     */
+    public void saveSnapshot(Path file) throws IOException {
+        long now = System.currentTimeMillis();
+        List<long[]> rows = new ArrayList<>();
+        for (Segment seg : segments) {
+            synchronized (seg) {
+                for (Map.Entry<Integer, CacheEntry> me : seg.map.entrySet()) {
+                    CacheEntry e = me.getValue();
+                    if (isExpired(e, now) || e.country == UNKNOWN || e.country == CountryCodes.NONE) {
+                        continue;
+                    }
+                    rows.add(new long[] { me.getKey(), e.country, e.storedAt });
+                }
+            }
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(rows.size());
+            for (long[] row : rows) {
+                out.writeInt((int) row[0]);
+                out.writeShort((short) row[1]);
+                out.writeLong(row[2]);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Carrega um snapshot gravado com {@link #saveSnapshot(Path)}. Entradas
+     * que já passaram do TTL são ignoradas. Devolve quantas ficaram na
+     * cache no fim, sem contar as que o limite de tamanho já removeu.
+     */
+    public int loadSnapshot(Path file) throws IOException {
+        long now = System.currentTimeMillis();
+        int[] loadedIps;
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Ficheiro não é um snapshot da cache de países: " + file);
+            }
+            int version = in.readInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("Versão de snapshot não suportada: " + version);
+            }
+            int count = in.readInt();
+            loadedIps = new int[count];
+            for (int i = 0; i < count; i++) {
+                int ip = in.readInt();
+                short country = in.readShort();
+                long storedAt = in.readLong();
+                if (ttlMillis > 0 && now - storedAt > ttlMillis) {
+                    continue;
+                }
+                put(ip, country, storedAt);
+                loadedIps[loaded++] = ip;
+            }
+        }
+
+        int kept = 0;
+        for (int i = 0; i < loaded; i++) {
+            Segment seg = segmentFor(loadedIps[i]);
+            synchronized (seg) {
+                // containsKey não altera a ordem de acesso
+                if (seg.map.containsKey(loadedIps[i])) {
+                    kept++;
+                }
+            }
+        }
+        return kept;
+    }
+
+    private static final class CacheEntry {
+        final short country;
+        final long storedAt;
+
+        CacheEntry(short country, long storedAt) {
+            this.country = country;
+            this.storedAt = storedAt;
+        }
+    }
+
+    private static final class Segment {
+        final LinkedHashMap<Integer, CacheEntry> map;
+
+        Segment(final int capacity) {
+            this.map = new LinkedHashMap<Integer, CacheEntry>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, CacheEntry> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package pt.unl.fct.pds.utils;
+
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.model.RelayFlags;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+
+/**
+ * Parser do consenso que trabalha diretamente sobre bytes (por exemplo um
+ * MappedByteBuffer de um ficheiro local), sem passar por Reader nem criar
+ * uma String por linha. Só são criadas Strings para os campos que o Node
+ * guarda (nickname, fingerprint, IP, versão, política, família).
+ *
+ * Produz exatamente os mesmos Nodes que {@link ConsensusStreamParser}.
+ */
+public class ConsensusByteParser {
+
+    private static final byte[][] KNOWN_FLAG_BYTES = new byte[RelayFlags.count()][];
+    private static final byte[] BANDWIDTH_KEY_BYTES = ConsensusStreamParser.BANDWIDTH_KEY
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FAMILY_KEYWORD_BYTES = ConsensusStreamParser.FAMILY_KEYWORD
+            .getBytes(StandardCharsets.US_ASCII);
+
+    static {
+        for (int i = 0; i < KNOWN_FLAG_BYTES.length; i++) {
+            KNOWN_FLAG_BYTES[i] = RelayFlags.name(i).getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final int verbosity;
+
+    // Buffer temporário para copiar bytes antes de criar Strings
+    private byte[] scratch = new byte[256];
+    private final int[] starts = new int[9];
+    private final int[] ends = new int[9];
+
+    public ConsensusByteParser(int verbosity) {
+        this.verbosity = verbosity;
+    }
+
+    /**
+     * Faz parse dos bytes entre position() e limit() e entrega cada node ao
+     * consumer. Não altera a posição do buffer. Devolve o número de nodes.
+     */
+    public int parse(ByteBuffer buf, Consumer<Node> consumer) {
+        int pos = buf.position();
+        int limit = buf.limit();
+        int count = 0;
+        int lines = 0;
+        Node current = null;
+
+        while (pos < limit) {
+            int eol = pos;
+            while (eol < limit && buf.get(eol) != '\n') {
+                eol++;
+            }
+            int end = eol;
+            if (end > pos && buf.get(end - 1) == '\r') {
+                end--;
+            }
+            lines++;
+
+            if (verbosity >= ConsensusParser.VERBOSITY_DEBUG) {
+                System.out.println("Lendo linha: " + string(buf, pos, end));
+            }
+
+            if (startsWith(buf, pos, end, FAMILY_KEYWORD_BYTES)) {
+                if (current != null) {
+                    current.setFamily(parseFamily(buf, pos + FAMILY_KEYWORD_BYTES.length, end));
+                }
+            } else if (end - pos >= 2 && buf.get(pos + 1) == ' ') {
+                switch (buf.get(pos)) {
+                    case 'r':
+                        if (current != null) {
+                            emit(current, consumer);
+                            count++;
+                        }
+                        current = parseRouterLine(buf, pos, end);
+                        break;
+                    case 's':
+                        if (current != null) {
+                            current.setFlags(parseFlags(buf, pos + 2, end));
+                        }
+                        break;
+                    case 'v':
+                        if (current != null) {
+                            current.setVersion(string(buf, pos + 2, end));
+                        }
+                        break;
+                    case 'w':
+                        if (current != null) {
+                            parseBandwidth(buf, pos + 2, end, current);
+                        }
+                        break;
+                    case 'p':
+                        if (current != null) {
+                            current.setExitPolicy(string(buf, pos + 2, end));
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            pos = eol + 1;
+        }
+
+        if (current != null) {
+            emit(current, consumer);
+            count++;
+        }
+
+        if (verbosity >= ConsensusParser.VERBOSITY_INFO) {
+            System.out.println("Leitura concluída! (" + lines + " linhas, " + count + " nodes)");
+        }
+        return count;
+    }
+
+    private void emit(Node n, Consumer<Node> consumer) {
+        n.setCountry("XX");
+        if (verbosity >= ConsensusParser.VERBOSITY_DEBUG) {
+            System.out.println("Node encontrado: " + n.getNickname() + " (" + n.getIpAddress()
+                    + ", bw=" + n.getBandwidth() + ")");
+        }
+        consumer.accept(n);
+    }
+
+    private Node parseRouterLine(ByteBuffer buf, int start, int end) {
+        int fields = tokenize(buf, start, end);
+        if (fields < 9) {
+            if (verbosity >= ConsensusParser.VERBOSITY_INFO) {
+                System.out.println("Linha r mal formada, a ignorar: " + string(buf, start, end));
+            }
+            return null;
+        }
+
+        Node n = new Node();
+        n.setNickname(string(buf, starts[1], ends[1]));
+        n.setFingerprint(string(buf, starts[2], ends[2]));
+
+        LocalDateTime pubTime = parseTimestamp(buf, starts[4], ends[4], starts[5], ends[5]);
+        if (pubTime != null) {
+            n.setTimePublished(pubTime);
+        } else if (verbosity >= ConsensusParser.VERBOSITY_INFO) {
+            System.out.println("Falha a fazer parse da data de publicação: "
+                    + string(buf, starts[4], ends[5]));
+        }
+
+        n.setIpAddress(string(buf, starts[6], ends[6]));
+        n.setOrPort(parseInt(buf, starts[7], ends[7]));
+        n.setDirPort(parseInt(buf, starts[8], ends[8]));
+        return n;
+    }
+
+    private int tokenize(ByteBuffer buf, int start, int end) {
+        int count = 0;
+        int pos = start;
+        while (count < starts.length && pos < end) {
+            while (pos < end && buf.get(pos) == ' ') {
+                pos++;
+            }
+            if (pos >= end) {
+                break;
+            }
+            int tokEnd = pos;
+            while (tokEnd < end && buf.get(tokEnd) != ' ') {
+                tokEnd++;
+            }
+            starts[count] = pos;
+            ends[count] = tokEnd;
+            count++;
+            pos = tokEnd + 1;
+        }
+        return count;
+    }
+
+    private static int countTokens(ByteBuffer buf, int start, int end) {
+        int count = 0;
+        boolean inToken = false;
+        for (int i = start; i < end; i++) {
+            boolean space = buf.get(i) == ' ';
+            if (!space && !inToken) {
+                count++;
+            }
+            inToken = !space;
+        }
+        return count;
+    }
+
+    private String[] parseFlags(ByteBuffer buf, int start, int end) {
+        int count = countTokens(buf, start, end);
+        String[] flags = new String[count];
+        int idx = 0;
+        int pos = start;
+        while (idx < count) {
+            while (buf.get(pos) == ' ') {
+                pos++;
+            }
+            int tokEnd = pos;
+            while (tokEnd < end && buf.get(tokEnd) != ' ') {
+                tokEnd++;
+            }
+            flags[idx++] = flagName(buf, pos, tokEnd);
+            pos = tokEnd + 1;
+        }
+        return flags;
+    }
+
+    // Linha "family $FP1 $FP2~nick nick3": um membro por token, como no
+    // ConsensusStreamParser
+    private String[] parseFamily(ByteBuffer buf, int start, int end) {
+        int count = countTokens(buf, start, end);
+        String[] members = new String[count];
+        int idx = 0;
+        int pos = start;
+        while (idx < count) {
+            while (buf.get(pos) == ' ') {
+                pos++;
+            }
+            int tokEnd = pos;
+            while (tokEnd < end && buf.get(tokEnd) != ' ') {
+                tokEnd++;
+            }
+            members[idx++] = string(buf, pos, tokEnd);
+            pos = tokEnd + 1;
+        }
+        return members;
+    }
+
+    private String flagName(ByteBuffer buf, int start, int end) {
+        for (int f = 0; f < KNOWN_FLAG_BYTES.length; f++) {
+            if (regionEquals(buf, start, end, KNOWN_FLAG_BYTES[f])) {
+                return RelayFlags.name(f);
+            }
+        }
+        return string(buf, start, end);
+    }
+
+    private static void parseBandwidth(ByteBuffer buf, int start, int end, Node n) {
+        // Linha típica: "w Bandwidth=12345 Unmeasured=1"
+        int keyLen = BANDWIDTH_KEY_BYTES.length;
+        for (int i = start; i + keyLen <= end; i++) {
+            if (regionEquals(buf, i, i + keyLen, BANDWIDTH_KEY_BYTES)) {
+                int valStart = i + keyLen;
+                int valEnd = valStart;
+                while (valEnd < end && buf.get(valEnd) != ' ') {
+                    valEnd++;
+                }
+                n.setBandwidth(parseInt(buf, valStart, valEnd));
+                return;
+            }
+        }
+    }
+
+    private static boolean startsWith(ByteBuffer buf, int start, int end, byte[] prefix) {
+        return end - start >= prefix.length && regionEquals(buf, start, start + prefix.length, prefix);
+    }
+
+    private static boolean regionEquals(ByteBuffer buf, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (buf.get(start + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int parseInt(ByteBuffer buf, int start, int end) {
+        if (start >= end) {
+            throw new NumberFormatException("Número vazio");
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int d = buf.get(i) - '0';
+            if (d < 0 || d > 9) {
+                throw new NumberFormatException("Número inválido na posição " + i);
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    private static LocalDateTime parseTimestamp(ByteBuffer buf, int dateStart, int dateEnd,
+            int timeStart, int timeEnd) {
+        if (dateEnd - dateStart != 10 || timeEnd - timeStart != 8
+                || buf.get(dateStart + 4) != '-' || buf.get(dateStart + 7) != '-'
+                || buf.get(timeStart + 2) != ':' || buf.get(timeStart + 5) != ':') {
+            return null;
+        }
+        try {
+            return LocalDateTime.of(
+                    parseInt(buf, dateStart, dateStart + 4),
+                    parseInt(buf, dateStart + 5, dateStart + 7),
+                    parseInt(buf, dateStart + 8, dateStart + 10),
+                    parseInt(buf, timeStart, timeStart + 2),
+                    parseInt(buf, timeStart + 3, timeStart + 5),
+                    parseInt(buf, timeStart + 6, timeStart + 8));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private String string(ByteBuffer buf, int start, int end) {
+        int len = end - start;
+        if (len > scratch.length) {
+            scratch = new byte[Math.max(len, scratch.length * 2)];
+        }
+        for (int i = 0; i < len; i++) {
+            scratch[i] = buf.get(start + i);
+        }
+        return new String(scratch, 0, len, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,153 @@
+package pt.unl.fct.pds.utils;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Acesso a consensos guardados localmente (por exemplo arquivos do
+ * CollecTor já extraídos), para correr simulações sem rede.
+ *
+ * Os ficheiros são lidos com FileChannel.map; os comprimidos com gzip são
+ * descomprimidos diretamente a partir do mapeamento para um byte[]. Os
+ * arquivos tar/xz do CollecTor não são suportados e têm de ser extraídos
+ * antes.
+ */
+public final class ConsensusFiles {
+
+    // Bytes lidos do início de cada ficheiro para reconhecer um consenso
+    private static final int HEADER_PROBE = 256;
+    private static final String VERSION_LINE = "network-status-version 3";
+
+    private ConsensusFiles() {
+    }
+
+    /**
+     * Devolve o conteúdo do ficheiro pronto a ser passado ao
+     * {@link ConsensusByteParser}: o próprio mapeamento se o ficheiro for
+     * texto, ou um buffer com os bytes descomprimidos se for gzip.
+     */
+    public static ByteBuffer load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Ficheiro de consenso demasiado grande: " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (isGzip(mapped)) {
+                return inflate(mapped, (int) size);
+            }
+            return mapped;
+        }
+    }
+
+    /**
+     * Lista os ficheiros de consenso de uma diretoria (e subdiretorias),
+     * ordenados pelo nome. Os nomes do CollecTor começam pelo timestamp
+     * ("2025-11-17-21-00-00-consensus"), por isso a ordem é cronológica.
+     * Ficheiros escondidos e os que não começam por um cabeçalho de consenso
+     * (checksums, READMEs, snapshots binários...) são ignorados.
+     */
+    public static List<Path> listConsensusFiles(Path dir) throws IOException {
+        final List<Path> candidates = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().startsWith("."))
+                    .forEach(candidates::add);
+        }
+        List<Path> files = new ArrayList<>(candidates.size());
+        for (Path p : candidates) {
+            if (isConsensusFile(p)) {
+                files.add(p);
+            }
+        }
+        Collections.sort(files, (a, b) -> {
+            int c = a.getFileName().toString().compareTo(b.getFileName().toString());
+            return c != 0 ? c : a.compareTo(b);
+        });
+        return files;
+    }
+
+    /**
+     * True se o ficheiro, em texto ou gzip, começa por
+     * "network-status-version 3", eventualmente depois da linha "@type" que
+     * o CollecTor acrescenta.
+     */
+    public static boolean isConsensusFile(Path file) throws IOException {
+        byte[] head = new byte[HEADER_PROBE];
+        int n = 0;
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(file))) {
+            raw.mark(2);
+            boolean gzip = raw.read() == 0x1f && raw.read() == 0x8b;
+            raw.reset();
+            InputStream in = gzip ? new GZIPInputStream(raw) : raw;
+            int r;
+            while (n < head.length && (r = in.read(head, n, head.length - n)) != -1) {
+                n += r;
+            }
+        } catch (ZipException | EOFException e) {
+            // gzip inválido ou truncado
+            return false;
+        }
+
+        String text = new String(head, 0, n, StandardCharsets.ISO_8859_1);
+        if (text.startsWith("@type ")) {
+            int eol = text.indexOf('\n');
+            text = eol >= 0 ? text.substring(eol + 1) : "";
+        }
+        return text.startsWith(VERSION_LINE);
+    }
+
+    private static boolean isGzip(ByteBuffer buf) {
+        return buf.limit() >= 2 && (buf.get(0) & 0xff) == 0x1f && (buf.get(1) & 0xff) == 0x8b;
+    }
+
+    private static ByteBuffer inflate(final ByteBuffer compressed, int compressedSize) throws IOException {
+        InputStream in = new InputStream() {
+            @Override
+            public int read() {
+                return compressed.hasRemaining() ? (compressed.get() & 0xff) : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!compressed.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(len, compressed.remaining());
+                compressed.get(b, off, n);
+                return n;
+            }
+        };
+
+        // Os consensos costumam comprimir ~4x
+        byte[] out = new byte[Math.max(1024, compressedSize * 4)];
+        int size = 0;
+        try (GZIPInputStream gz = new GZIPInputStream(in, 64 * 1024)) {
+            int n;
+            while ((n = gz.read(out, size, out.length - size)) != -1) {
+                size += n;
+                if (size == out.length) {
+                    byte[] bigger = new byte[out.length * 2];
+                    System.arraycopy(out, 0, bigger, 0, size);
+                    out = bigger;
+                }
+            }
+        }
+        return ByteBuffer.wrap(out, 0, size);
+    }
+}
@@ -4,27 +4,67 @@ import pt.unl.fct.pds.model.Node;
 import java.util.ArrayList;
 import java.io.*;
 import java.net.*;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public class ConsensusParser {
 
     // Link do consenso
     private static final String CONSENSUS_URL = "http://217.196.147.77/tor/status-vote/current/consensus";
 
-    // Cache para não fazermos pedidos repetidos para o mesmo IP
-    private final Map<String, String> countryCache = new HashMap<>();
+    // Tamanho e TTL por omissão da cache de países
+    public static final int DEFAULT_CACHE_SIZE = 65536;
+    public static final long DEFAULT_CACHE_TTL_MILLIS = 7L * 24 * 60 * 60 * 1000;
 
-    private static final DateTimeFormatter CONSENSUS_TIME_FORMATTER = DateTimeFormatter
-            .ofPattern("yyyy-MM-dd HH:mm:ss");
+    // Cache para não fazermos pedidos repetidos para o mesmo IP (thread-safe)
+    private CountryCache countryCache = new BoundedCountryCache(DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL_MILLIS);
+
+    // Níveis de log: QUIET não imprime nada, INFO só o resumo, DEBUG cada linha
+    public static final int VERBOSITY_QUIET = 0;
+    public static final int VERBOSITY_INFO = 1;
+    public static final int VERBOSITY_DEBUG = 2;
+
+    private int verbosity = VERBOSITY_INFO;
+
+    // Base de dados GeoIP local (opcional)
+    private GeoIpDatabase geoIp;
 
     // Construtor vazio
     public ConsensusParser() {
     }
 
+    public ConsensusParser(int verbosity) {
+        this.verbosity = verbosity;
+    }
+
+    public int getVerbosity() {
+        return verbosity;
+    }
+
+    public void setVerbosity(int verbosity) {
+        this.verbosity = verbosity;
+    }
+
+    public CountryCache getCountryCache() {
+        return countryCache;
+    }
+
+    public void setCountryCache(CountryCache countryCache) {
+        this.countryCache = countryCache;
+    }
+
+    public GeoIpDatabase getGeoIpDatabase() {
+        return geoIp;
+    }
+
+    public void setGeoIpDatabase(GeoIpDatabase geoIp) {
+        this.geoIp = geoIp;
+    }
+
     /**
      * Faz lookup do país de um IP usando o serviço gratuito ipinfo.io.
      * Exemplo: https://ipinfo.io/8.8.8.8/country -> "US\n"
@@ -32,16 +72,29 @@ public class ConsensusParser {
      * NOTA IMPORTANTE:
      * - Este método faz chamadas HTTP, por isso é relativamente lento.
      * - Usamos um cache (countryCache) para não repetir chamadas para o mesmo IP.
+     *   A cache é thread-safe, por isso este método pode ser chamado em paralelo.
      * - Em caso de erro (timeout, rate limit, etc.), devolvemos "XX".
+     * - Se houver uma GeoIpDatabase configurada, é usada em vez do ipinfo.io
+     *   (e IPs que não estejam na base de dados ficam "XX").
      */
     public String lookupCountry(String ip) {
         if (ip == null || ip.isEmpty()) {
             return "XX";
         }
 
-        // Verifica cache primeiro
-        if (countryCache.containsKey(ip)) {
-            return countryCache.get(ip);
+        // Com base de dados local não há chamadas HTTP nenhumas
+        if (geoIp != null) {
+            String local = geoIp.lookupCountry(ip);
+            return local != null ? local : "XX";
+        }
+
+        // Verifica cache primeiro (só IPv4, guardado como inteiro)
+        long packed = IpAddresses.parseIpv4(ip);
+        if (packed >= 0) {
+            String cached = countryCache.get((int) packed);
+            if (cached != null) {
+                return cached;
+            }
         }
 
         String country = "XX"; // valor default
@@ -76,115 +129,19 @@ public class ConsensusParser {
             }
         }
 
-        countryCache.put(ip, country);
+        if (packed >= 0) {
+            countryCache.put((int) packed, country);
+        }
         return country;
     }
 
     // Método para ler o consenso e retornar nodes
     public Node[] parseConsensus() {
         // Lista onde vamos guardar os nodes
-        ArrayList<Node> nodeList = new ArrayList<>();
+        final ArrayList<Node> nodeList = new ArrayList<>();
 
         try {
-            // Faz a conexão HTTP para baixar o consenso
-            System.out.println("A começar download do consenso...");
-            URL url = new URL(CONSENSUS_URL);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-
-            // Lê o conteúdo do arquivo de consenso
-            BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-            String line;
-            Node current = null;
-
-            // Lê cada linha do consenso
-            while ((line = br.readLine()) != null) {
-                // Imprime a linha para ver o que está a ser lido
-                System.out.println("Lendo linha: " + line);
-
-                // Se a linha começar com "r ", é o início de um novo node
-                if (line.startsWith("r ")) {
-                    // Se já tivermos um node, guarda ele na lista
-                    if (current != null) {
-                        current.setCountry("XX");
-                        System.out.println("Node encontrado, adicionando à lista...");
-                        nodeList.add(current);
-                    }
-
-                    // Cria um novo node
-                    current = new Node();
-                    System.out.println("Criando novo node...");
-
-                    // Divide a linha para pegar as partes
-                    String[] parts = line.split(" ");
-                    System.out.println("Partes da linha (nickname, fingerprint, etc): " + String.join(", ", parts));
-
-                    // Preenche os dados do node com as partes extraídas
-                    current.setNickname(parts[1]);
-                    current.setFingerprint(parts[2]);
-
-                    // Publicação -> converte para LocalDateTime
-                    String pubTimeRaw = parts[4] + " " + parts[5];
-                    try {
-                        LocalDateTime pubTime = LocalDateTime.parse(pubTimeRaw, CONSENSUS_TIME_FORMATTER);
-                        current.setTimePublished(pubTime);
-                        System.out.println("Data de publicação formatada: " + pubTime);
-                    } catch (Exception e) {
-                        System.out.println("Falha a fazer parse da data de publicação: " + pubTimeRaw);
-                    }
-
-                    // Preenche IP e portas
-                    current.setIpAddress(parts[6]);
-                    current.setOrPort(Integer.parseInt(parts[7]));
-                    current.setDirPort(Integer.parseInt(parts[8]));
-                    System.out.println("IP: " + parts[6] + ", OR Port: " + parts[7] + ", DIR Port: " + parts[8]);
-                }
-
-                // "s " -> flags
-                else if (line.startsWith("s ") && current != null) {
-                    String[] flags = line.substring(2).split(" ");
-                    current.setFlags(flags);
-                    System.out.println("Flags encontradas: " + String.join(", ", flags));
-                }
-
-                // "v " -> versão
-                else if (line.startsWith("v ") && current != null) {
-                    current.setVersion(line.substring(2));
-                    System.out.println("Versão: " + line.substring(2));
-                }
-
-                // "w " -> largura de banda (bandwidth)
-                else if (line.startsWith("w ") && current != null) {
-                    // Linha típica: "w Bandwidth=12345 Unmeasured=1"
-                    String[] parts = line.substring(2).trim().split(" ");
-                    for (String part : parts) {
-                        if (part.startsWith("Bandwidth=")) {
-                            String bwVal = part.substring("Bandwidth=".length());
-                            current.setBandwidth(Integer.parseInt(bwVal));
-                            System.out.println("Bandwidth: " + bwVal);
-                            break;
-                        }
-                    }
-                }
-
-                // "p " -> exit policy
-                else if (line.startsWith("p ") && current != null) {
-                    current.setExitPolicy(line.substring(2));
-                    System.out.println("Exit Policy: " + line.substring(2));
-                }
-            }
-
-            // Após ler todas as linhas, adiciona o último node
-            if (current != null) {
-                current.setCountry("XX");
-                System.out.println("Último node encontrado, adicionando à lista...");
-                nodeList.add(current);
-            }
-
-            // Fecha o BufferedReader
-            br.close();
-            System.out.println("Leitura concluída!");
-
+            parseConsensus(nodeList::add);
         } catch (Exception e) {
             System.out.println("Erro ao processar o consenso.");
             e.printStackTrace();
@@ -199,10 +156,80 @@ public class ConsensusParser {
         }
 
         // Retorna a lista de nodes como um array
-        System.out.println("Retornando " + nodeList.size() + " nodes.");
+        if (verbosity >= VERBOSITY_INFO) {
+            System.out.println("Retornando " + nodeList.size() + " nodes.");
+        }
+        return nodeList.toArray(new Node[0]);
+    }
+
+    /**
+     * Versão em streaming: cada node é entregue ao consumer assim que a sua
+     * entrada no consenso termina, enquanto o resto do documento ainda está
+     * a ser descarregado. Devolve o número de nodes entregues.
+     */
+    public int parseConsensus(Consumer<Node> consumer) throws IOException {
+        int count = 0;
+        try (ConsensusStreamParser stream = streamConsensus()) {
+            while (stream.hasNext()) {
+                consumer.accept(stream.next());
+                count++;
+            }
+            if (verbosity >= VERBOSITY_INFO) {
+                System.out.println("Leitura concluída! (" + stream.getLineCount() + " linhas, "
+                        + count + " nodes)");
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return count;
+    }
+
+    /**
+     * Abre a ligação ao consenso e devolve um Iterator de nodes. Quem chama
+     * tem de fazer close() no fim.
+     */
+    public ConsensusStreamParser streamConsensus() throws IOException {
+        // Faz a conexão HTTP para baixar o consenso
+        if (verbosity >= VERBOSITY_INFO) {
+            System.out.println("A começar download do consenso...");
+        }
+        URL url = new URL(CONSENSUS_URL);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+
+        BufferedReader br = new BufferedReader(
+                new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+        return new ConsensusStreamParser(br, verbosity);
+    }
+
+    /**
+     * Lê um consenso guardado localmente (texto ou .gz), sem rede.
+     */
+    public Node[] parseConsensusFile(Path file) throws IOException {
+        final ArrayList<Node> nodeList = new ArrayList<>();
+        parseConsensusFile(file, nodeList::add);
         return nodeList.toArray(new Node[0]);
     }
 
+    public int parseConsensusFile(Path file, Consumer<Node> consumer) throws IOException {
+        if (verbosity >= VERBOSITY_INFO) {
+            System.out.println("A ler consenso local: " + file);
+        }
+        return new ConsensusByteParser(verbosity).parse(ConsensusFiles.load(file), consumer);
+    }
+
+    /**
+     * Lê todos os consensos de uma diretoria por ordem cronológica e entrega
+     * cada um ao consumer. Devolve o número de ficheiros lidos.
+     */
+    public int parseConsensusDirectory(Path dir, BiConsumer<Path, Node[]> consumer) throws IOException {
+        List<Path> files = ConsensusFiles.listConsensusFiles(dir);
+        for (Path file : files) {
+            consumer.accept(file, parseConsensusFile(file));
+        }
+        return files.size();
+    }
+
     // Método main para testar o código
     public static void main(String[] args) {
         // Cria a instância do parser
@@ -0,0 +1,131 @@
+package pt.unl.fct.pds.utils;
+
+import pt.unl.fct.pds.model.Node;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Lê uma sequência de consensos por ordem, fazendo o parse dos próximos em
+ * threads de fundo enquanto o atual é usado.
+ *
+ * Nunca há mais de "depth" consensos lidos (ou a ser lidos) à frente do
+ * que foi entregue, por isso a memória não depende do número de ficheiros.
+ * Os consensos são entregues pela ordem da lista, qualquer que seja a
+ * ordem em que os parses terminam.
+ */
+public final class ConsensusPrefetcher implements Closeable {
+
+    /**
+     * Um ficheiro e os nodes lidos dele.
+     */
+    public static final class Entry {
+        private final Path file;
+        private final Node[] nodes;
+
+        Entry(Path file, Node[] nodes) {
+            this.file = file;
+            this.nodes = nodes;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public Node[] getNodes() {
+            return nodes;
+        }
+    }
+
+    private final ConsensusParser parser;
+    private final List<Path> files;
+    private final int depth;
+    private final ExecutorService executor;
+    private final ArrayDeque<Future<Entry>> pending = new ArrayDeque<>();
+    private int nextToSubmit;
+
+    /**
+     * @param depth   máximo de consensos lidos à frente
+     * @param threads threads de parse (no máximo depth são usadas)
+     */
+    public ConsensusPrefetcher(ConsensusParser parser, List<Path> files, int depth, int threads) {
+        if (depth <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("depth and threads must be positive.");
+        }
+        this.parser = parser;
+        this.files = files;
+        this.depth = depth;
+        this.executor = Executors.newFixedThreadPool(Math.min(depth, threads), r -> {
+            Thread t = new Thread(r, "consensus-prefetch");
+            t.setDaemon(true);
+            return t;
+        });
+        fill();
+    }
+
+    public boolean hasNext() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Próximo consenso, esperando pelo seu parse se ainda não acabou. Um
+     * erro de leitura é lançado aqui, pela ordem dos ficheiros.
+     */
+    public Entry next() throws IOException, InterruptedException {
+        Future<Entry> f = pending.poll();
+        if (f == null) {
+            throw new NoSuchElementException();
+        }
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) t).getCause();
+            }
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw new IllegalStateException(t);
+        } finally {
+            fill();
+        }
+    }
+
+    /**
+     * Cancela os parses pendentes.
+     */
+    @Override
+    public void close() {
+        for (Future<Entry> f : pending) {
+            f.cancel(true);
+        }
+        pending.clear();
+        executor.shutdownNow();
+    }
+
+    private void fill() {
+        while (pending.size() < depth && nextToSubmit < files.size()) {
+            final Path file = files.get(nextToSubmit++);
+            pending.add(executor.submit(() -> {
+                try {
+                    return new Entry(file, parser.parseConsensusFile(file));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+    }
+}
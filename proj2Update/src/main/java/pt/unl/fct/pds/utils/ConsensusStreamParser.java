@@ -0,0 +1,332 @@
+package pt.unl.fct.pds.utils;
+
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.model.RelayFlags;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Parser incremental do consenso: devolve um Node de cada vez, à medida que
+ * as linhas vão chegando do Reader, sem esperar pelo fim do documento.
+ *
+ * As linhas "r", "s", "v", "w" e "p" são partidas à mão (indexOf em vez de
+ * String.split com regex) e o log por linha só é feito com
+ * {@link ConsensusParser#VERBOSITY_DEBUG}.
+ *
+ * O consenso não traz famílias, mas uma linha "family" (como nos
+ * descritores) a seguir à "r" de um node também é aceite.
+ */
+public class ConsensusStreamParser implements Iterator<Node>, Closeable {
+
+    static final String BANDWIDTH_KEY = "Bandwidth=";
+
+    static final String FAMILY_KEYWORD = "family ";
+
+    private final BufferedReader reader;
+    private final int verbosity;
+
+    // Posições dos tokens da linha "r", reaproveitadas entre linhas
+    private final int[] starts = new int[9];
+    private final int[] ends = new int[9];
+
+    // Node que ainda está a ser preenchido (ainda podem vir linhas s/v/w/p)
+    private Node current;
+    // Node já completo, pronto a ser devolvido por next()
+    private Node ready;
+    private boolean finished;
+    private int lineCount;
+
+    public ConsensusStreamParser(BufferedReader reader, int verbosity) {
+        this.reader = reader;
+        this.verbosity = verbosity;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (ready == null && !finished) {
+            advance();
+        }
+        return ready != null;
+    }
+
+    @Override
+    public Node next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Node n = ready;
+        ready = null;
+        return n;
+    }
+
+    /**
+     * Número de linhas lidas até agora (útil para logs de progresso).
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void advance() {
+        String line;
+        try {
+            line = reader.readLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (line == null) {
+            finished = true;
+            if (current != null) {
+                emit(current);
+                current = null;
+            }
+            return;
+        }
+
+        lineCount++;
+        if (verbosity >= ConsensusParser.VERBOSITY_DEBUG) {
+            System.out.println("Lendo linha: " + line);
+        }
+        handleLine(line);
+    }
+
+    private void handleLine(String line) {
+        if (line.startsWith(FAMILY_KEYWORD)) {
+            if (current != null) {
+                current.setFamily(parseFamily(line));
+            }
+            return;
+        }
+        if (line.length() < 2 || line.charAt(1) != ' ') {
+            return;
+        }
+
+        switch (line.charAt(0)) {
+            case 'r':
+                // Novo node: o anterior fica completo
+                if (current != null) {
+                    emit(current);
+                }
+                current = parseRouterLine(line);
+                break;
+            case 's':
+                if (current != null) {
+                    current.setFlags(parseFlags(line));
+                }
+                break;
+            case 'v':
+                if (current != null) {
+                    current.setVersion(line.substring(2));
+                }
+                break;
+            case 'w':
+                if (current != null) {
+                    parseBandwidth(line, current);
+                }
+                break;
+            case 'p':
+                if (current != null) {
+                    current.setExitPolicy(line.substring(2));
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void emit(Node n) {
+        n.setCountry("XX");
+        if (verbosity >= ConsensusParser.VERBOSITY_DEBUG) {
+            System.out.println("Node encontrado: " + n.getNickname() + " (" + n.getIpAddress()
+                    + ", bw=" + n.getBandwidth() + ")");
+        }
+        ready = n;
+    }
+
+    /**
+     * "r nickname identity digest yyyy-mm-dd hh:mm:ss ip orport dirport"
+     */
+    private Node parseRouterLine(String line) {
+        int fields = tokenize(line, starts, ends);
+        if (fields < 9) {
+            if (verbosity >= ConsensusParser.VERBOSITY_INFO) {
+                System.out.println("Linha r mal formada, a ignorar: " + line);
+            }
+            return null;
+        }
+
+        Node n = new Node();
+        n.setNickname(line.substring(starts[1], ends[1]));
+        n.setFingerprint(line.substring(starts[2], ends[2]));
+
+        LocalDateTime pubTime = parseTimestamp(line, starts[4], starts[5]);
+        if (pubTime != null) {
+            n.setTimePublished(pubTime);
+        } else if (verbosity >= ConsensusParser.VERBOSITY_INFO) {
+            System.out.println("Falha a fazer parse da data de publicação: "
+                    + line.substring(starts[4], ends[5]));
+        }
+
+        n.setIpAddress(line.substring(starts[6], ends[6]));
+        n.setOrPort(parseInt(line, starts[7], ends[7]));
+        n.setDirPort(parseInt(line, starts[8], ends[8]));
+        return n;
+    }
+
+    /**
+     * Preenche starts/ends com as posições dos primeiros tokens separados por
+     * espaço e devolve quantos foram encontrados (no máximo starts.length).
+     */
+    static int tokenize(String line, int[] starts, int[] ends) {
+        int count = 0;
+        int pos = 0;
+        int len = line.length();
+        while (count < starts.length && pos < len) {
+            while (pos < len && line.charAt(pos) == ' ') {
+                pos++;
+            }
+            if (pos >= len) {
+                break;
+            }
+            int end = line.indexOf(' ', pos);
+            if (end < 0) {
+                end = len;
+            }
+            starts[count] = pos;
+            ends[count] = end;
+            count++;
+            pos = end + 1;
+        }
+        return count;
+    }
+
+    private static String[] parseFlags(String line) {
+        int len = line.length();
+        int count = 0;
+        boolean inToken = false;
+        for (int i = 2; i < len; i++) {
+            boolean space = line.charAt(i) == ' ';
+            if (!space && !inToken) {
+                count++;
+            }
+            inToken = !space;
+        }
+
+        String[] flags = new String[count];
+        int idx = 0;
+        int pos = 2;
+        while (idx < count) {
+            while (line.charAt(pos) == ' ') {
+                pos++;
+            }
+            int end = line.indexOf(' ', pos);
+            if (end < 0) {
+                end = len;
+            }
+            flags[idx++] = flagName(line, pos, end);
+            pos = end + 1;
+        }
+        return flags;
+    }
+
+    /**
+     * "family $fingerprint1 $fingerprint2 ..." (ou nicknames).
+     */
+    private static String[] parseFamily(String line) {
+        String[] members = new String[4];
+        int count = 0;
+        int pos = FAMILY_KEYWORD.length();
+        int len = line.length();
+        while (pos < len) {
+            if (line.charAt(pos) == ' ') {
+                pos++;
+                continue;
+            }
+            int end = line.indexOf(' ', pos);
+            if (end < 0) {
+                end = len;
+            }
+            if (count == members.length) {
+                members = Arrays.copyOf(members, count * 2);
+            }
+            members[count++] = line.substring(pos, end);
+            pos = end + 1;
+        }
+        return Arrays.copyOf(members, count);
+    }
+
+    private static String flagName(String line, int start, int end) {
+        // Flags conhecidas: reaproveita sempre as mesmas Strings
+        int len = end - start;
+        for (int i = 0; i < RelayFlags.count(); i++) {
+            String f = RelayFlags.name(i);
+            if (f.length() == len && line.regionMatches(start, f, 0, len)) {
+                return f;
+            }
+        }
+        return line.substring(start, end);
+    }
+
+    private static void parseBandwidth(String line, Node n) {
+        // Linha típica: "w Bandwidth=12345 Unmeasured=1"
+        int idx = line.indexOf(BANDWIDTH_KEY, 2);
+        if (idx < 0) {
+            return;
+        }
+        int start = idx + BANDWIDTH_KEY.length();
+        int end = start;
+        while (end < line.length() && line.charAt(end) != ' ') {
+            end++;
+        }
+        n.setBandwidth(parseInt(line, start, end));
+    }
+
+    static int parseInt(String s, int start, int end) {
+        if (start >= end) {
+            throw new NumberFormatException("Número vazio");
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                throw new NumberFormatException("Número inválido: " + s.substring(start, end));
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    /**
+     * "yyyy-MM-dd" em dateStart e "HH:mm:ss" em timeStart, sem DateTimeFormatter.
+     */
+    private static LocalDateTime parseTimestamp(String s, int dateStart, int timeStart) {
+        if (dateStart + 10 > s.length() || timeStart + 8 > s.length()
+                || s.charAt(dateStart + 4) != '-' || s.charAt(dateStart + 7) != '-'
+                || s.charAt(timeStart + 2) != ':' || s.charAt(timeStart + 5) != ':') {
+            return null;
+        }
+        try {
+            return LocalDateTime.of(
+                    parseInt(s, dateStart, dateStart + 4),
+                    parseInt(s, dateStart + 5, dateStart + 7),
+                    parseInt(s, dateStart + 8, dateStart + 10),
+                    parseInt(s, timeStart, timeStart + 2),
+                    parseInt(s, timeStart + 3, timeStart + 5),
+                    parseInt(s, timeStart + 6, timeStart + 8));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package pt.unl.fct.pds.utils;
+
+import pt.unl.fct.pds.model.Node;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Anota o país de todos os nodes de uma vez, logo a seguir ao parse do
+ * consenso, em vez de o fazer node a node durante as experiências.
+ *
+ * Os IPs repetidos são resolvidos uma só vez, em paralelo (com virtual
+ * threads quando a JVM as tem, senão com uma pool fixa), com um limite de
+ * pedidos simultâneos e um prazo total. O que não ficar resolvido dentro do
+ * prazo fica "XX".
+ */
+public class CountryAnnotator {
+
+    private final ConsensusParser parser;
+    private final int maxConcurrency;
+    private final long timeoutMillis;
+
+    public CountryAnnotator(ConsensusParser parser, int maxConcurrency, long timeoutMillis) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be positive.");
+        }
+        this.parser = parser;
+        this.maxConcurrency = maxConcurrency;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Preenche o país de todos os nodes que ainda não o têm. Devolve o
+     * número de IPs distintos que ficaram com um país conhecido.
+     */
+    public int annotate(Node[] nodes) throws InterruptedException {
+        // IP -> nodes com esse IP (só os que ainda não têm país)
+        Map<String, List<Node>> byIp = new LinkedHashMap<>();
+        for (Node n : nodes) {
+            if (n == null || hasCountry(n)) {
+                continue;
+            }
+            String ip = n.getIpAddress();
+            if (ip == null || ip.isEmpty()) {
+                n.setCountry("XX");
+                continue;
+            }
+            List<Node> list = byIp.get(ip);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                byIp.put(ip, list);
+            }
+            list.add(n);
+        }
+
+        Map<String, String> resolved = resolve(byIp.keySet());
+
+        int known = 0;
+        for (Map.Entry<String, List<Node>> e : byIp.entrySet()) {
+            String country = resolved.get(e.getKey());
+            if (country == null) {
+                country = "XX";
+            }
+            if (!"XX".equals(country)) {
+                known++;
+            }
+            for (Node n : e.getValue()) {
+                n.setCountry(country);
+            }
+        }
+
+        if (parser.getVerbosity() >= ConsensusParser.VERBOSITY_INFO) {
+            System.out.println("Países anotados: " + known + " de " + byIp.size() + " IPs distintos");
+        }
+        return known;
+    }
+
+    private Map<String, String> resolve(Iterable<String> ips) throws InterruptedException {
+        final Map<String, String> resolved = new HashMap<>();
+
+        // Com base de dados local cada lookup demora microssegundos: não vale
+        // a pena usar threads
+        if (parser.getGeoIpDatabase() != null) {
+            for (String ip : ips) {
+                resolved.put(ip, parser.lookupCountry(ip));
+            }
+            return resolved;
+        }
+
+        final Semaphore permits = new Semaphore(maxConcurrency);
+        List<String> order = new ArrayList<>();
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (final String ip : ips) {
+            order.add(ip);
+            tasks.add(() -> {
+                permits.acquire();
+                try {
+                    return parser.lookupCountry(ip);
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        ExecutorService executor = newExecutor(maxConcurrency);
+        try {
+            // invokeAll cancela o que ainda não terminou quando o prazo acaba;
+            // só contam os lookups que acabaram antes disso, mesmo que um
+            // cancelado ainda chegue a devolver alguma coisa
+            List<Future<String>> results = executor.invokeAll(tasks, timeoutMillis, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < results.size(); i++) {
+                Future<String> f = results.get(i);
+                if (f.isCancelled()) {
+                    continue;
+                }
+                try {
+                    String country = f.get();
+                    if (country != null) {
+                        resolved.put(order.get(i), country);
+                    }
+                } catch (ExecutionException e) {
+                    // lookup falhou: fica "XX"
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return resolved;
+    }
+
+    private static boolean hasCountry(Node n) {
+        String c = n.getCountry();
+        return c != null && !c.isEmpty() && !"XX".equals(c);
+    }
+
+    /**
+     * Virtual threads (Java 21+) se existirem; senão uma pool fixa de
+     * threads daemon. Usa reflexão para continuar a compilar para Java 8.
+     */
+    private static ExecutorService newExecutor(int threads) {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "geoip-lookup");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package pt.unl.fct.pds.utils;
+
+/**
+ * Cache de país por endereço IPv4 (em formato inteiro) usado pelo
+ * {@link ConsensusParser#lookupCountry(String)}. As implementações têm de
+ * ser thread-safe.
+ */
+public interface CountryCache {
+
+    /**
+     * País guardado para o IP, ou null se não estiver (ou já tiver expirado).
+     */
+    String get(int ipv4);
+
+    void put(int ipv4, String country);
+
+    int size();
+}
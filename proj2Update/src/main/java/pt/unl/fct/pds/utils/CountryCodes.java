@@ -0,0 +1,59 @@
+package pt.unl.fct.pds.utils;
+
+/**
+ * Códigos de país de duas letras (ISO 3166, mais os "A1", "XX", etc. que
+ * aparecem nas bases de GeoIP) convertidos para um short denso entre 1 e
+ * {@link #MAX_CODE}, para poderem indexar arrays.
+ *
+ * O código 0 ({@link #NONE}) significa "sem país" (null). "XX" tem um código
+ * próprio, tal como nas comparações de Strings que o PathSelector faz.
+ */
+public final class CountryCodes {
+
+    public static final short NONE = 0;
+
+    // 36 símbolos possíveis (0-9, A-Z) em cada uma das duas posições
+    public static final int MAX_CODE = 36 * 36;
+
+    private static final String[] NAMES = new String[MAX_CODE + 1];
+
+    static {
+        for (int a = 0; a < 36; a++) {
+            for (int b = 0; b < 36; b++) {
+                char[] chars = { Character.toUpperCase(Character.forDigit(a, 36)),
+                        Character.toUpperCase(Character.forDigit(b, 36)) };
+                NAMES[1 + a * 36 + b] = new String(chars);
+            }
+        }
+    }
+
+    private CountryCodes() {
+    }
+
+    /**
+     * Devolve o código denso do país, ou NONE se for null ou não tiver o
+     * formato de duas letras/dígitos.
+     */
+    public static short code(String country) {
+        if (country == null || country.length() != 2) {
+            return NONE;
+        }
+        int a = Character.digit(country.charAt(0), 36);
+        int b = Character.digit(country.charAt(1), 36);
+        if (a < 0 || b < 0) {
+            return NONE;
+        }
+        return (short) (1 + a * 36 + b);
+    }
+
+    /**
+     * Nome em maiúsculas do código, sempre a mesma instância de String, ou
+     * null para NONE.
+     */
+    public static String name(short code) {
+        if (code <= 0 || code > MAX_CODE) {
+            return null;
+        }
+        return NAMES[code];
+    }
+}
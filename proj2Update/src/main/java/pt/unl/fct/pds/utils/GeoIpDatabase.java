@@ -0,0 +1,288 @@
+package pt.unl.fct.pds.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Base de dados GeoIP local, para não depender do ipinfo.io.
+ *
+ * Lê ficheiros de intervalos no formato do Tor ("geoip" e "geoip6"):
+ * uma linha por intervalo, "inicio,fim,PAIS", onde os endereços podem ser
+ * inteiros (formato do Tor para IPv4), IPv4 em notação decimal ou IPv6.
+ * Linhas começadas por '#' são comentários e aspas são ignoradas.
+ *
+ * Os intervalos ficam em arrays primitivos ordenados e cada lookup é uma
+ * pesquisa binária, sem alocações.
+ */
+public final class GeoIpDatabase {
+
+    // Inícios/fins IPv4 com o bit de sinal trocado, para que a comparação
+    // com sinal dos int corresponda à ordem sem sinal dos endereços
+    private final int[] v4Start;
+    private final int[] v4End;
+    private final short[] v4Country;
+
+    // IPv6: 128 bits em dois longs, também com o bit de sinal trocado
+    private final long[] v6StartHi;
+    private final long[] v6StartLo;
+    private final long[] v6EndHi;
+    private final long[] v6EndLo;
+    private final short[] v6Country;
+
+    private GeoIpDatabase(int[] v4Start, int[] v4End, short[] v4Country,
+            long[] v6StartHi, long[] v6StartLo, long[] v6EndHi, long[] v6EndLo, short[] v6Country) {
+        this.v4Start = v4Start;
+        this.v4End = v4End;
+        this.v4Country = v4Country;
+        this.v6StartHi = v6StartHi;
+        this.v6StartLo = v6StartLo;
+        this.v6EndHi = v6EndHi;
+        this.v6EndLo = v6EndLo;
+        this.v6Country = v6Country;
+    }
+
+    /**
+     * Carrega os intervalos dos ficheiros indicados. Qualquer um pode ser
+     * null; um ficheiro pode ter linhas IPv4 e IPv6 misturadas.
+     */
+    public static GeoIpDatabase load(Path ipv4File, Path ipv6File) throws IOException {
+        Builder b = new Builder();
+        if (ipv4File != null) {
+            b.readFile(ipv4File);
+        }
+        if (ipv6File != null) {
+            b.readFile(ipv6File);
+        }
+        return b.build();
+    }
+
+    public int getIpv4RangeCount() {
+        return v4Start.length;
+    }
+
+    public int getIpv6RangeCount() {
+        return v6StartHi.length;
+    }
+
+    /**
+     * Código denso do país (ver {@link CountryCodes}) de um IPv4 em formato
+     * inteiro, ou {@link CountryCodes#NONE} se não estiver em nenhum intervalo.
+     */
+    public short lookupIpv4(int ip) {
+        int key = ip ^ Integer.MIN_VALUE;
+        int lo = 0;
+        int hi = v4Start.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (v4Start[mid] <= key) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (found >= 0 && key <= v4End[found]) {
+            return v4Country[found];
+        }
+        return CountryCodes.NONE;
+    }
+
+    public short lookupIpv6(long high, long low) {
+        long keyHi = high ^ Long.MIN_VALUE;
+        long keyLo = low ^ Long.MIN_VALUE;
+        int lo = 0;
+        int hi = v6StartHi.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(v6StartHi[mid], v6StartLo[mid], keyHi, keyLo) <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (found >= 0 && compare(keyHi, keyLo, v6EndHi[found], v6EndLo[found]) <= 0) {
+            return v6Country[found];
+        }
+        return CountryCodes.NONE;
+    }
+
+    /**
+     * País de um IP em texto (IPv4 ou IPv6), ou null se o endereço for
+     * inválido ou não estiver na base de dados.
+     */
+    public String lookupCountry(String ip) {
+        long v4 = IpAddresses.parseIpv4(ip);
+        if (v4 >= 0) {
+            return CountryCodes.name(lookupIpv4((int) v4));
+        }
+        long[] v6 = new long[2];
+        if (IpAddresses.parseIpv6(ip, v6)) {
+            return CountryCodes.name(lookupIpv6(v6[0], v6[1]));
+        }
+        return null;
+    }
+
+    private static int compare(long aHi, long aLo, long bHi, long bLo) {
+        if (aHi != bHi) {
+            return aHi < bHi ? -1 : 1;
+        }
+        return Long.compare(aLo, bLo);
+    }
+
+    /**
+     * Acumula intervalos em arrays que crescem por duplicação e no fim
+     * ordena-os pelo início.
+     */
+    private static final class Builder {
+        private int[] v4Start = new int[1024];
+        private int[] v4End = new int[1024];
+        private short[] v4Country = new short[1024];
+        private int v4Count;
+
+        private long[] v6 = new long[4 * 256];
+        private short[] v6Country = new short[256];
+        private int v6Count;
+
+        private final long[] tmpStart = new long[2];
+        private final long[] tmpEnd = new long[2];
+
+        void readFile(Path file) throws IOException {
+            try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                int lineNo = 0;
+                while ((line = br.readLine()) != null) {
+                    lineNo++;
+                    line = line.trim();
+                    if (line.isEmpty() || line.charAt(0) == '#') {
+                        continue;
+                    }
+                    if (!addLine(line)) {
+                        throw new IOException("Linha inválida em " + file + ":" + lineNo + ": " + line);
+                    }
+                }
+            }
+        }
+
+        private boolean addLine(String line) {
+            int c1 = line.indexOf(',');
+            int c2 = c1 < 0 ? -1 : line.indexOf(',', c1 + 1);
+            if (c2 < 0) {
+                return false;
+            }
+            String start = unquote(line.substring(0, c1));
+            String end = unquote(line.substring(c1 + 1, c2));
+            int c3 = line.indexOf(',', c2 + 1);
+            String country = unquote(c3 < 0 ? line.substring(c2 + 1) : line.substring(c2 + 1, c3));
+            short code = CountryCodes.code(country);
+
+            if (start.indexOf(':') >= 0) {
+                if (!IpAddresses.parseIpv6(start, tmpStart) || !IpAddresses.parseIpv6(end, tmpEnd)) {
+                    return false;
+                }
+                addIpv6(tmpStart, tmpEnd, code);
+                return true;
+            }
+
+            long s = parseIpv4Field(start);
+            long e = parseIpv4Field(end);
+            if (s < 0 || e < 0 || s > e) {
+                return false;
+            }
+            addIpv4((int) s, (int) e, code);
+            return true;
+        }
+
+        private static long parseIpv4Field(String field) {
+            if (field.indexOf('.') >= 0) {
+                return IpAddresses.parseIpv4(field);
+            }
+            try {
+                long v = Long.parseLong(field);
+                return (v >= 0 && v <= 0xffffffffL) ? v : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private static String unquote(String s) {
+            s = s.trim();
+            if (s.length() >= 2 && s.charAt(0) == '"' && s.charAt(s.length() - 1) == '"') {
+                return s.substring(1, s.length() - 1).trim();
+            }
+            return s;
+        }
+
+        private void addIpv4(int start, int end, short code) {
+            if (v4Count == v4Start.length) {
+                v4Start = Arrays.copyOf(v4Start, v4Count * 2);
+                v4End = Arrays.copyOf(v4End, v4Count * 2);
+                v4Country = Arrays.copyOf(v4Country, v4Count * 2);
+            }
+            v4Start[v4Count] = start ^ Integer.MIN_VALUE;
+            v4End[v4Count] = end ^ Integer.MIN_VALUE;
+            v4Country[v4Count] = code;
+            v4Count++;
+        }
+
+        private void addIpv6(long[] start, long[] end, short code) {
+            if (v6Count == v6Country.length) {
+                v6 = Arrays.copyOf(v6, v6.length * 2);
+                v6Country = Arrays.copyOf(v6Country, v6Count * 2);
+            }
+            int base = v6Count * 4;
+            v6[base] = start[0] ^ Long.MIN_VALUE;
+            v6[base + 1] = start[1] ^ Long.MIN_VALUE;
+            v6[base + 2] = end[0] ^ Long.MIN_VALUE;
+            v6[base + 3] = end[1] ^ Long.MIN_VALUE;
+            v6Country[v6Count] = code;
+            v6Count++;
+        }
+
+        GeoIpDatabase build() {
+            // IPv4: ordena por início usando (inicio << 32 | indice) num long[]
+            long[] order = new long[v4Count];
+            for (int i = 0; i < v4Count; i++) {
+                order[i] = ((long) v4Start[i] << 32) | i;
+            }
+            Arrays.sort(order);
+            int[] starts = new int[v4Count];
+            int[] ends = new int[v4Count];
+            short[] countries = new short[v4Count];
+            for (int i = 0; i < v4Count; i++) {
+                int idx = (int) order[i];
+                starts[i] = v4Start[idx];
+                ends[i] = v4End[idx];
+                countries[i] = v4Country[idx];
+            }
+
+            // IPv6: são poucos milhares de intervalos, chega ordenar índices
+            Integer[] idx6 = new Integer[v6Count];
+            for (int i = 0; i < v6Count; i++) {
+                idx6[i] = i;
+            }
+            Arrays.sort(idx6, (a, b) -> compare(v6[a * 4], v6[a * 4 + 1], v6[b * 4], v6[b * 4 + 1]));
+            long[] startHi = new long[v6Count];
+            long[] startLo = new long[v6Count];
+            long[] endHi = new long[v6Count];
+            long[] endLo = new long[v6Count];
+            short[] countries6 = new short[v6Count];
+            for (int i = 0; i < v6Count; i++) {
+                int base = idx6[i] * 4;
+                startHi[i] = v6[base];
+                startLo[i] = v6[base + 1];
+                endHi[i] = v6[base + 2];
+                endLo[i] = v6[base + 3];
+                countries6[i] = v6Country[idx6[i]];
+            }
+
+            return new GeoIpDatabase(starts, ends, countries, startHi, startLo, endHi, endLo, countries6);
+        }
+    }
+}
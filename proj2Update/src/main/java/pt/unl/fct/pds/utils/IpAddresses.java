@@ -0,0 +1,158 @@
+package pt.unl.fct.pds.utils;
+
+/**
+ * Conversão de endereços IP em texto para inteiros, sem regex nem
+ * InetAddress (que pode tentar resolver nomes por DNS).
+ */
+public final class IpAddresses {
+
+    private IpAddresses() {
+    }
+
+    /**
+     * Converte "a.b.c.d" num inteiro de 32 bits (devolvido em long, sem
+     * sinal). Devolve -1 se o texto não for um IPv4 válido.
+     */
+    public static long parseIpv4(CharSequence s) {
+        if (s == null) {
+            return -1;
+        }
+        return parseIpv4(s, 0, s.length());
+    }
+
+    public static long parseIpv4(CharSequence s, int start, int end) {
+        long result = 0;
+        int octets = 0;
+        int value = 0;
+        int digits = 0;
+
+        for (int i = start; i < end; i++) {
+            char ch = s.charAt(i);
+            if (ch == '.') {
+                if (digits == 0 || octets == 3) {
+                    return -1;
+                }
+                result = (result << 8) | value;
+                octets++;
+                value = 0;
+                digits = 0;
+            } else if (ch >= '0' && ch <= '9') {
+                value = value * 10 + (ch - '0');
+                digits++;
+                if (value > 255 || digits > 3) {
+                    return -1;
+                }
+            } else {
+                return -1;
+            }
+        }
+
+        if (digits == 0 || octets != 3) {
+            return -1;
+        }
+        return (result << 8) | value;
+    }
+
+    public static String formatIpv4(int ip) {
+        return ((ip >>> 24) & 0xff) + "." + ((ip >>> 16) & 0xff) + "."
+                + ((ip >>> 8) & 0xff) + "." + (ip & 0xff);
+    }
+
+    /**
+     * Converte um IPv6 (com "::" e, opcionalmente, os últimos 32 bits em
+     * notação IPv4) para dois longs: out[0] os 64 bits altos, out[1] os
+     * baixos. Aceita parênteses retos à volta. Devolve false se for inválido.
+     */
+    public static boolean parseIpv6(String s, long[] out) {
+        if (s == null) {
+            return false;
+        }
+        int start = 0;
+        int end = s.length();
+        if (end >= 2 && s.charAt(0) == '[' && s.charAt(end - 1) == ']') {
+            start++;
+            end--;
+        }
+
+        int[] groups = new int[8];
+        int count = 0;
+        int gapAt = -1;
+        int pos = start;
+
+        if (pos + 1 < end && s.charAt(pos) == ':' && s.charAt(pos + 1) == ':') {
+            gapAt = 0;
+            pos += 2;
+        }
+
+        while (pos < end) {
+            int tokEnd = pos;
+            while (tokEnd < end && s.charAt(tokEnd) != ':') {
+                tokEnd++;
+            }
+
+            if (tokEnd == end && s.indexOf('.', pos) >= 0) {
+                // IPv4 embutido nos últimos 32 bits
+                long v4 = parseIpv4(s, pos, end);
+                if (v4 < 0 || count > 6) {
+                    return false;
+                }
+                groups[count++] = (int) (v4 >>> 16);
+                groups[count++] = (int) (v4 & 0xffff);
+                pos = end;
+                break;
+            }
+
+            int len = tokEnd - pos;
+            if (len == 0 || len > 4 || count == 8) {
+                return false;
+            }
+            int value = 0;
+            for (int i = pos; i < tokEnd; i++) {
+                int d = Character.digit(s.charAt(i), 16);
+                if (d < 0) {
+                    return false;
+                }
+                value = (value << 4) | d;
+            }
+            groups[count++] = value;
+
+            if (tokEnd == end) {
+                pos = end;
+            } else if (tokEnd + 1 < end && s.charAt(tokEnd + 1) == ':') {
+                if (gapAt >= 0) {
+                    return false;
+                }
+                gapAt = count;
+                pos = tokEnd + 2;
+            } else {
+                pos = tokEnd + 1;
+                if (pos == end) {
+                    return false;
+                }
+            }
+        }
+
+        if (gapAt >= 0) {
+            int missing = 8 - count;
+            if (missing < 1) {
+                return false;
+            }
+            System.arraycopy(groups, gapAt, groups, gapAt + missing, count - gapAt);
+            for (int i = gapAt; i < gapAt + missing; i++) {
+                groups[i] = 0;
+            }
+        } else if (count != 8) {
+            return false;
+        }
+
+        long hi = 0;
+        long lo = 0;
+        for (int i = 0; i < 4; i++) {
+            hi = (hi << 16) | groups[i];
+            lo = (lo << 16) | groups[i + 4];
+        }
+        out[0] = hi;
+        out[1] = lo;
+        return true;
+    }
+}
@@ -0,0 +1,329 @@
+package pt.unl.fct.pds.utils;
+
+import pt.unl.fct.pds.model.Node;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Formato binário para um consenso já lido e com os países anotados, para
+ * não ter de voltar a fazer parse do texto nem lookups de GeoIP.
+ *
+ * Estrutura (big-endian):
+ * <pre>
+ *   cabeçalho   magic "TRSN", versão, nº de relays, nº de strings,
+ *               bytes de strings, CRC32 de tudo o que vem a seguir
+ *   registos    RECORD_SIZE bytes por relay, campos de largura fixa
+ *   offsets     (nº de strings + 1) ints com o início de cada string
+ *   strings     UTF-8, cada string distinta uma só vez
+ * </pre>
+ * Os campos de texto dos registos são índices na tabela de strings (-1 para
+ * null), por isso nicknames, políticas, versões, listas de flags e famílias
+ * repetidas ocupam espaço uma vez. A versão 2 acrescentou a família (os
+ * membros da linha "family" separados por espaços).
+ *
+ * {@link #load(Path)} mapeia o ficheiro em memória e só verifica o
+ * cabeçalho e o CRC; os campos numéricos leem-se diretamente do mapeamento
+ * e as strings só são descodificadas quando se pedem. A RelayTable é
+ * construída a partir das colunas e só pede Nodes quando são precisos.
+ */
+public final class RelaySnapshot {
+
+    private static final int MAGIC = 0x5452534E; // "TRSN"
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 24;
+    private static final int CRC_OFFSET = 20;
+    static final int RECORD_SIZE = 56;
+
+    // Offsets dentro de um registo
+    private static final int NICKNAME = 0;
+    private static final int FINGERPRINT = 4;
+    private static final int IP = 8;
+    private static final int VERSION_STRING = 12;
+    private static final int FLAGS = 16;
+    private static final int POLICY = 20;
+    private static final int IPV4 = 24;
+    private static final int OR_PORT = 28;
+    private static final int DIR_PORT = 30;
+    private static final int FLAG_BITS = 32;
+    private static final int BANDWIDTH = 36;
+    private static final int PUBLISHED = 40;
+    private static final int COUNTRY = 48;
+    private static final int FAMILY = 52;
+
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private final ByteBuffer buf;
+    private final int count;
+    private final int stringCount;
+    private final int offsetsStart;
+    private final int stringsStart;
+    // Strings já descodificadas, partilhadas entre os Nodes
+    private final String[] decoded;
+
+    private RelaySnapshot(ByteBuffer buf, int count, int stringCount) {
+        this.buf = buf;
+        this.count = count;
+        this.stringCount = stringCount;
+        this.offsetsStart = HEADER_SIZE + count * RECORD_SIZE;
+        this.stringsStart = offsetsStart + (stringCount + 1) * 4;
+        this.decoded = new String[stringCount];
+    }
+
+    /**
+     * Grava os nodes (os null são ignorados). Escreve para um ficheiro
+     * temporário e depois move-o, para nunca deixar um snapshot a meio.
+     */
+    public static void write(Node[] nodes, Path file) throws IOException {
+        Map<String, Integer> refs = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int live = 0;
+        int stringBytes = 0;
+        for (Node n : nodes) {
+            if (n == null) {
+                continue;
+            }
+            live++;
+            for (String s : new String[] { n.getNickname(), n.getFingerprint(), n.getIpAddress(),
+                    n.getVersion(), joinFlags(n.getFlags()), n.getExitPolicy(), joinFlags(n.getFamily()) }) {
+                if (s != null && !refs.containsKey(s)) {
+                    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                    refs.put(s, strings.size());
+                    strings.add(bytes);
+                    stringBytes += bytes.length;
+                }
+            }
+        }
+
+        long size = HEADER_SIZE + (long) live * RECORD_SIZE + (strings.size() + 1L) * 4 + stringBytes;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot demasiado grande: " + size + " bytes");
+        }
+        ByteBuffer out = ByteBuffer.allocate((int) size);
+        out.putInt(MAGIC).putInt(VERSION).putInt(live).putInt(strings.size()).putInt(stringBytes).putInt(0);
+
+        for (Node n : nodes) {
+            if (n == null) {
+                continue;
+            }
+            int base = out.position();
+            out.putInt(base + NICKNAME, ref(refs, n.getNickname()));
+            out.putInt(base + FINGERPRINT, ref(refs, n.getFingerprint()));
+            out.putInt(base + IP, ref(refs, n.getIpAddress()));
+            out.putInt(base + VERSION_STRING, ref(refs, n.getVersion()));
+            out.putInt(base + FLAGS, ref(refs, joinFlags(n.getFlags())));
+            out.putInt(base + POLICY, ref(refs, n.getExitPolicy()));
+            out.putInt(base + IPV4, (int) IpAddresses.parseIpv4(n.getIpAddress()));
+            out.putShort(base + OR_PORT, (short) n.getOrPort());
+            out.putShort(base + DIR_PORT, (short) n.getDirPort());
+            out.putInt(base + FLAG_BITS, n.getFlagBits());
+            out.putInt(base + BANDWIDTH, n.getBandwidth());
+            LocalDateTime published = n.getTimePublished();
+            out.putLong(base + PUBLISHED, published != null ? published.toEpochSecond(ZoneOffset.UTC) : NO_TIME);
+            out.putShort(base + COUNTRY, CountryCodes.code(n.getCountry()));
+            out.putInt(base + FAMILY, ref(refs, joinFlags(n.getFamily())));
+            out.position(base + RECORD_SIZE);
+        }
+
+        int offset = 0;
+        for (byte[] s : strings) {
+            out.putInt(offset);
+            offset += s.length;
+        }
+        out.putInt(offset);
+        for (byte[] s : strings) {
+            out.put(s);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), HEADER_SIZE, out.capacity() - HEADER_SIZE);
+        out.putInt(CRC_OFFSET, (int) crc.getValue());
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, out.array());
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * True se o ficheiro começa pelo magic de um snapshot.
+     */
+    public static boolean isSnapshot(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(4);
+            while (head.hasRemaining() && channel.read(head) >= 0) {
+                // lê até ter os 4 bytes ou chegar ao fim
+            }
+            return !head.hasRemaining() && head.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Mapeia um snapshot gravado com {@link #write(Node[], Path)}, depois
+     * de confirmar o magic, a versão, os tamanhos e o CRC.
+     */
+    public static RelaySnapshot load(Path file) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Ficheiro não é um snapshot de relays: " + file);
+            }
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        if (buf.getInt(0) != MAGIC) {
+            throw new IOException("Ficheiro não é um snapshot de relays: " + file);
+        }
+        int version = buf.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Versão de snapshot não suportada: " + version);
+        }
+        int count = buf.getInt(8);
+        int stringCount = buf.getInt(12);
+        int stringBytes = buf.getInt(16);
+        long expected = HEADER_SIZE + (long) count * RECORD_SIZE + (stringCount + 1L) * 4 + stringBytes;
+        if (count < 0 || stringCount < 0 || stringBytes < 0 || expected != buf.capacity()) {
+            throw new IOException("Snapshot truncado ou corrompido: " + file);
+        }
+
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buf.duplicate();
+        body.position(HEADER_SIZE);
+        crc.update(body);
+        if ((int) crc.getValue() != buf.getInt(CRC_OFFSET)) {
+            throw new IOException("CRC do snapshot não confere: " + file);
+        }
+
+        return new RelaySnapshot(buf, count, stringCount);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private int record(int i) {
+        return HEADER_SIZE + i * RECORD_SIZE;
+    }
+
+    public int bandwidth(int i) {
+        return buf.getInt(record(i) + BANDWIDTH);
+    }
+
+    public int flagBits(int i) {
+        return buf.getInt(record(i) + FLAG_BITS);
+    }
+
+    public int ipv4(int i) {
+        return buf.getInt(record(i) + IPV4);
+    }
+
+    public short country(int i) {
+        return buf.getShort(record(i) + COUNTRY);
+    }
+
+    public String nickname(int i) {
+        return string(buf.getInt(record(i) + NICKNAME));
+    }
+
+    public String fingerprint(int i) {
+        return string(buf.getInt(record(i) + FINGERPRINT));
+    }
+
+    /**
+     * Resumo da política de saída do registo i, sem criar o Node.
+     */
+    public String exitPolicy(int i) {
+        return string(buf.getInt(record(i) + POLICY));
+    }
+
+    /**
+     * Membros da família do registo i, ou null se o relay não tinha linha
+     * "family".
+     */
+    public String[] family(int i) {
+        String family = string(buf.getInt(record(i) + FAMILY));
+        if (family == null) {
+            return null;
+        }
+        return family.isEmpty() ? new String[0] : family.split(" ");
+    }
+
+    /**
+     * Reconstrói o Node do registo i.
+     */
+    public Node node(int i) {
+        int r = record(i);
+        String flags = string(buf.getInt(r + FLAGS));
+        String[] family = family(i);
+        long published = buf.getLong(r + PUBLISHED);
+        Node n = new Node(
+                string(buf.getInt(r + NICKNAME)),
+                string(buf.getInt(r + FINGERPRINT)),
+                published != NO_TIME ? LocalDateTime.ofEpochSecond(published, 0, ZoneOffset.UTC) : null,
+                string(buf.getInt(r + IP)),
+                buf.getShort(r + OR_PORT) & 0xffff,
+                buf.getShort(r + DIR_PORT) & 0xffff,
+                flags == null || flags.isEmpty() ? new String[0] : flags.split(" "),
+                string(buf.getInt(r + VERSION_STRING)),
+                buf.getInt(r + BANDWIDTH),
+                CountryCodes.name(buf.getShort(r + COUNTRY)),
+                string(buf.getInt(r + POLICY)));
+        if (family != null) {
+            n.setFamily(family);
+        }
+        return n;
+    }
+
+    public Node[] toNodes() {
+        Node[] nodes = new Node[count];
+        for (int i = 0; i < count; i++) {
+            nodes[i] = node(i);
+        }
+        return nodes;
+    }
+
+    private String string(int ref) {
+        if (ref < 0) {
+            return null;
+        }
+        if (ref >= stringCount) {
+            throw new IllegalStateException("Referência de string inválida: " + ref);
+        }
+        String s = decoded[ref];
+        if (s == null) {
+            int start = buf.getInt(offsetsStart + ref * 4);
+            int end = buf.getInt(offsetsStart + ref * 4 + 4);
+            byte[] bytes = new byte[end - start];
+            ByteBuffer src = buf.duplicate();
+            src.position(stringsStart + start);
+            src.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+            decoded[ref] = s;
+        }
+        return s;
+    }
+
+    private static int ref(Map<String, Integer> refs, String s) {
+        return s == null ? -1 : refs.get(s);
+    }
+
+    // Flags e membros de família não têm espaços
+    private static String joinFlags(String[] flags) {
+        return flags == null ? null : String.join(" ", flags);
+    }
+}
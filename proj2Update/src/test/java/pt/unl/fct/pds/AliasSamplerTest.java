@@ -0,0 +1,55 @@
+package pt.unl.fct.pds;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the alias table used by PathSelector.
+ */
+public class AliasSamplerTest
+    extends TestCase
+{
+    public AliasSamplerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( AliasSamplerTest.class );
+    }
+
+    /**
+     * Sweeping u over an even grid must hit every index in proportion to its weight.
+     */
+    public void testGridMatchesWeights()
+    {
+        double[] weights = { 10, 0, 30, 60, -5 };
+        AliasSampler sampler = new AliasSampler( weights );
+        assertEquals( 100.0, sampler.total(), 1e-9 );
+
+        int steps = 100000;
+        int[] hits = new int[weights.length];
+        for ( int k = 0; k < steps; k++ )
+        {
+            hits[sampler.sample( ( k + 0.5 ) / steps )]++;
+        }
+
+        assertEquals( 0.10, hits[0] / (double) steps, 1e-3 );
+        assertEquals( 0, hits[1] );
+        assertEquals( 0.30, hits[2] / (double) steps, 1e-3 );
+        assertEquals( 0.60, hits[3] / (double) steps, 1e-3 );
+        assertEquals( 0, hits[4] );
+    }
+
+    public void testAllZeroWeightsIsUniform()
+    {
+        AliasSampler sampler = new AliasSampler( new double[] { 0, 0, 0, 0 } );
+        assertEquals( 0.0, sampler.total(), 0.0 );
+        assertEquals( 0, sampler.sample( 0.1 ) );
+        assertEquals( 1, sampler.sample( 0.3 ) );
+        assertEquals( 2, sampler.sample( 0.6 ) );
+        assertEquals( 3, sampler.sample( 0.9 ) );
+    }
+}
@@ -0,0 +1,66 @@
+package pt.unl.fct.pds;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Percentiles stay within the bucket resolution and merging is the same as
+ * recording everything into one histogram.
+ */
+public class BandwidthHistogramTest
+    extends TestCase
+{
+    public BandwidthHistogramTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( BandwidthHistogramTest.class );
+    }
+
+    public void testBucketsAreContiguous()
+    {
+        for ( long v = 0; v < 1 << 20; v++ )
+        {
+            int i = BandwidthHistogram.indexOf( v );
+            assertTrue( BandwidthHistogram.lowerBound( i ) <= v );
+            assertTrue( v < BandwidthHistogram.lowerBound( i + 1 ) );
+        }
+    }
+
+    public void testPercentilesAndMerge()
+    {
+        SplittableRandom random = new SplittableRandom( 4 );
+        int n = 100000;
+        long[] values = new long[n];
+        BandwidthHistogram all = new BandwidthHistogram();
+        BandwidthHistogram first = new BandwidthHistogram();
+        BandwidthHistogram second = new BandwidthHistogram();
+        long sum = 0;
+        for ( int i = 0; i < n; i++ )
+        {
+            values[i] = random.nextInt( 1, 2000000 );
+            sum += values[i];
+            all.record( values[i] );
+            ( i % 3 == 0 ? first : second ).record( values[i] );
+        }
+        first.merge( second );
+        assertEquals( all, first );
+
+        Arrays.sort( values );
+        assertEquals( values[0], all.min() );
+        assertEquals( values[n - 1], all.max() );
+        assertEquals( (double) sum / n, all.mean(), 1e-9 );
+        for ( double q : new double[] { 0.01, 0.1, 0.5, 0.9, 0.99 } )
+        {
+            long exact = values[(int) Math.ceil( q * n ) - 1];
+            assertEquals( exact, all.percentile( q ), exact / 128.0 );
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package pt.unl.fct.pds;
+
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import pt.unl.fct.pds.model.Node;
+
+/**
+ * Guards persist across consensuses until they expire or disappear.
+ */
+public class ClientPopulationTest
+    extends TestCase
+{
+    public ClientPopulationTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ClientPopulationTest.class );
+    }
+
+    public void testGuardsRotateOnExpiryAndChurn() throws Exception
+    {
+        Node[] nodes = ExperimentRunnerTest.sampleNodes();
+        PathSelector selector = new PathSelector( nodes, 3L );
+        RelayTable table = selector.getRelayTable();
+        ClientPopulation population = new ClientPopulation( 1000, 2, 3, 3, 9L );
+
+        ClientPopulation.StepStats first = population.step( selector );
+        assertEquals( 2000, first.getReplaced() );
+        assertEquals( 0, first.getRotated() );
+
+        int[] before = new int[2000];
+        for ( int c = 0; c < 1000; c++ )
+        {
+            for ( int s = 0; s < 2; s++ )
+            {
+                int g = population.guard( c, s );
+                assertTrue( table.node( g ).isGuard() );
+                before[c * 2 + s] = g;
+            }
+            assertTrue( population.guard( c, 0 ) != population.guard( c, 1 ) );
+        }
+
+        // Next hour alpha is gone: only its slots are refilled
+        int alphaId = table.idOf( nodes[0].getFingerprint() );
+        Node[] next = Arrays.copyOfRange( ExperimentRunnerTest.sampleNodes(), 1, nodes.length );
+        selector.update( next );
+        ClientPopulation.StepStats second = population.step( selector );
+
+        int held = 0;
+        for ( int g : before )
+        {
+            if ( g == alphaId )
+            {
+                held++;
+            }
+        }
+        assertEquals( held, second.getReplaced() );
+        assertEquals( 0, second.getRotated() );
+        for ( int c = 0; c < 1000; c++ )
+        {
+            for ( int s = 0; s < 2; s++ )
+            {
+                int g = population.guard( c, s );
+                assertTrue( g != alphaId );
+                if ( before[c * 2 + s] != alphaId )
+                {
+                    assertEquals( before[c * 2 + s], g );
+                }
+            }
+        }
+
+        // Lifetime of exactly 3 periods: the first guards expire at period 3
+        population.step( selector );
+        ClientPopulation.StepStats fourth = population.step( selector );
+        assertEquals( 2000 - held, fourth.getRotated() );
+    }
+}
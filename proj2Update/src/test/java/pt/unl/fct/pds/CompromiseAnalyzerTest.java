@@ -0,0 +1,151 @@
+package pt.unl.fct.pds;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.utils.CountryCodes;
+import pt.unl.fct.pds.utils.IpAddresses;
+
+/**
+ * Bit-row tallies agree with checking each adversary against each circuit.
+ */
+public class CompromiseAnalyzerTest
+    extends TestCase
+{
+    public CompromiseAnalyzerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( CompromiseAnalyzerTest.class );
+    }
+
+    public void testParse()
+    {
+        Adversary a = Adversary.parse( "five-eyes  country=us,GB subnet=10.1.2.3,192.168.0.0/16 relay=abc" );
+        assertEquals( "five-eyes", a.getName() );
+        assertEquals( 2, a.getCountries().length );
+        assertEquals( CountryCodes.code( "US" ), a.getCountries()[0] );
+        assertEquals( ( 10 << 8 ) | 1, a.getSubnets()[0] );
+        assertEquals( "abc", a.getRelays()[0] );
+
+        try
+        {
+            Adversary.parse( "bad subnet=10.0.0.0/8" );
+            fail( "only /16 prefixes" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+    }
+
+    public void testMatchesPerCircuitCheck() throws Exception
+    {
+        PathSelector selector = new PathSelector( ExperimentRunnerTest.sampleNodes(), 5L );
+        RelayTable table = selector.getRelayTable();
+
+        // Enough adversaries to span several words: one per country, then
+        // one per relay and one per /16 of each relay, repeated
+        List<Adversary> adversaries = new ArrayList<>( Adversary.perCountry( table ) );
+        StringBuilder lines = new StringBuilder( "# comment\n\n" );
+        for ( int i = 0; i < 150; i++ )
+        {
+            int id = i % table.size();
+            if ( i % 2 == 0 )
+            {
+                lines.append( "relay" + i + " relay=" + table.node( id ).getFingerprint() + "\n" );
+            }
+            else
+            {
+                lines.append( "net" + i + " subnet=" + IpAddresses.formatIpv4( table.ipv4( id ) ) + "/16\n" );
+            }
+        }
+        adversaries.addAll( Adversary.read( new StringReader( lines.toString() ) ) );
+        assertEquals( 3 + 150, adversaries.size() );
+
+        CompromiseAnalyzer analyzer = new CompromiseAnalyzer( table, adversaries );
+        CircuitBatch batch = new CircuitBatch( 2000 );
+        selector.selectPaths( 2000, new GeoAwareStrategy( 0.5, 0.2 ), batch );
+        CompromiseAnalyzer.Tally tally = analyzer.newTally();
+        tally.record( batch );
+
+        assertEquals( 2000, tally.getCircuits() );
+        for ( int a = 0; a < adversaries.size(); a++ )
+        {
+            long guard = 0, exit = 0, both = 0, any = 0;
+            for ( int i = 0; i < batch.size(); i++ )
+            {
+                boolean g = observes( table, adversaries.get( a ), batch.guard( i ) );
+                boolean m = observes( table, adversaries.get( a ), batch.middle( i ) );
+                boolean e = observes( table, adversaries.get( a ), batch.exit( i ) );
+                guard += g ? 1 : 0;
+                exit += e ? 1 : 0;
+                both += g && e ? 1 : 0;
+                any += g || m || e ? 1 : 0;
+            }
+            String name = adversaries.get( a ).getName();
+            assertEquals( name, guard, tally.getGuard( a ) );
+            assertEquals( name, exit, tally.getExit( a ) );
+            assertEquals( name, both, tally.getEndToEnd( a ) );
+            assertEquals( name, any, tally.getAnyHop( a ) );
+        }
+
+        // Circuit objects are scored the same as batch entries
+        CompromiseAnalyzer.Tally single = analyzer.newTally();
+        Circuit c = batch.toCircuit( 0, 1, table );
+        single.record( c );
+        for ( int a = 0; a < adversaries.size(); a++ )
+        {
+            assertEquals( observes( table, adversaries.get( a ), batch.guard( 0 ) ) ? 1 : 0, single.getGuard( a ) );
+        }
+    }
+
+    public void testRunIsIndependentOfThreads() throws Exception
+    {
+        PathSelector selector = new PathSelector( ExperimentRunnerTest.sampleNodes() );
+        CompromiseAnalyzer analyzer = new CompromiseAnalyzer( selector.getRelayTable(),
+                Adversary.perCountry( selector.getRelayTable() ) );
+        int circuits = 2 * ExperimentRunner.CHUNK_SIZE + 5;
+
+        CompromiseAnalyzer.Tally one = analyzer.run( selector, BaselineStrategy.INSTANCE, circuits, 11L, 1 );
+        CompromiseAnalyzer.Tally four = analyzer.run( selector, BaselineStrategy.INSTANCE, circuits, 11L, 4 );
+        ExperimentResults res = new ExperimentRunner( selector, 2 ).run( circuits, BaselineStrategy.INSTANCE, 11L,
+                0, null );
+
+        long[] guardCountries = res.guardCountries.toArray();
+        for ( int a = 0; a < analyzer.getAdversaries().size(); a++ )
+        {
+            assertEquals( one.getEndToEnd( a ), four.getEndToEnd( a ) );
+            assertEquals( one.getAnyHop( a ), four.getAnyHop( a ) );
+            short code = analyzer.getAdversaries().get( a ).getCountries()[0];
+            assertEquals( guardCountries[code], one.getGuard( a ) );
+        }
+    }
+
+    private static boolean observes( RelayTable t, Adversary a, int id )
+    {
+        for ( short c : a.getCountries() )
+        {
+            if ( t.country( id ) == c )
+                return true;
+        }
+        for ( int s : a.getSubnets() )
+        {
+            if ( t.subnet16( id ) == s )
+                return true;
+        }
+        for ( String fp : a.getRelays() )
+        {
+            if ( t.idOf( fp ) == id )
+                return true;
+        }
+        return false;
+    }
+}
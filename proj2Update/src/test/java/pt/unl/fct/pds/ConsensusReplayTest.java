@@ -0,0 +1,97 @@
+package pt.unl.fct.pds;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import pt.unl.fct.pds.utils.ConsensusFiles;
+import pt.unl.fct.pds.utils.ConsensusParser;
+
+/**
+ * Replays a small archive in timestamp order, following relay changes.
+ */
+public class ConsensusReplayTest
+    extends TestCase
+{
+    private Path dir;
+
+    public ConsensusReplayTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ConsensusReplayTest.class );
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        String sample;
+        try ( InputStream in = getClass().getResourceAsStream( "/consensus-sample.txt" ) )
+        {
+            byte[] bytes = new byte[64 * 1024];
+            int size = 0;
+            int n;
+            while ( ( n = in.read( bytes, size, bytes.length - size ) ) > 0 )
+            {
+                size += n;
+            }
+            sample = new String( bytes, 0, size, StandardCharsets.UTF_8 );
+        }
+        // Second hour without charlie
+        int from = sample.indexOf( "r charlie" );
+        int to = sample.indexOf( "r delta" );
+        String withoutCharlie = sample.substring( 0, from ) + sample.substring( to );
+
+        dir = Files.createTempDirectory( "replay" );
+        // Written out of order on purpose
+        Files.write( dir.resolve( "2025-11-17-23-00-00-consensus" ), sample.getBytes( StandardCharsets.UTF_8 ) );
+        Files.write( dir.resolve( "2025-11-17-21-00-00-consensus" ), sample.getBytes( StandardCharsets.UTF_8 ) );
+        Files.write( dir.resolve( "2025-11-17-22-00-00-consensus" ), withoutCharlie.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        for ( Path p : ConsensusFiles.listConsensusFiles( dir ) )
+        {
+            Files.delete( p );
+        }
+        Files.delete( dir );
+    }
+
+    public void testReplayFollowsArchive() throws Exception
+    {
+        ConsensusParser parser = new ConsensusParser( ConsensusParser.VERBOSITY_QUIET );
+        final List<ConsensusReplay.Hour> hours = new ArrayList<>();
+        ConsensusReplay.Summary summary = new ConsensusReplay( parser, null, 1, 2 )
+                .run( dir, BaselineStrategy.INSTANCE, 3000, 5L, hours::add );
+
+        assertEquals( 3, summary.getHours() );
+        assertEquals( 9000, summary.getCircuits() );
+        assertEquals( 6, summary.getDistinctRelaysEstimate() );
+        assertEquals( 9000, summary.getBandwidth().getCount() );
+
+        assertEquals( "2025-11-17-21-00-00-consensus", hours.get( 0 ).getFile().getFileName().toString() );
+        assertNull( hours.get( 0 ).getUpdate() );
+        assertEquals( 5, hours.get( 1 ).getRelays() );
+        assertEquals( 1, hours.get( 1 ).getUpdate().getRemoved() );
+        assertEquals( 1, hours.get( 2 ).getUpdate().getAdded() );
+        assertEquals( 3000, hours.get( 2 ).getMetrics().getCircuits() );
+
+        // Same seed, same results, whatever the prefetch depth
+        ConsensusReplay.Summary again = new ConsensusReplay( parser, null, 3, 1 )
+                .run( dir, BaselineStrategy.INSTANCE, 3000, 5L, null );
+        assertEquals( summary.getBandwidth().getMean(), again.getBandwidth().getMean(), 0.0 );
+        assertEquals( summary.getCountries( MetricsSnapshot.ALL ).getEntropy(),
+                again.getCountries( MetricsSnapshot.ALL ).getEntropy(), 0.0 );
+    }
+}
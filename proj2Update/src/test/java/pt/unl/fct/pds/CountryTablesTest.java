@@ -0,0 +1,86 @@
+package pt.unl.fct.pds;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.model.RelayFlags;
+
+/**
+ * Guards and middles drawn from the per-country tables follow the same
+ * distribution as the weighted scan.
+ */
+public class CountryTablesTest
+    extends TestCase
+{
+    public CountryTablesTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( CountryTablesTest.class );
+    }
+
+    public void testGeoAwareMatchesScanWeights() throws Exception
+    {
+        Node[] nodes = ExperimentRunnerTest.sampleNodes();
+        PathSelector selector = new PathSelector( nodes, 3L );
+        RelayTable table = selector.getRelayTable();
+        GeoAwareStrategy geo = new GeoAwareStrategy( 0.8, 0.6 );
+        int n = table.size();
+        int circuits = 100000;
+
+        // Observed counts vs. the sum over circuits of the scan probability
+        // of each guard (given the exit) and middle (given guard and exit)
+        double[][] guardObserved = new double[n][n];
+        double[][] guardExpected = new double[n][n];
+        double[][] middleObserved = new double[n][n];
+        double[][] middleExpected = new double[n][n];
+
+        CircuitBatch batch = new CircuitBatch( circuits );
+        selector.selectPaths( circuits, geo, batch );
+        for ( int i = 0; i < circuits; i++ )
+        {
+            int g = batch.guard( i );
+            int m = batch.middle( i );
+            int e = batch.exit( i );
+            guardObserved[e][g]++;
+            middleObserved[g][m]++;
+            addScanProbabilities( table, geo, -1, e, guardExpected[e] );
+            addScanProbabilities( table, geo, g, e, middleExpected[g] );
+        }
+
+        for ( int a = 0; a < n; a++ )
+        {
+            for ( int b = 0; b < n; b++ )
+            {
+                assertEquals( guardExpected[a][b], guardObserved[a][b], 0.01 * circuits );
+                assertEquals( middleExpected[a][b], middleObserved[a][b], 0.01 * circuits );
+            }
+        }
+    }
+
+    // Guard probabilities when guard is -1, middle probabilities otherwise
+    private static void addScanProbabilities( RelayTable table, GeoAwareStrategy geo, int guard, int exit,
+            double[] out )
+    {
+        double[] w = new double[table.size()];
+        double total = 0;
+        for ( int id = 0; id < w.length; id++ )
+        {
+            if ( !table.isLive( id ) || table.same16Subnet( id, exit ) )
+                continue;
+            if ( guard < 0 && table.hasFlags( id, RelayFlags.GUARD ) )
+                w[id] = table.bandwidth( id ) * geo.guardFactor( table, id, exit );
+            else if ( guard >= 0 && table.hasFlags( id, RelayFlags.FAST ) && !table.same16Subnet( id, guard ) )
+                w[id] = table.bandwidth( id ) * geo.middleFactor( table, id, guard, exit );
+            total += w[id];
+        }
+        for ( int id = 0; id < w.length; id++ )
+        {
+            out[id] += w[id] / total;
+        }
+    }
+}
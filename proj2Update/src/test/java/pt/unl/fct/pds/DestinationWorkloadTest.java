@@ -0,0 +1,81 @@
+package pt.unl.fct.pds;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.file.Paths;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import pt.unl.fct.pds.utils.GeoIpDatabase;
+
+/**
+ * One circuit per destination, grouped by port, repeatable for any thread
+ * count.
+ */
+public class DestinationWorkloadTest
+    extends TestCase
+{
+    public DestinationWorkloadTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( DestinationWorkloadTest.class );
+    }
+
+    public void testCircuitsPerDestination() throws Exception
+    {
+        GeoIpDatabase geoIp = GeoIpDatabase.load(
+                Paths.get( DestinationWorkloadTest.class.getResource( "/geoip-sample.txt" ).toURI() ), null );
+        PathSelector selector = new PathSelector( ExperimentRunnerTest.sampleNodes() );
+
+        // 23.129.64.0/24 is US and 51.15.0.0/16 FR in the sample database;
+        // 8.8.8.8 is in no range, and no exit allows port 25
+        StringBuilder lines = new StringBuilder();
+        for ( int i = 0; i < 300; i++ )
+        {
+            lines.append( "23.129.64." + ( i % 256 ) + ":443\n" );
+            if ( i < 200 )
+            {
+                lines.append( "51.15.1." + ( i % 256 ) + ":80\n" );
+            }
+        }
+        lines.append( "8.8.8.8:53\n" );
+        lines.append( "23.129.64.1:25\n" );
+        lines.append( "not-an-address:80\n1.2.3.4\n1.2.3.4:70000\n\n" );
+
+        DestinationWorkload.Report[] reports = new DestinationWorkload.Report[2];
+        for ( int t = 0; t < reports.length; t++ )
+        {
+            DestinationWorkload workload = new DestinationWorkload( selector, geoIp, 1 + 3 * t );
+            workload.read( new BufferedReader( new StringReader( lines.toString() ) ) );
+            assertEquals( 502, workload.getDestinations() );
+            assertEquals( 3, workload.getMalformed() );
+            assertEquals( 1, workload.getUnresolved() );
+            reports[t] = workload.run( new GeoAwareStrategy( 0.5, 0.2 ), 21L );
+        }
+
+        DestinationWorkload.PortStats total = reports[0].getTotal();
+        assertEquals( 502, total.getCircuits() + total.getUnserved() );
+        assertEquals( 1, total.getUnserved() );
+        assertTrue( total.getGuardOverlap() > 0 );
+        assertTrue( total.getBothOverlap() <= Math.min( total.getGuardOverlap(), total.getExitOverlap() ) );
+        assertEquals( 443, reports[0].getPorts().get( 0 ).getPort() );
+        // Equal counts keep port order
+        DestinationWorkload.PortStats smtp = reports[0].getPorts().get( 2 );
+        assertEquals( 25, smtp.getPort() );
+        assertEquals( 0, smtp.getCircuits() );
+        assertEquals( 1, smtp.getUnserved() );
+        assertEquals( 53, reports[0].getPorts().get( 3 ).getPort() );
+
+        DestinationWorkload.PortStats other = reports[1].getTotal();
+        assertEquals( total.getCircuits(), other.getCircuits() );
+        assertEquals( total.getUnserved(), other.getUnserved() );
+        assertEquals( total.getGuardOverlap(), other.getGuardOverlap() );
+        assertEquals( total.getExitOverlap(), other.getExitOverlap() );
+        assertEquals( total.getBothOverlap(), other.getBothOverlap() );
+    }
+}
@@ -0,0 +1,116 @@
+package pt.unl.fct.pds;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import pt.unl.fct.pds.model.Node;
+
+/**
+ * Excluded relays are taken out of the draw, by /16 and by family.
+ */
+public class ExclusionIndexTest
+    extends TestCase
+{
+    public ExclusionIndexTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ExclusionIndexTest.class );
+    }
+
+    public void testSampleExcludingSkipsExcludedMass()
+    {
+        long[] weights = { 5, 0, 3, 7, 1, 4 };
+        FenwickSampler sampler = new FenwickSampler( weights.length );
+        for ( int i = 0; i < weights.length; i++ )
+        {
+            sampler.set( i, weights[i] );
+        }
+        int[] excluded = { 0, 3, 4 };
+
+        // Remaining mass is 3 + 4: a grid of uniforms hits each index in
+        // proportion to its weight
+        int[] hits = new int[weights.length];
+        int draws = 7000;
+        for ( int i = 0; i < draws; i++ )
+        {
+            hits[sampler.sampleExcluding( ( i + 0.5 ) / draws, excluded, excluded.length )]++;
+        }
+        assertEquals( 3000, hits[2] );
+        assertEquals( 4000, hits[5] );
+
+        assertEquals( -1, sampler.sampleExcluding( 0.5, new int[] { 0, 2, 3, 4, 5 }, 5 ) );
+    }
+
+    public void testFamiliesAreNeverInTheSamePath() throws Exception
+    {
+        Node[] nodes = ExperimentRunnerTest.sampleNodes();
+        // alpha and foxtrot declare each other; bravo only declares alpha
+        nodes[0].setFamily( new String[] {
+                "$" + ExperimentRunnerTest.hexFingerprint( nodes[5] ) + "~foxtrot", "unknownnick" } );
+        nodes[5].setFamily( new String[] { "$" + ExperimentRunnerTest.hexFingerprint( nodes[0] ) } );
+        nodes[1].setFamily( new String[] { "$" + ExperimentRunnerTest.hexFingerprint( nodes[0] ) } );
+
+        PathSelector selector = new PathSelector( nodes, 9L );
+        RelayTable table = selector.getRelayTable();
+        int alpha = table.idOf( nodes[0].getFingerprint() );
+        int bravo = table.idOf( nodes[1].getFingerprint() );
+        int foxtrot = table.idOf( nodes[5].getFingerprint() );
+        assertTrue( table.sameFamily( alpha, foxtrot ) );
+        assertFalse( table.sameFamily( alpha, bravo ) );
+        assertEquals( -1, table.family( bravo ) );
+
+        CircuitBatch batch = new CircuitBatch( 4000 );
+        selector.selectPathsBaseline( 4000, batch );
+        assertNoFamilyInPath( table, batch, alpha, foxtrot );
+        selector.selectPathsGeoAware( 4000, 0.5, 0.2, batch );
+        assertNoFamilyInPath( table, batch, alpha, foxtrot );
+    }
+
+    public void testGroupWeightSumsSubnetAndFamily() throws Exception
+    {
+        Node[] nodes = ExperimentRunnerTest.sampleNodes();
+        nodes[0].setFamily( new String[] { "$" + ExperimentRunnerTest.hexFingerprint( nodes[5] ) } );
+        nodes[5].setFamily( new String[] { "$" + ExperimentRunnerTest.hexFingerprint( nodes[0] ) } );
+        RelayTable table = RelayTable.fromNodes( nodes );
+
+        FenwickSampler ones = new FenwickSampler( table.size() );
+        for ( int id = 0; id < table.size(); id++ )
+        {
+            ones.set( id, 1 );
+        }
+        ExclusionIndex index = new ExclusionIndex( table, ones );
+
+        for ( int relay = 0; relay < table.size(); relay++ )
+        {
+            long expected = 0;
+            for ( int other = 0; other < table.size(); other++ )
+            {
+                if ( table.same16Subnet( relay, other ) )
+                    expected++;
+                if ( table.sameFamily( relay, other ) )
+                    expected++;
+            }
+            assertEquals( expected, index.groupWeight( 0, relay ) );
+        }
+    }
+
+    private static void assertNoFamilyInPath( RelayTable table, CircuitBatch batch, int a, int b )
+    {
+        for ( int i = 0; i < batch.size(); i++ )
+        {
+            int[] hops = { batch.guard( i ), batch.middle( i ), batch.exit( i ) };
+            boolean hasA = false;
+            boolean hasB = false;
+            for ( int h : hops )
+            {
+                hasA |= h == a;
+                hasB |= h == b;
+            }
+            assertFalse( hasA && hasB );
+        }
+    }
+}
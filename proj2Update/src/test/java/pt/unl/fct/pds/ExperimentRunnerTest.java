@@ -0,0 +1,108 @@
+package pt.unl.fct.pds;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import pt.unl.fct.pds.model.Node;
+import pt.unl.fct.pds.utils.ConsensusParser;
+import pt.unl.fct.pds.utils.ConsensusStreamParser;
+
+/**
+ * The parallel runner must give the same results for a seed whatever the
+ * number of threads.
+ */
+public class ExperimentRunnerTest
+    extends TestCase
+{
+    public ExperimentRunnerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ExperimentRunnerTest.class );
+    }
+
+    static Node[] sampleNodes() throws Exception
+    {
+        List<Node> nodes = new ArrayList<>();
+        try ( ConsensusStreamParser stream = new ConsensusStreamParser(
+                new BufferedReader( new InputStreamReader(
+                        ExperimentRunnerTest.class.getResourceAsStream( "/consensus-sample.txt" ),
+                        StandardCharsets.UTF_8 ) ),
+                ConsensusParser.VERBOSITY_QUIET ) )
+        {
+            while ( stream.hasNext() )
+            {
+                nodes.add( stream.next() );
+            }
+        }
+        String[] countries = { "US", "DE", "DE", "DE", "FR", "US" };
+        for ( int i = 0; i < nodes.size(); i++ )
+        {
+            nodes.get( i ).setCountry( countries[i] );
+        }
+        return nodes.toArray( new Node[0] );
+    }
+
+    /**
+     * Hex form of a relay's base64 fingerprint, as used in family lines.
+     */
+    static String hexFingerprint( Node n )
+    {
+        StringBuilder sb = new StringBuilder();
+        for ( byte b : Base64.getDecoder().decode( n.getFingerprint() ) )
+        {
+            sb.append( String.format( "%02X", b ) );
+        }
+        return sb.toString();
+    }
+
+    public void testSameSeedSameResultsForAnyThreadCount() throws Exception
+    {
+        PathSelector selector = new PathSelector( sampleNodes() );
+        int circuits = 3 * ExperimentRunner.CHUNK_SIZE + 17;
+
+        for ( String type : new String[] { "baseline", "geo" } )
+        {
+            ExperimentResults single = new ExperimentRunner( selector, 1 ).run( circuits, type, 0.5, 0.2, 42L );
+            ExperimentResults multi = new ExperimentRunner( selector, 4 ).run( circuits, type, 0.5, 0.2, 42L );
+
+            assertEquals( circuits, single.numCircuits );
+            assertEquals( single.numCircuits, multi.numCircuits );
+            assertTrue( Arrays.equals( single.guardCountries.toArray(), multi.guardCountries.toArray() ) );
+            assertTrue( Arrays.equals( single.middleCountries.toArray(), multi.middleCountries.toArray() ) );
+            assertTrue( Arrays.equals( single.exitCountries.toArray(), multi.exitCountries.toArray() ) );
+            assertTrue( Arrays.equals( single.allNodes.toArray(), multi.allNodes.toArray() ) );
+            assertEquals( single.circuitBandwidths, multi.circuitBandwidths );
+        }
+    }
+
+    public void testSnapshotsFollowChunkOrder() throws Exception
+    {
+        PathSelector selector = new PathSelector( sampleNodes() );
+        int circuits = 3 * ExperimentRunner.CHUNK_SIZE + 17;
+
+        List<MetricsSnapshot> snapshots = new ArrayList<>();
+        ExperimentResults res = new ExperimentRunner( selector, 4 ).run( circuits, "geo", 0.5, 0.2, 7L,
+                ExperimentRunner.CHUNK_SIZE, snapshots::add );
+
+        assertEquals( 4, snapshots.size() );
+        assertEquals( ExperimentRunner.CHUNK_SIZE, snapshots.get( 0 ).getCircuits() );
+        assertEquals( circuits, snapshots.get( 3 ).getCircuits() );
+
+        MetricsSnapshot last = snapshots.get( 3 );
+        assertEquals( res.allCountries.entropy(), last.getCountries( MetricsSnapshot.ALL ).getEntropy(), 0.0 );
+        assertEquals( 3L * circuits, last.getRelays( MetricsSnapshot.ALL ).getTotal() );
+        assertEquals( res.allNodes.distinct(), last.getDistinctRelaysEstimate() );
+    }
+}
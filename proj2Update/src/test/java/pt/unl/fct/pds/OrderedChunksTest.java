@@ -0,0 +1,77 @@
+package pt.unl.fct.pds;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Chunk results are merged in order, and only a bounded number of them
+ * exist at any time however many chunks there are.
+ */
+public class OrderedChunksTest
+    extends TestCase
+{
+    public OrderedChunksTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( OrderedChunksTest.class );
+    }
+
+    public void testResultsInOrderWithBoundedWindow() throws Exception
+    {
+        final int threads = 4;
+        final int chunks = 2000;
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger live = new AtomicInteger();
+        final AtomicInteger maxLive = new AtomicInteger();
+        final List<Integer> merged = new ArrayList<>();
+
+        OrderedChunks.run( chunks, i -> {
+            created.incrementAndGet();
+            return () -> {
+                // Stands for a chunk's partial results, alive until merged
+                int n = live.incrementAndGet();
+                maxLive.accumulateAndGet( n, Math::max );
+                return i;
+            };
+        }, threads, i -> {
+            live.decrementAndGet();
+            merged.add( i );
+            // Never more chunks created than merged plus the window
+            assertTrue( created.get() <= merged.size() + OrderedChunks.window( threads ) );
+        } );
+
+        assertEquals( chunks, merged.size() );
+        for ( int i = 0; i < chunks; i++ )
+        {
+            assertEquals( i, merged.get( i ).intValue() );
+        }
+        assertTrue( "max live " + maxLive.get(), maxLive.get() <= OrderedChunks.window( threads ) );
+    }
+
+    public void testChunkFailureIsRethrown() throws Exception
+    {
+        try
+        {
+            OrderedChunks.run( 50, i -> () -> {
+                if ( i == 17 )
+                    throw new IllegalStateException( "chunk 17" );
+                return i;
+            }, 3, i -> {
+            } );
+            fail( "expected the chunk's exception" );
+        }
+        catch ( IllegalStateException e )
+        {
+            assertEquals( "chunk 17", e.getMessage() );
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package pt.unl.fct.pds;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Grid points run in parallel give the same results as single runs.
+ */
+public class ParameterSweepTest
+    extends TestCase
+{
+    public ParameterSweepTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ParameterSweepTest.class );
+    }
+
+    public void testGrid()
+    {
+        assertTrue( Arrays.equals( new double[] { 0.0, 0.25, 0.5, 0.75, 1.0 }, ParameterSweep.parseGrid( "0:1:0.25" ) ) );
+        assertEquals( 11, ParameterSweep.parseGrid( "0:1:0.1" ).length );
+        assertTrue( Arrays.equals( new double[] { 0.1, 0.9 }, ParameterSweep.parseGrid( "0.1, 0.9" ) ) );
+    }
+
+    public void testPointsMatchSingleRuns() throws Exception
+    {
+        PathSelector selector = new PathSelector( ExperimentRunnerTest.sampleNodes() );
+        double[] alphas = { 0.0, 1.0 };
+        double[] betas = { 0.2, 0.8 };
+
+        List<ParameterSweep.Point> points = new ParameterSweep( selector, 3 ).run( "geo", alphas, betas, 5000, 17L );
+        assertEquals( 4, points.size() );
+
+        ExperimentRunner runner = new ExperimentRunner( selector, 2 );
+        for ( int i = 0; i < points.size(); i++ )
+        {
+            ParameterSweep.Point p = points.get( i );
+            assertEquals( alphas[i / 2], p.getAlpha() );
+            assertEquals( betas[i % 2], p.getBeta() );
+
+            ExperimentResults single = runner.run( 5000, "geo", p.getAlpha(), p.getBeta(), 17L );
+            MetricsSnapshot expected = single.snapshot();
+            assertEquals( expected.getCountries( MetricsSnapshot.ALL ).getEntropy(),
+                    p.getMetrics().getCountries( MetricsSnapshot.ALL ).getEntropy(), 0.0 );
+            assertEquals( expected.getBandwidth().getMean(), p.getMetrics().getBandwidth().getMean(), 0.0 );
+        }
+
+        StringWriter csv = new StringWriter();
+        ParameterSweep.writeCsv( points, csv );
+        String[] lines = csv.toString().split( "\n" );
+        assertEquals( 5, lines.length );
+        assertTrue( lines[1].startsWith( "0.000000,0.200000,5000," ) );
+    }
+}
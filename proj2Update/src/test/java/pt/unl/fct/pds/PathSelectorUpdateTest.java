@@ -0,0 +1,116 @@
+package pt.unl.fct.pds;
+
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import pt.unl.fct.pds.model.Circuit;
+import pt.unl.fct.pds.model.Node;
+
+/**
+ * Incremental consensus updates keep ids stable and only select live relays.
+ */
+public class PathSelectorUpdateTest
+    extends TestCase
+{
+    public PathSelectorUpdateTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PathSelectorUpdateTest.class );
+    }
+
+    public void testUpdatePatchesRelaysInPlace() throws Exception
+    {
+        Node[] first = ExperimentRunnerTest.sampleNodes();
+        PathSelector selector = new PathSelector( first, 7L );
+        RelayTable table = selector.getRelayTable();
+        int charlieId = table.idOf( first[2].getFingerprint() );
+        int foxtrotId = table.idOf( first[5].getFingerprint() );
+
+        // Next hour: charlie leaves, foxtrot's bandwidth changes, a new exit appears
+        Node[] second = ExperimentRunnerTest.sampleNodes();
+        second[5].setBandwidth( 1000 );
+        second[5].setCountry( "XX" );
+        Node newcomer = new Node( "golf", "AGolfFingerprintxxxxxxxxxxx", null, "198.51.100.7",
+                443, 0, new String[] { "Exit", "Fast", "Running", "Valid" }, "Tor 0.4.8.12",
+                90000, "XX", "accept 443" );
+        Node[] next = Arrays.copyOf( second, second.length );
+        next[2] = newcomer;
+
+        RelayTable.Update update = selector.update( next );
+        assertEquals( 1, update.getAdded() );
+        assertEquals( 1, update.getRemoved() );
+        assertEquals( 1, update.getModified() );
+        assertEquals( 6, table.liveCount() );
+
+        assertEquals( -1, table.idOf( first[2].getFingerprint() ) );
+        assertEquals( foxtrotId, table.idOf( second[5].getFingerprint() ) );
+        assertEquals( 1000, table.bandwidth( foxtrotId ) );
+        // The freed id is not reused in the same update
+        assertFalse( table.idOf( "AGolfFingerprintxxxxxxxxxxx" ) == charlieId );
+        // Countries carry over for relays that kept their address
+        assertEquals( "US", table.node( foxtrotId ).getCountry() );
+
+        for ( int i = 0; i < 5000; i++ )
+        {
+            Circuit c = selector.selectPathBaseline( i );
+            for ( Node n : c.getNodes() )
+            {
+                assertFalse( "charlie".equals( n.getNickname() ) );
+            }
+        }
+    }
+
+    public void testPortSpecificExits() throws Exception
+    {
+        PathSelector selector = new PathSelector( ExperimentRunnerTest.sampleNodes(), 11L );
+
+        for ( int i = 0; i < 2000; i++ )
+        {
+            // Only alpha accepts 8080
+            assertEquals( "alpha", selector.selectPathBaseline( i, 8080 ).getNodes()[2].getNickname() );
+
+            String exit = selector.selectPathGeoAware( i, new int[] { 80, 995 }, 0.5, 0.2 ).getNodes()[2].getNickname();
+            assertTrue( exit, "alpha".equals( exit ) || "foxtrot".equals( exit ) );
+
+            // bravo, delta and echo reject every port
+            exit = selector.selectPathBaseline( i ).getNodes()[2].getNickname();
+            assertTrue( exit, "alpha".equals( exit ) || "charlie".equals( exit ) || "foxtrot".equals( exit ) );
+        }
+
+        try
+        {
+            selector.selectPathBaseline( 0, 25 );
+            fail( "No relay accepts port 25" );
+        }
+        catch ( IllegalStateException expected )
+        {
+        }
+    }
+
+    public void testBatchMatchesSingleDraws() throws Exception
+    {
+        Node[] nodes = ExperimentRunnerTest.sampleNodes();
+        PathSelector single = new PathSelector( nodes, 5L );
+        PathSelector batched = new PathSelector( nodes, 5L );
+        RelayTable table = batched.getRelayTable();
+
+        CircuitBatch batch = new CircuitBatch( 16 );
+        batched.selectPathsGeoAware( 500, 0.5, 0.2, batch );
+        assertEquals( 500, batch.size() );
+
+        for ( int i = 0; i < batch.size(); i++ )
+        {
+            Circuit c = single.selectPathGeoAware( i, 0.5, 0.2 );
+            assertSame( c.getNodes()[0], table.node( batch.guard( i ) ) );
+            assertSame( c.getNodes()[1], table.node( batch.middle( i ) ) );
+            assertSame( c.getNodes()[2], table.node( batch.exit( i ) ) );
+            assertEquals( c.getMinBandwidth(), batch.minBandwidth( i ) );
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package pt.unl.fct.pds;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Event ordering, data conservation and repeatability of the relay load
+ * simulation.
+ */
+public class RelayLoadSimulatorTest
+    extends TestCase
+{
+    public RelayLoadSimulatorTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( RelayLoadSimulatorTest.class );
+    }
+
+    public void testEventHeapPopsInTimeOrder()
+    {
+        EventHeap heap = new EventHeap( 4 );
+        SplittableRandom random = new SplittableRandom( 3L );
+        double[] times = new double[1000];
+        for ( int i = 0; i < times.length; i++ )
+        {
+            times[i] = random.nextDouble();
+            heap.push( times[i], i );
+        }
+
+        // Lazy deletion in bulk: drop the odd payloads
+        heap.retain( p -> p % 2 == 0 );
+        assertEquals( 500, heap.size() );
+
+        double[] expected = new double[500];
+        for ( int i = 0; i < expected.length; i++ )
+        {
+            expected[i] = times[2 * i];
+        }
+        Arrays.sort( expected );
+        for ( double t : expected )
+        {
+            assertEquals( t, heap.peekTime(), 0.0 );
+            long p = heap.pop();
+            assertEquals( t, times[(int) p], 0.0 );
+        }
+        assertTrue( heap.isEmpty() );
+    }
+
+    public void testEveryFlowFinishesAndDataIsConserved() throws Exception
+    {
+        RelayLoadSimulator sim = new RelayLoadSimulator( new PathSelector( ExperimentRunnerTest.sampleNodes() ) );
+        int flows = 20000;
+
+        RelayLoadSimulator.Report report = sim.run( new GeoAwareStrategy( 0.5, 0.2 ), flows, 50.0, 500.0, 8L );
+        assertEquals( 2L * flows, report.getEvents() );
+        assertEquals( flows, report.getCompletionTimes().getCount() );
+        assertTrue( report.getScheduled() >= flows );
+        // Each flow crosses three relays
+        assertEquals( 3 * report.getTotalFlowKb(), report.getServedKb(), 1e-6 * report.getServedKb() );
+        assertTrue( report.getMaxUtilization() <= 1.0 + 1e-9 );
+        assertTrue( report.getMaxUtilization() > 0.0 );
+
+        // Reusing the simulator with the same seed gives the same run
+        RelayLoadSimulator.Report again = sim.run( new GeoAwareStrategy( 0.5, 0.2 ), flows, 50.0, 500.0, 8L );
+        assertEquals( report.getDuration(), again.getDuration(), 0.0 );
+        assertEquals( report.getScheduled(), again.getScheduled() );
+        assertEquals( report.getCompletionTimes().getP90(), again.getCompletionTimes().getP90() );
+    }
+
+    public void testLoadedRunPushesAFewEventsPerEvent() throws Exception
+    {
+        RelayLoadSimulator sim = new RelayLoadSimulator( new PathSelector( ExperimentRunnerTest.sampleNodes() ) );
+
+        // Busiest relay close to saturation: rescheduling every flow on
+        // each event would push hundreds of completions per event here
+        RelayLoadSimulator.Report report = sim.run( BaselineStrategy.INSTANCE, 20000, 100.0, 500.0, 8L );
+        assertTrue( report.getMaxUtilization() > 0.9 );
+        assertTrue( report.getScheduled() <= 4 * report.getEvents() );
+    }
+
+    public void testLoneFlowMovesAtItsBottleneck() throws Exception
+    {
+        PathSelector selector = new PathSelector( ExperimentRunnerTest.sampleNodes() );
+        RelayTable table = selector.getRelayTable();
+        int minBandwidth = Integer.MAX_VALUE;
+        for ( int id = 0; id < table.size(); id++ )
+        {
+            minBandwidth = Math.min( minBandwidth, table.bandwidth( id ) );
+        }
+
+        // One flow: it has every relay to itself
+        RelayLoadSimulator.Report report = new RelayLoadSimulator( selector ).run( BaselineStrategy.INSTANCE, 1,
+                1.0, 100.0, 5L );
+        double seconds = report.getCompletionTimes().getMax() / 1000.0;
+        assertTrue( seconds <= report.getTotalFlowKb() / minBandwidth + 0.001 );
+        assertEquals( report.getTotalFlowKb() * 3, report.getServedKb(), 1e-9 );
+    }
+}
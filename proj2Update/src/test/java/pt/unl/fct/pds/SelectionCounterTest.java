@@ -0,0 +1,84 @@
+package pt.unl.fct.pds;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * The incremental statistics must match the textbook formulas.
+ */
+public class SelectionCounterTest
+    extends TestCase
+{
+    public SelectionCounterTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( SelectionCounterTest.class );
+    }
+
+    public void testIncrementalEntropyMatchesDirectFormula()
+    {
+        long[] counts = { 5, 0, 12, 1, 40, 3 };
+        SelectionCounter counter = new SelectionCounter( 2 );
+        for ( int id = 0; id < counts.length; id++ )
+        {
+            for ( long k = 0; k < counts[id]; k++ )
+            {
+                counter.add( id );
+            }
+        }
+
+        long total = 61;
+        double h = 0.0;
+        for ( long c : counts )
+        {
+            if ( c > 0 )
+            {
+                double p = c / (double) total;
+                h -= p * Math.log( p ) / Math.log( 2 );
+            }
+        }
+
+        assertEquals( total, counter.total() );
+        assertEquals( 5, counter.distinct() );
+        assertEquals( h, counter.entropy(), 1e-12 );
+    }
+
+    public void testUniformCountsSummary()
+    {
+        SelectionCounter counter = new SelectionCounter( 8 );
+        for ( int id = 0; id < 8; id++ )
+        {
+            counter.add( id, 100 );
+        }
+
+        SelectionCounter.Summary s = counter.summary();
+        assertEquals( 3.0, s.getEntropy(), 1e-12 );
+        assertEquals( 0.0, s.getGini(), 1e-12 );
+        // Trying the 8 ids in any order takes (8 + 1) / 2 guesses on average
+        assertEquals( 4.5, s.getGuessingEntropy(), 1e-12 );
+    }
+
+    public void testMergeEqualsSingleCounter()
+    {
+        SelectionCounter a = new SelectionCounter( 4 );
+        SelectionCounter b = new SelectionCounter( 4 );
+        SelectionCounter both = new SelectionCounter( 4 );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            int id = ( i * 7 ) % 11;
+            ( i % 3 == 0 ? a : b ).add( id );
+            both.add( id );
+        }
+
+        a.merge( b );
+        assertEquals( both.total(), a.total() );
+        assertEquals( both.distinct(), a.distinct() );
+        assertEquals( both.entropy(), a.entropy(), 1e-12 );
+        assertEquals( both.summary().getGini(), a.summary().getGini(), 1e-12 );
+    }
+}
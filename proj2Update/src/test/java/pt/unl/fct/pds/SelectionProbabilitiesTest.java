@@ -0,0 +1,129 @@
+package pt.unl.fct.pds;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import pt.unl.fct.pds.model.Node;
+
+/**
+ * The class-aggregated probabilities match a brute-force sum over every
+ * (exit, guard, middle) triple.
+ */
+public class SelectionProbabilitiesTest
+    extends TestCase
+{
+    public SelectionProbabilitiesTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( SelectionProbabilitiesTest.class );
+    }
+
+    public void testMatchesBruteForce() throws Exception
+    {
+        Node[] nodes = ExperimentRunnerTest.sampleNodes();
+        // A family on top of the /16 shared by bravo and charlie
+        nodes[3].setFamily( new String[] { "$" + ExperimentRunnerTest.hexFingerprint( nodes[4] ) } );
+        nodes[4].setFamily( new String[] { "$" + ExperimentRunnerTest.hexFingerprint( nodes[3] ) } );
+        RelayTable table = new PathSelector( nodes ).getRelayTable();
+        assertTrue( table.sameFamily( 3, 4 ) );
+
+        PathSelectionStrategy[] strategies = {
+                BaselineStrategy.INSTANCE, new GeoAwareStrategy( 0.5, 0.2 ), new GeoAwareStrategy( 1.0, 1.0 )
+        };
+        for ( PathSelectionStrategy s : strategies )
+        {
+            SelectionProbabilities exact = SelectionProbabilities.compute( table, s );
+            double[][] expected = bruteForce( table, s );
+            double sum = 0;
+            for ( int id = 0; id < table.size(); id++ )
+            {
+                for ( int p = SelectionProbabilities.GUARD; p <= SelectionProbabilities.EXIT; p++ )
+                {
+                    assertEquals( s + " " + p + " " + id, expected[p][id], exact.relay( p, id ), 1e-12 );
+                }
+                sum += exact.relay( SelectionProbabilities.ALL, id );
+            }
+            assertEquals( 1.0, sum, 1e-12 );
+        }
+
+        try
+        {
+            SelectionProbabilities.compute( table, new BandwidthCappedStrategy( 1000 ) );
+            fail( "bwcap factors depend on the relay" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+    }
+
+    public void testAgreesWithSampling() throws Exception
+    {
+        PathSelector selector = new PathSelector( ExperimentRunnerTest.sampleNodes() );
+        GeoAwareStrategy geo = new GeoAwareStrategy( 0.5, 0.2 );
+        SelectionProbabilities exact = SelectionProbabilities.compute( selector.getRelayTable(), geo );
+        ExperimentResults sampled = new ExperimentRunner( selector, 2 ).run( 200000, geo, 3L, 0, null );
+
+        assertEquals( exact.countryEntropy( SelectionProbabilities.ALL ), sampled.allCountries.entropy(), 0.01 );
+        assertEquals( exact.countryEntropy( SelectionProbabilities.MIDDLE ), sampled.middleCountries.entropy(), 0.01 );
+    }
+
+    private static double[][] bruteForce( RelayTable t, PathSelectionStrategy s )
+    {
+        int n = t.size();
+        double[][] p = new double[3][n];
+        double[] exits = new double[n];
+        double exitTotal = 0;
+        for ( int e = 0; e < n; e++ )
+        {
+            if ( t.hasFlags( e, PathSelector.EXIT_MASK ) )
+                exits[e] = t.bandwidth( e ) * s.exitFactor( t, e );
+            exitTotal += exits[e];
+        }
+        for ( int e = 0; e < n; e++ )
+        {
+            if ( exits[e] == 0 )
+                continue;
+            double pe = exits[e] / exitTotal;
+            p[SelectionProbabilities.EXIT][e] += pe;
+
+            double[] guards = new double[n];
+            double guardTotal = 0;
+            for ( int g = 0; g < n; g++ )
+            {
+                if ( t.hasFlags( g, PathSelector.GUARD_MASK ) && !related( t, g, e ) )
+                    guards[g] = t.bandwidth( g ) * s.guardFactor( t, g, e );
+                guardTotal += guards[g];
+            }
+            for ( int g = 0; g < n; g++ )
+            {
+                if ( guards[g] == 0 )
+                    continue;
+                double pg = pe * guards[g] / guardTotal;
+                p[SelectionProbabilities.GUARD][g] += pg;
+
+                double[] middles = new double[n];
+                double middleTotal = 0;
+                for ( int m = 0; m < n; m++ )
+                {
+                    if ( t.hasFlags( m, PathSelector.MIDDLE_MASK ) && !related( t, m, e ) && !related( t, m, g ) )
+                        middles[m] = t.bandwidth( m ) * s.middleFactor( t, m, g, e );
+                    middleTotal += middles[m];
+                }
+                for ( int m = 0; m < n; m++ )
+                {
+                    p[SelectionProbabilities.MIDDLE][m] += pg * middles[m] / middleTotal;
+                }
+            }
+        }
+        return p;
+    }
+
+    private static boolean related( RelayTable t, int a, int b )
+    {
+        return t.same16Subnet( a, b ) || t.sameFamily( a, b );
+    }
+}
@@ -0,0 +1,80 @@
+package pt.unl.fct.pds;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import pt.unl.fct.pds.model.Node;
+
+/**
+ * Strategies by name, and the distribution a plugged-in strategy produces.
+ */
+public class StrategyRegistryTest
+    extends TestCase
+{
+    public StrategyRegistryTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( StrategyRegistryTest.class );
+    }
+
+    public void testSpecs()
+    {
+        assertSame( BaselineStrategy.INSTANCE, StrategyRegistry.create( "baseline" ) );
+
+        GeoAwareStrategy geo = (GeoAwareStrategy) StrategyRegistry.create( "geo:alpha=0.3, beta=2" );
+        assertEquals( 0.3, geo.getAlpha(), 0.0 );
+        // Clamped to [0, 1]
+        assertEquals( 1.0, geo.getBeta(), 0.0 );
+
+        assertEquals( 5000, ( (BandwidthCappedStrategy) StrategyRegistry.create( "bwcap:cap=5000" ) ).getCap() );
+
+        try
+        {
+            StrategyRegistry.create( "nope" );
+            fail( "Unknown strategy" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+    }
+
+    /**
+     * With every bandwidth capped at the smallest exit bandwidth, exits are
+     * drawn uniformly even though the tables are bandwidth-weighted.
+     */
+    public void testCappedExitsAreUniform() throws Exception
+    {
+        Node[] nodes = ExperimentRunnerTest.sampleNodes();
+        PathSelector selector = new PathSelector( nodes, 13L );
+        RelayTable table = selector.getRelayTable();
+
+        int cap = Integer.MAX_VALUE;
+        for ( Node n : nodes )
+        {
+            if ( n.isFast() && n.getPortPolicy().allowsAnyPort() )
+            {
+                cap = Math.min( cap, n.getBandwidth() );
+            }
+        }
+
+        CircuitBatch batch = new CircuitBatch( 0 );
+        int circuits = 60000;
+        selector.selectPaths( circuits, new BandwidthCappedStrategy( cap ), batch );
+
+        int[] exits = new int[table.size()];
+        for ( int i = 0; i < circuits; i++ )
+        {
+            exits[batch.exit( i )]++;
+        }
+        // alpha, charlie and foxtrot accept some port
+        for ( int i : new int[] { 0, 2, 5 } )
+        {
+            int id = table.idOf( nodes[i].getFingerprint() );
+            assertEquals( 1.0 / 3, exits[id] / (double) circuits, 0.01 );
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package pt.unl.fct.pds.model;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Compiling consensus "p" lines into port ranges.
+ */
+public class ExitPolicyTest
+    extends TestCase
+{
+    public ExitPolicyTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ExitPolicyTest.class );
+    }
+
+    public void testAcceptList()
+    {
+        ExitPolicy p = ExitPolicy.compile( "accept 50000-50010,20-23,43,80,443,8000-8100,8100-8200" );
+        assertTrue( p.allows( 20 ) );
+        assertTrue( p.allows( 23 ) );
+        assertFalse( p.allows( 24 ) );
+        assertTrue( p.allows( 443 ) );
+        assertFalse( p.allows( 444 ) );
+        assertTrue( p.allows( 8150 ) );
+        // Overlapping ranges are merged
+        assertEquals( 6, p.getRangeCount() );
+        assertTrue( p.allows( 50005 ) );
+        assertSame( p, ExitPolicy.compile( "accept 50000-50010,20-23,43,80,443,8000-8100,8100-8200" ) );
+    }
+
+    public void testRejectListIsComplemented()
+    {
+        ExitPolicy p = ExitPolicy.compile( "reject 25,119,135-139,445" );
+        assertTrue( p.allows( 1 ) );
+        assertFalse( p.allows( 25 ) );
+        assertTrue( p.allows( 80 ) );
+        assertFalse( p.allows( 137 ) );
+        assertTrue( p.allows( 65535 ) );
+        assertTrue( p.allowsAnyPort() );
+    }
+
+    public void testRejectEverything()
+    {
+        assertSame( ExitPolicy.REJECT_ALL, ExitPolicy.compile( "reject 1-65535" ) );
+        assertSame( ExitPolicy.REJECT_ALL, ExitPolicy.compile( "reject *:*" ) );
+        assertFalse( ExitPolicy.REJECT_ALL.allowsAnyPort() );
+        assertSame( ExitPolicy.ACCEPT_ALL, ExitPolicy.compile( null ) );
+        assertSame( ExitPolicy.ACCEPT_ALL, ExitPolicy.compile( "accept 1-65535" ) );
+    }
+}
@@ -0,0 +1,84 @@
+package pt.unl.fct.pds.utils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Eviction and snapshot round-trip of the bounded country cache.
+ */
+public class BoundedCountryCacheTest
+    extends TestCase
+{
+    public BoundedCountryCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( BoundedCountryCacheTest.class );
+    }
+
+    public void testSizeIsBounded()
+    {
+        BoundedCountryCache cache = new BoundedCountryCache( 64, 0 );
+        for ( int ip = 0; ip < 10000; ip++ )
+        {
+            cache.put( ip, "PT" );
+        }
+        assertTrue( cache.size() <= 64 );
+        assertEquals( "PT", cache.get( 9999 ) );
+    }
+
+    public void testSnapshotRoundTripSkipsUnknown() throws Exception
+    {
+        BoundedCountryCache cache = new BoundedCountryCache( 1000, 0 );
+        cache.put( (int) IpAddresses.parseIpv4( "185.220.101.33" ), "DE" );
+        cache.put( (int) IpAddresses.parseIpv4( "23.129.64.130" ), "US" );
+        cache.put( (int) IpAddresses.parseIpv4( "10.0.0.1" ), "XX" );
+
+        Path file = Files.createTempFile( "country-cache", ".bin" );
+        try
+        {
+            cache.saveSnapshot( file );
+
+            BoundedCountryCache loaded = new BoundedCountryCache( 1000, 0 );
+            assertEquals( 2, loaded.loadSnapshot( file ) );
+            assertEquals( "DE", loaded.get( (int) IpAddresses.parseIpv4( "185.220.101.33" ) ) );
+            assertEquals( "US", loaded.get( (int) IpAddresses.parseIpv4( "23.129.64.130" ) ) );
+            assertNull( loaded.get( (int) IpAddresses.parseIpv4( "10.0.0.1" ) ) );
+        }
+        finally
+        {
+            Files.deleteIfExists( file );
+        }
+    }
+
+    public void testLoadIntoSmallerCacheCountsKeptEntries() throws Exception
+    {
+        BoundedCountryCache big = new BoundedCountryCache( 10000, 0 );
+        for ( int ip = 0; ip < 5000; ip++ )
+        {
+            big.put( ip, "PT" );
+        }
+
+        Path file = Files.createTempFile( "country-cache", ".bin" );
+        try
+        {
+            big.saveSnapshot( file );
+
+            BoundedCountryCache small = new BoundedCountryCache( 64, 0 );
+            int kept = small.loadSnapshot( file );
+            assertEquals( small.size(), kept );
+            assertTrue( kept <= 64 );
+        }
+        finally
+        {
+            Files.deleteIfExists( file );
+        }
+    }
+}
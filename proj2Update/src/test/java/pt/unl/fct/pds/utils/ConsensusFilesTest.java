@@ -0,0 +1,105 @@
+package pt.unl.fct.pds.utils;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import pt.unl.fct.pds.model.Node;
+
+/**
+ * Offline loading of plain and gzip consensus files through the byte parser.
+ */
+public class ConsensusFilesTest
+    extends TestCase
+{
+    private Path dir;
+
+    public ConsensusFilesTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ConsensusFilesTest.class );
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory( "consensus" );
+        try ( InputStream in = getClass().getResourceAsStream( "/consensus-sample.txt" ) )
+        {
+            Files.copy( in, dir.resolve( "2025-11-17-21-00-00-consensus" ) );
+        }
+        try ( InputStream in = getClass().getResourceAsStream( "/consensus-sample.txt" );
+              OutputStream out = new GZIPOutputStream(
+                      Files.newOutputStream( dir.resolve( "2025-11-17-22-00-00-consensus.gz" ) ) ) )
+        {
+            byte[] buf = new byte[4096];
+            int n;
+            while ( ( n = in.read( buf ) ) != -1 )
+            {
+                out.write( buf, 0, n );
+            }
+        }
+        // What else an extracted CollecTor directory may hold
+        Files.write( dir.resolve( "2025-11-17-21-00-00-consensus.sha256" ),
+                "0123abcd  2025-11-17-21-00-00-consensus\n".getBytes( "UTF-8" ) );
+        Files.write( dir.resolve( "README" ), "Tor consensuses\n".getBytes( "UTF-8" ) );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        try ( Stream<Path> files = Files.list( dir ) )
+        {
+            for ( Path p : (Iterable<Path>) files::iterator )
+            {
+                Files.delete( p );
+            }
+        }
+        Files.delete( dir );
+    }
+
+    public void testPlainAndGzipGiveSameNodes() throws Exception
+    {
+        ConsensusParser parser = new ConsensusParser( ConsensusParser.VERBOSITY_QUIET );
+        // The checksum and the README are not consensuses
+        List<Path> files = ConsensusFiles.listConsensusFiles( dir );
+        assertEquals( 2, files.size() );
+        assertTrue( files.get( 0 ).toString().endsWith( "21-00-00-consensus" ) );
+
+        Node[] plain = parser.parseConsensusFile( files.get( 0 ) );
+        Node[] gzip = parser.parseConsensusFile( files.get( 1 ) );
+
+        assertEquals( 6, plain.length );
+        assertEquals( plain.length, gzip.length );
+        for ( int i = 0; i < plain.length; i++ )
+        {
+            assertEquals( plain[i].getFingerprint(), gzip[i].getFingerprint() );
+            assertEquals( plain[i].getBandwidth(), gzip[i].getBandwidth() );
+            assertEquals( plain[i].getTimePublished(), gzip[i].getTimePublished() );
+            assertEquals( plain[i].getExitPolicy(), gzip[i].getExitPolicy() );
+        }
+
+        assertEquals( "185.220.102.8", plain[2].getIpAddress() );
+        assertTrue( plain[2].isExit() );
+        assertEquals( 27000, plain[2].getBandwidth() );
+    }
+
+    public void testCollectorTypeLineIsAccepted() throws Exception
+    {
+        Path annotated = dir.resolve( "annotated-consensus" );
+        Files.write( annotated, "@type network-status-consensus-3 1.0\nnetwork-status-version 3\n".getBytes( "UTF-8" ) );
+        assertTrue( ConsensusFiles.isConsensusFile( annotated ) );
+        assertFalse( ConsensusFiles.isConsensusFile( dir.resolve( "README" ) ) );
+    }
+}
@@ -0,0 +1,129 @@
+package pt.unl.fct.pds.utils;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import pt.unl.fct.pds.model.Node;
+
+/**
+ * Parses the bundled sample consensus with the streaming parser, and checks
+ * that the byte parser used for local files reads the same nodes.
+ */
+public class ConsensusStreamParserTest
+    extends TestCase
+{
+    public ConsensusStreamParserTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ConsensusStreamParserTest.class );
+    }
+
+    public void testParsesSampleConsensus() throws Exception
+    {
+        List<Node> nodes = new ArrayList<>();
+        try ( ConsensusStreamParser stream = new ConsensusStreamParser(
+                new BufferedReader( new InputStreamReader(
+                        getClass().getResourceAsStream( "/consensus-sample.txt" ), StandardCharsets.UTF_8 ) ),
+                ConsensusParser.VERBOSITY_QUIET ) )
+        {
+            while ( stream.hasNext() )
+            {
+                nodes.add( stream.next() );
+            }
+        }
+
+        assertEquals( 6, nodes.size() );
+
+        Node alpha = nodes.get( 0 );
+        assertEquals( "alpha", alpha.getNickname() );
+        assertEquals( "AAoQ1DAR6kkoo19hBAX5K0QztNw", alpha.getFingerprint() );
+        assertEquals( LocalDateTime.of( 2025, 11, 17, 10, 12, 1 ), alpha.getTimePublished() );
+        assertEquals( "23.129.64.130", alpha.getIpAddress() );
+        assertEquals( 443, alpha.getOrPort() );
+        assertEquals( 0, alpha.getDirPort() );
+        assertEquals( 52000, alpha.getBandwidth() );
+        assertEquals( "Tor 0.4.8.9", alpha.getVersion() );
+        assertTrue( alpha.isExit() && alpha.isFast() && alpha.isGuard() );
+        assertTrue( alpha.getExitPolicy().startsWith( "accept 20-23,43" ) );
+        assertEquals( "XX", alpha.getCountry() );
+
+        Node charlie = nodes.get( 2 );
+        assertEquals( 27000, charlie.getBandwidth() );
+        assertEquals( 80, charlie.getDirPort() );
+        assertFalse( charlie.isGuard() );
+
+        Node foxtrot = nodes.get( 5 );
+        assertEquals( "foxtrot", foxtrot.getNickname() );
+        assertEquals( "accept 22,53,80,443,993,995", foxtrot.getExitPolicy() );
+    }
+
+    public void testByteParserReadsSameFamilies() throws Exception
+    {
+        // The sample with family lines (as in vote and descriptor-style
+        // documents) after some of the routers
+        List<String> lines = new ArrayList<>();
+        try ( BufferedReader r = new BufferedReader( new InputStreamReader(
+                getClass().getResourceAsStream( "/consensus-sample.txt" ), StandardCharsets.UTF_8 ) ) )
+        {
+            String line;
+            int routers = 0;
+            while ( ( line = r.readLine() ) != null )
+            {
+                lines.add( line );
+                if ( line.startsWith( "r " ) && routers++ % 2 == 0 )
+                {
+                    lines.add( "family $000A10D43011EA4928A35F610405F92B4433B4DC~alpha  bravo $FFFF" );
+                }
+            }
+        }
+        Path file = Files.createTempFile( "consensus-family", ".txt" );
+        try
+        {
+            Files.write( file, lines, StandardCharsets.UTF_8 );
+
+            Node[] fromBytes = new ConsensusParser( ConsensusParser.VERBOSITY_QUIET ).parseConsensusFile( file );
+            List<Node> fromStream = new ArrayList<>();
+            try ( ConsensusStreamParser stream = new ConsensusStreamParser(
+                    Files.newBufferedReader( file, StandardCharsets.UTF_8 ), ConsensusParser.VERBOSITY_QUIET ) )
+            {
+                while ( stream.hasNext() )
+                {
+                    fromStream.add( stream.next() );
+                }
+            }
+
+            assertEquals( fromStream.size(), fromBytes.length );
+            int withFamily = 0;
+            for ( int i = 0; i < fromBytes.length; i++ )
+            {
+                assertEquals( fromStream.get( i ).getFingerprint(), fromBytes[i].getFingerprint() );
+                assertTrue( Arrays.equals( fromStream.get( i ).getFamily(), fromBytes[i].getFamily() ) );
+                if ( fromBytes[i].getFamily() != null && fromBytes[i].getFamily().length > 0 )
+                {
+                    withFamily++;
+                    assertEquals( Arrays.asList( "$000A10D43011EA4928A35F610405F92B4433B4DC~alpha", "bravo", "$FFFF" ),
+                            Arrays.asList( fromBytes[i].getFamily() ) );
+                }
+            }
+            assertEquals( 3, withFamily );
+        }
+        finally
+        {
+            Files.delete( file );
+        }
+    }
+}
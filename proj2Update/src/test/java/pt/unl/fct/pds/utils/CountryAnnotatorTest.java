@@ -0,0 +1,112 @@
+package pt.unl.fct.pds.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import pt.unl.fct.pds.model.Node;
+
+/**
+ * Anotação pela pool de threads (sem base de dados local): IPs repetidos,
+ * nodes já anotados, IPs vazios e lookups que não acabam dentro do prazo.
+ */
+public class CountryAnnotatorTest
+    extends TestCase
+{
+    private static final String SLOW_IP = "10.0.0.99";
+
+    public CountryAnnotatorTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( CountryAnnotatorTest.class );
+    }
+
+    /**
+     * Conta os lookups por IP; o SLOW_IP só responde depois do prazo.
+     */
+    private static final class CountingParser
+        extends ConsensusParser
+    {
+        final Map<String, AtomicInteger> lookups = new ConcurrentHashMap<>();
+
+        CountingParser()
+        {
+            super( VERBOSITY_QUIET );
+        }
+
+        @Override
+        public String lookupCountry( String ip )
+        {
+            lookups.computeIfAbsent( ip, k -> new AtomicInteger() ).incrementAndGet();
+            if ( SLOW_IP.equals( ip ) )
+            {
+                try
+                {
+                    Thread.sleep( 10000 );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return "DE";
+            }
+            return "PT";
+        }
+    }
+
+    private static Node node( String ip, String country )
+    {
+        Node n = new Node();
+        n.setIpAddress( ip );
+        n.setCountry( country );
+        return n;
+    }
+
+    public void testAnnotate() throws Exception
+    {
+        CountingParser parser = new CountingParser();
+        assertNull( parser.getGeoIpDatabase() );
+
+        Node[] nodes = {
+            node( "10.0.0.1", null ),
+            node( "10.0.0.1", null ),
+            node( "10.0.0.1", "" ),
+            node( "10.0.0.2", "FR" ),
+            node( "", null ),
+            node( null, null ),
+            node( SLOW_IP, null ),
+            null,
+        };
+
+        long start = System.nanoTime();
+        int known = new CountryAnnotator( parser, 2, 500 ).annotate( nodes );
+        long elapsedMillis = ( System.nanoTime() - start ) / 1000000;
+
+        // Só o 10.0.0.1 ficou resolvido, e uma só vez para os três nodes
+        assertEquals( 1, known );
+        assertEquals( 1, parser.lookups.get( "10.0.0.1" ).get() );
+        assertEquals( "PT", nodes[0].getCountry() );
+        assertEquals( "PT", nodes[1].getCountry() );
+        assertEquals( "PT", nodes[2].getCountry() );
+
+        // Os que já têm país não são consultados
+        assertNull( parser.lookups.get( "10.0.0.2" ) );
+        assertEquals( "FR", nodes[3].getCountry() );
+
+        // IPs vazios não são consultados e ficam "XX"
+        assertEquals( "XX", nodes[4].getCountry() );
+        assertEquals( "XX", nodes[5].getCountry() );
+        assertEquals( 2, parser.lookups.size() );
+
+        // O lookup lento é cancelado no fim do prazo
+        assertEquals( "XX", nodes[6].getCountry() );
+        assertTrue( elapsedMillis < 5000 );
+    }
+}
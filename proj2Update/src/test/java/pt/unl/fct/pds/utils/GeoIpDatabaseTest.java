@@ -0,0 +1,59 @@
+package pt.unl.fct.pds.utils;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Range lookups in the local GeoIP database.
+ */
+public class GeoIpDatabaseTest
+    extends TestCase
+{
+    public GeoIpDatabaseTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( GeoIpDatabaseTest.class );
+    }
+
+    private static Path resource( String name ) throws Exception
+    {
+        return Paths.get( GeoIpDatabaseTest.class.getResource( name ).toURI() );
+    }
+
+    public void testLookups() throws Exception
+    {
+        GeoIpDatabase db = GeoIpDatabase.load( resource( "/geoip-sample.txt" ), resource( "/geoip6-sample.txt" ) );
+        assertEquals( 7, db.getIpv4RangeCount() );
+        assertEquals( 3, db.getIpv6RangeCount() );
+
+        assertEquals( "AU", db.lookupCountry( "1.0.0.0" ) );
+        assertEquals( "AU", db.lookupCountry( "1.0.0.255" ) );
+        assertNull( db.lookupCountry( "1.0.1.0" ) );
+        assertEquals( "TH", db.lookupCountry( "1.0.200.3" ) );
+        assertEquals( "US", db.lookupCountry( "23.129.64.130" ) );
+        assertEquals( "DE", db.lookupCountry( "185.220.101.33" ) );
+        assertEquals( "DE", db.lookupCountry( "185.220.102.8" ) );
+        assertNull( db.lookupCountry( "255.255.255.255" ) );
+
+        assertEquals( "JP", db.lookupCountry( "2001:200::1" ) );
+        assertEquals( "DE", db.lookupCountry( "[2a01:4f8:c17:1b2::2]" ) );
+        assertNull( db.lookupCountry( "2001:201::1" ) );
+        assertNull( db.lookupCountry( "not-an-ip" ) );
+    }
+
+    public void testParserUsesLocalDatabase() throws Exception
+    {
+        ConsensusParser parser = new ConsensusParser( ConsensusParser.VERBOSITY_QUIET );
+        parser.setGeoIpDatabase( GeoIpDatabase.load( resource( "/geoip-sample.txt" ), null ) );
+        assertEquals( "FR", parser.lookupCountry( "51.15.40.10" ) );
+        assertEquals( "XX", parser.lookupCountry( "8.8.8.8" ) );
+    }
+}
@@ -0,0 +1,52 @@
+package pt.unl.fct.pds.utils;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Estimativas do HyperLogLog dentro do erro esperado.
+ */
+public class HyperLogLogTest
+    extends TestCase
+{
+    public HyperLogLogTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( HyperLogLogTest.class );
+    }
+
+    public void testSmallCountsAreNearlyExact()
+    {
+        HyperLogLog hll = new HyperLogLog( 12 );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            hll.add( HyperLogLog.hash( "relay" + i ) );
+            hll.add( HyperLogLog.hash( "relay" + i ) );
+        }
+        assertEquals( 1000.0, hll.estimate(), 20.0 );
+    }
+
+    public void testMergedEstimateWithinFivePercent()
+    {
+        HyperLogLog a = new HyperLogLog( 12 );
+        HyperLogLog b = new HyperLogLog( 12 );
+        for ( int i = 0; i < 200000; i++ )
+        {
+            long h = HyperLogLog.hash( Integer.toHexString( i ) );
+            ( i < 120000 ? a : b ).add( h );
+        }
+        // Sobreposição: não deve contar duas vezes
+        for ( int i = 100000; i < 120000; i++ )
+        {
+            b.add( HyperLogLog.hash( Integer.toHexString( i ) ) );
+        }
+
+        a.merge( b );
+        assertEquals( 200000.0, a.estimate(), 10000.0 );
+    }
+}
@@ -0,0 +1,164 @@
+package pt.unl.fct.pds.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import pt.unl.fct.pds.RelayTable;
+import pt.unl.fct.pds.model.Node;
+
+/**
+ * Ida e volta pelo formato binário (incluindo famílias), e deteção de
+ * ficheiros corrompidos.
+ */
+public class RelaySnapshotTest
+    extends TestCase
+{
+    public RelaySnapshotTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( RelaySnapshotTest.class );
+    }
+
+    private static Node[] sampleNodes() throws IOException
+    {
+        List<Node> nodes = new ArrayList<>();
+        try ( ConsensusStreamParser stream = new ConsensusStreamParser(
+                new BufferedReader( new InputStreamReader(
+                        RelaySnapshotTest.class.getResourceAsStream( "/consensus-sample.txt" ),
+                        StandardCharsets.UTF_8 ) ),
+                ConsensusParser.VERBOSITY_QUIET ) )
+        {
+            while ( stream.hasNext() )
+            {
+                nodes.add( stream.next() );
+            }
+        }
+        nodes.get( 0 ).setCountry( "US" );
+        nodes.get( 1 ).setCountry( null );
+        nodes.get( 0 ).setFamily( new String[] { "$000A10D43011EA4928A35F610405F92B4433B4DC~alpha", "bravo" } );
+        nodes.get( 2 ).setFamily( new String[] { "$000A10D43011EA4928A35F610405F92B4433B4DC~alpha", "bravo" } );
+        nodes.get( 3 ).setFamily( new String[0] );
+        return nodes.toArray( new Node[0] );
+    }
+
+    public void testRoundTrip() throws Exception
+    {
+        Node[] nodes = sampleNodes();
+        Path file = Files.createTempFile( "relays", ".snap" );
+        try
+        {
+            RelaySnapshot.write( nodes, file );
+            assertTrue( RelaySnapshot.isSnapshot( file ) );
+
+            RelaySnapshot snapshot = RelaySnapshot.load( file );
+            assertEquals( nodes.length, snapshot.size() );
+            Node[] loaded = snapshot.toNodes();
+            for ( int i = 0; i < nodes.length; i++ )
+            {
+                Node a = nodes[i];
+                Node b = loaded[i];
+                assertEquals( a.getNickname(), b.getNickname() );
+                assertEquals( a.getFingerprint(), b.getFingerprint() );
+                assertEquals( a.getTimePublished(), b.getTimePublished() );
+                assertEquals( a.getIpAddress(), b.getIpAddress() );
+                assertEquals( a.getOrPort(), b.getOrPort() );
+                assertEquals( a.getDirPort(), b.getDirPort() );
+                assertTrue( Arrays.equals( a.getFlags(), b.getFlags() ) );
+                assertEquals( a.getFlagBits(), b.getFlagBits() );
+                assertEquals( a.getVersion(), b.getVersion() );
+                assertEquals( a.getBandwidth(), b.getBandwidth() );
+                assertEquals( a.getCountry(), b.getCountry() );
+                assertEquals( a.getExitPolicy(), b.getExitPolicy() );
+                assertTrue( Arrays.equals( a.getFamily(), b.getFamily() ) );
+                assertEquals( a.getBandwidth(), snapshot.bandwidth( i ) );
+            }
+            // Strings repetidas são partilhadas
+            assertSame( loaded[1].getExitPolicy(), loaded[3].getExitPolicy() );
+            // Famílias: declarada, vazia e ausente
+            assertEquals( 2, loaded[0].getFamily().length );
+            assertEquals( 0, loaded[3].getFamily().length );
+            assertNull( loaded[1].getFamily() );
+        }
+        finally
+        {
+            Files.deleteIfExists( file );
+        }
+    }
+
+    public void testRelayTableFromColumns() throws Exception
+    {
+        Node[] nodes = sampleNodes();
+        Path file = Files.createTempFile( "relays", ".snap" );
+        try
+        {
+            RelaySnapshot.write( nodes, file );
+            RelayTable expected = RelayTable.fromNodes( nodes );
+            RelayTable table = RelayTable.fromSnapshot( RelaySnapshot.load( file ) );
+
+            assertEquals( expected.size(), table.size() );
+            for ( int id = 0; id < table.size(); id++ )
+            {
+                assertTrue( table.isLive( id ) );
+                assertEquals( expected.bandwidth( id ), table.bandwidth( id ) );
+                assertEquals( expected.flags( id ), table.flags( id ) );
+                assertEquals( expected.ipv4( id ), table.ipv4( id ) );
+                assertEquals( expected.subnet16( id ), table.subnet16( id ) );
+                assertEquals( expected.country( id ), table.country( id ) );
+                assertEquals( expected.family( id ), table.family( id ) );
+                assertEquals( expected.fingerprintHash( id ), table.fingerprintHash( id ) );
+                assertSame( expected.policy( id ), table.policy( id ) );
+                assertEquals( id, table.idOf( nodes[id].getFingerprint() ) );
+            }
+
+            // Nodes only when asked for
+            assertEquals( nodes[2].getNickname(), table.node( 2 ).getNickname() );
+            assertTrue( Arrays.equals( nodes[0].getFamily(), table.node( 0 ).getFamily() ) );
+        }
+        finally
+        {
+            Files.deleteIfExists( file );
+        }
+    }
+
+    public void testCorruptionIsDetected() throws Exception
+    {
+        Path file = Files.createTempFile( "relays", ".snap" );
+        try
+        {
+            RelaySnapshot.write( sampleNodes(), file );
+            try ( FileChannel ch = FileChannel.open( file, StandardOpenOption.WRITE ) )
+            {
+                ch.write( ByteBuffer.wrap( new byte[] { 0x7f } ), 100 );
+            }
+            try
+            {
+                RelaySnapshot.load( file );
+                fail( "CRC devia falhar" );
+            }
+            catch ( IOException expected )
+            {
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists( file );
+        }
+    }
+}